@@ -1,5 +1,5 @@
 cd c:\PERFilesystem\
-javac PER/rover/control/*.java
+javac --add-modules jdk.incubator.vector PER/rover/control/*.java
 javac PER/rover/*.java
 javac PER/exhibit/GUI/*.java
 javac PER/exhibit/*.java
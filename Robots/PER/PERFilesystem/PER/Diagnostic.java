@@ -683,10 +683,14 @@ public class Diagnostic extends javax.swing.JFrame {
       private static final int CRAB = 2;
       private static final int TURN = 3;
       
+      /** How often in ms the drive command is sent again while driving. */
+      private static final int RESEND_TIME = 200;
+      
       int driveMode = -1;
       int speed = 0, angle=0;
       int radius = 0;
       int picCounter = 1;
+      boolean changed = false;
  
       public boolean keepRunning = true;
       public SendCommands(Diagnostic d, Rover r) {
@@ -726,15 +730,21 @@ public class Diagnostic extends javax.swing.JFrame {
                waitForCommand(); break;
                case SPIN:
                   diag.lastActionLabel.setText("Turning in place.");
-                  rover.spin(speed);
+                  if(getTeleop() != null)
+                     getTeleop().spin(speed);
+                  waitForChange(RESEND_TIME);
                   break;
                case CRAB:
                   diag.lastActionLabel.setText("Omnidirectional at "+angle+" degrees");
-                  rover.crab(speed, angle);
+                  if(getTeleop() != null)
+                     getTeleop().crab(speed, angle);
+                  waitForChange(RESEND_TIME);
                   break;
                case TURN:
                   diag.lastActionLabel.setText("Ackerman at radius "+radius+"cm");
-                  rover.quadTurn(speed, radius);
+                  if(getTeleop() != null)
+                     getTeleop().quadTurn(speed, radius);
+                  waitForChange(RESEND_TIME);
                   break;
                default: waitForCommand();
             }
@@ -749,15 +759,33 @@ public class Diagnostic extends javax.swing.JFrame {
       private synchronized void waitForCommand() {
          if(driveMode == STOP && rover.isConnected()) {
             diag.lastActionLabel.setText("Stopping the rover.");
-            rover.setAll(3, 0, 0, 0, 0, 0, 0, 0, 0);
+            if(getTeleop() != null)
+               getTeleop().stopDriving();
             diag.lastResultLabel.setText(ActionConstants.getErrorText(rover.state.getStatus()));
          }
          try {wait();} catch(InterruptedException e) {}
       }
       
+      /* The drive commands don't wait for the rover, so wait here until the
+       * joystick moves or it is time to send the command again. */
+      private synchronized void waitForChange(int ms) {
+         changed = false;
+         long end = System.currentTimeMillis() + ms;
+         long left = ms;
+         while(!changed && left > 0) {
+            try {wait(left);} catch(InterruptedException e) {}
+            left = end - System.currentTimeMillis();
+         }
+      }
+      
+      private TeleopChannel getTeleop() {
+         return rover.getTeleop();
+      }
+      
       public synchronized void spin(int pspeed) {
          speed = pspeed;
          driveMode = SPIN;
+         changed = true;
          notify();
       }
       
@@ -765,6 +793,7 @@ public class Diagnostic extends javax.swing.JFrame {
          speed = pspeed;
          angle = pang;
          driveMode = CRAB;
+         changed = true;
          notify();
       }
       
@@ -772,11 +801,13 @@ public class Diagnostic extends javax.swing.JFrame {
          speed = pspeed;
          radius = prad;
          driveMode = TURN;
+         changed = true;
          notify();
       }
       
       public synchronized void stopDriving() {
          driveMode = STOP;
+         changed = true;
          notify();
       }
    }
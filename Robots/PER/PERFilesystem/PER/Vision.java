@@ -605,13 +605,9 @@ public class Vision extends javax.swing.JFrame {
        grabPicture(pan, tilt, width, height);
    }//GEN-LAST:event_headPanelMouseClicked
    
-   private boolean headMoving = false;
+   /* Dragging sends a setpoint for every mouse event, so the TeleopChannel
+    * sends only the newest one instead of waiting for the rover each time. */
    private void moveHead(java.awt.event.MouseEvent evt) {
-       synchronized(headPanel) {
-           if(headMoving)
-               return;
-           headMoving = true;
-       }
        int x = evt.getX()-HEAD_STARTX;
        int y = evt.getY()-HEAD_STARTY;
        if(x > 0 && y > 0 && x < HEAD_WIDTH && y < HEAD_HEIGHT){
@@ -619,15 +615,16 @@ public class Vision extends javax.swing.JFrame {
            y *= 140 / HEAD_HEIGHT; //scale y
            x = 180 - x;
            y = 90 - y;
-           if(rover.look(x, y)) {
+           TeleopChannel teleop = rover.getTeleop();
+           if(teleop != null) {
+               teleop.look(x, y);
                statusLabel.setText("Moved head to pan="+x+", tilt="+y+".");
                pan = x;
                tilt = y;
                repaint();
            }else
-               statusLabel.setText(ActionConstants.getErrorText(rover.state.getStatus()));
+               statusLabel.setText("Connect first!");
        }
-       headMoving = false;
    }
    
    private void stopStreamingButtonMouseClicked(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_stopStreamingButtonMouseClicked
@@ -807,10 +804,9 @@ public class Vision extends javax.swing.JFrame {
        }
        
        int i=0, inPixels=0, outPixels=0;
-       boolean currMask[][] = trackFinder.currMask;
        for(int y=0; y<height; y++)
            for(int x=0; x<width; x++) {
-               if(currMask[y][x]) {
+               if(trackFinder.isTracked(x, y)) {
                    previewPix[i] = fillerColor;
                    inPixels++;
                }else if(trackFinder.pixelInRange(x, y)){
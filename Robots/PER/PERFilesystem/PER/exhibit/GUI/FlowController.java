@@ -186,16 +186,42 @@ public class FlowController extends javax.swing.JPanel {
              * taken in RoverPOVScreen.start() is completely finished and
              * the resources freed before starting the mission.
              */
-            for(int i=0; i<20 && rov.state.webCamThreadState == rov.state.WEBCAM_GRAB; i++){
-                rov.refresh();
-                try { Thread.sleep(50); } catch (Exception e) {}
-            }
+            waitForWebCam(1000);
         }
         
         // pretend that the mouse moves every time the screen changes
         lastMotion = System.currentTimeMillis();
     }
     
+    /* Waits until the rover is not grabbing a picture, or for timeout ms.  The
+     * poller asks the rover for its state while this waits, and each new state
+     * wakes this up as soon as it arrives.
+     */
+    private void waitForWebCam(int timeout) {
+        PER.rover.control.TelemetryPoller poller = rov.getPoller();
+        if(poller == null)
+            return;
+        PER.rover.control.TelemetryPoller.Listener listener = new PER.rover.control.TelemetryPoller.Listener() {
+            public void stateChanged(PER.rover.control.RoverStateSnapshot snapshot) {}
+        };
+        poller.addListener(listener, PER.rover.control.TelemetryPoller.ACTIVE_INTERVAL);
+        poller.pollNow();
+        try {
+            long endTime = System.currentTimeMillis() + timeout;
+            PER.rover.control.RoverStateSnapshot snapshot = rov.state.getSnapshot();
+            while(snapshot.getWebCamThreadState() == rov.state.WEBCAM_GRAB) {
+                long wait = endTime - System.currentTimeMillis();
+                if(wait <= 0)
+                    return;
+                snapshot = rov.state.waitForNewer(snapshot.getVersion(), (int) wait);
+                if(snapshot == null)
+                    return;
+            }
+        } finally {
+            poller.removeListener(listener);
+        }
+    }
+    
     private void initComponents(PER.rover.Rover r, MissionProgressPanel mpp) {
         layout = new java.awt.CardLayout();
         setLayout(layout);
@@ -8,6 +8,7 @@ package PER.exhibit.GUI;
 
 import PER.exhibit.Exhibit;
 import PER.rover.Rover;
+import PER.rover.control.ScaledImageCache;
 import java.awt.Cursor;
 import java.awt.Image;
 import java.awt.event.MouseEvent;
@@ -759,17 +760,13 @@ public class MissionCentral extends javax.swing.JPanel implements Screen {
      * site label.
      */
     private void scaleAndBoundSite(int height){
-        try{
-            //scale site to be the same height as panorama
-            siteImg = siteImg.getScaledInstance(
-            (int)(height * siteImg.getWidth(this) / siteImg.getHeight(this)),
-            height,
-            Image.SCALE_SMOOTH);
-        }catch(java.lang.IllegalArgumentException e){
-            PER.rover.Log.println("illegalArgumentException in MissionCentral.scaleAndBoundSite(): "+e); //temp?
-        }
+        //scale site to be the same height as panorama.  siteImg stays the
+        //original so the same size comes out of the cache every time
+        Image scaledSite = ScaledImageCache.getCache().getScaled(siteImg,
+        (int)(height * siteImg.getWidth(this) / siteImg.getHeight(this)),
+        height);
         
-        siteLabel.setIcon(new ImageIcon(siteImg));
+        siteLabel.setIcon(new ImageIcon(scaledSite));
         siteLabel.setBounds((int)panorama.getBounds().getCenterX(),3,siteLabel.getPreferredSize().width,siteLabel.getPreferredSize().height);
     }
     
@@ -777,7 +774,7 @@ public class MissionCentral extends javax.swing.JPanel implements Screen {
     public void setImage(Image original) {
         int width = panoramaWidth; //panorama width
         int height = original.getHeight(this) * width / original.getWidth(this);
-        Image img = original.getScaledInstance(width, height, Image.SCALE_SMOOTH);
+        Image img = ScaledImageCache.getCache().getScaled(original, width, height);
         panorama.setIcon(new ImageIcon(img));
         
         //panorama.setBounds((1024-panoramaWidth)/2, 0, width, height);
@@ -805,13 +802,13 @@ public class MissionCentral extends javax.swing.JPanel implements Screen {
      */
     public void setMapImage(Image mimg, Image rolloverImg){
         //map image
-        Image mapImg = mimg.getScaledInstance(mapWidth, mapHeight, Image.SCALE_SMOOTH);
+        Image mapImg = ScaledImageCache.getCache().getScaled(mimg, mapWidth, mapHeight);
         mapLabel.setMapImg(mapImg);
         mapLabel.setIcon(new ImageIcon(mapImg));
         //satellite map highlight border
         //rolloverImg = ImageIO.read(new File(Exhibit.exhibitPath,"GUI/images/sat-rollover.gif"));
         //border image is 1 pixel smaller than map on all sides
-        rolloverImg = rolloverImg.getScaledInstance(mapWidth-2, mapHeight-2, Image.SCALE_SMOOTH);
+        rolloverImg = ScaledImageCache.getCache().getScaled(rolloverImg, mapWidth-2, mapHeight-2);
         satBorderLabel.setIcon(new ImageIcon(rolloverImg));
         //set sizes and bounds
         mapLabel.setBounds(0, 0, mapWidth, mapHeight);
@@ -8,6 +8,8 @@ package PER.exhibit.GUI;
 
 import PER.rover.Rover;
 import PER.rover.TakePanoramaAction;
+import PER.rover.control.ImageScaler;
+import PER.rover.control.ScaledImageCache;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -101,7 +103,7 @@ public class Panoramic extends javax.swing.JPanel implements Screen{
         scan = 0; //reset scan!
         lastPicUpdate = 0;
         image_on = 0;
-        oldValueOfPan = 0;
+        oldImagesDone = -1;
         animation = 0; //reset initial animation
         panorama.setBounds(45,123, 0,128);
         
@@ -130,18 +132,24 @@ public class Panoramic extends javax.swing.JPanel implements Screen{
         if (lastPicUpdate != action.ImagesDone()) {
             lastPicUpdate = action.ImagesDone();
             BufferedImage img = action.getImage();
-            int width = 935; //panorama width
-            int height = img.getHeight(this) * width / img.getWidth(this);
-            if (img != null)
-                panorama.setIcon(new ImageIcon(img.getScaledInstance(width, height, Image.SCALE_FAST)));
+            if (img != null) {
+                int width = 935; //panorama width
+                int height = img.getHeight(this) * width / img.getWidth(this);
+                scaledPanorama = ImageScaler.scale(img, width, height, scaledPanorama);
+                panorama.setIcon(new ImageIcon(scaledPanorama));
+            }
         }
         /*if (lastPicUpdate>1 && !scanTimer.isRunning()) {
             scanTimer.start();
         }*/
-        rov.refresh();
-        int pan = rov.state.getPan();
-        if(pan != oldValueOfPan && animation == -1){
-            oldValueOfPan = pan;
+        //the pictures aren't taken in order of pan and some may come from the
+        //cache, so the head is shown turning and the panorama uncovered by how
+        //many of the pictures are done, as if they went from pan 180 to -180
+        long done = action.ImagesDone();
+        int total = action.getImagesTotal();
+        if((done != oldImagesDone || action.isCompleted()) && animation == -1 && total > 0){
+            oldImagesDone = done;
+            int pan = (int)(180 - 360*done/total);
             if(pan <= -150 || action.isCompleted()){
                 robotPane.setIcon(pan13);
                 animation = 5;
@@ -158,14 +166,10 @@ public class Panoramic extends javax.swing.JPanel implements Screen{
                 robotPane.setIcon(pan8);
             else if(pan <= 150)
                 robotPane.setIcon(pan7);
-            else{
+            else
                 robotPane.setIcon(pan6);
-                scan -=117;
-            }
-            /* increment one pane of the panorama image */
-            scan += 117;
-            if(scan > 935)
-                scan = 935;
+            /* uncover the panorama as far as the pictures done */
+            scan = (int)(935*done/total);
             panorama.setBounds(45,123, scan,128);
         }
     }
@@ -173,15 +177,16 @@ public class Panoramic extends javax.swing.JPanel implements Screen{
     public void setImage(Image original) {
         int width = 935;//panoramaWidth; //panorama width
         int height = original.getHeight(this) * width / original.getWidth(this);
-        Image img = original.getScaledInstance(width, height, Image.SCALE_SMOOTH);
-        panorama.setIcon(new ImageIcon(img));
+        //a finished panorama is scaled once; scaledPanorama is left for the
+        //pictures of a panorama being taken, which change in place
+        panorama.setIcon(new ImageIcon(ScaledImageCache.getCache().getScaled(original, width, height)));
         panorama.setBounds(45, 123, width, height);
         revalidate();
     }
     private void scanPicture(){
         if(animation>= 0){
-            rov.refresh();
-            if(animation==6 && rov.state.getPan() <= -150)
+            //wait for the head to look forward again
+            if(animation==6 && !action.isCompleted())
                 return;
             switch(animation++){
                 case 0:
@@ -316,7 +321,9 @@ public class Panoramic extends javax.swing.JPanel implements Screen{
     // End of variables declaration//GEN-END:variables
     
     private javax.swing.Timer pictureTimer;
+    
     private int panoramaWidth;
+    private BufferedImage scaledPanorama; //reused each time the panorama is rescaled
     long startTime;
     private long lastPicUpdate;
     private TakePanoramaAction action;
@@ -325,7 +332,7 @@ public class Panoramic extends javax.swing.JPanel implements Screen{
     private TeleopPanPanel panPanel;
     private javax.swing.Timer scanTimer;
     private int scan = 0;
-    private int oldValueOfPan;
+    private long oldImagesDone;
     private int animation;
     private ClockPane clock;
     
@@ -8,6 +8,8 @@ package PER.exhibit.GUI;
 
 import PER.exhibit.Sequencer;
 import PER.rover.Rover;
+import PER.rover.control.ImageScaler;
+import PER.rover.control.ScaledImageCache;
 import java.awt.event.ActionListener;
 import javax.swing.ImageIcon;
 import javax.swing.SwingConstants;
@@ -87,11 +89,11 @@ public class RoverPOVScreen extends javax.swing.JPanel implements Screen {
                                     //java.awt.Image img = rov.mySequencer.getLastMissionNoUVImage();
                                     java.awt.Image img = seq.getLastMissionNoUVImage();
                                     if(img != null)
-                                        roverPOV.setIcon(new ImageIcon(img.getScaledInstance(1024, 768, java.awt.Image.SCALE_SMOOTH)));
+                                        roverPOV.setIcon(new ImageIcon(ScaledImageCache.getCache().getScaled(img, 1024, 768)));
                                     //img = rov.mySequencer.getLastMissionImage();
                                     img = seq.getLastMissionImage();
                                     if(img != null)
-                                        roverAnalyzePOV.setIcon(new ImageIcon(img.getScaledInstance(1024, 768, java.awt.Image.SCALE_SMOOTH)));
+                                        roverAnalyzePOV.setIcon(new ImageIcon(ScaledImageCache.getCache().getScaled(img, 1024, 768)));
                                     //update.stop();
                                     //video.stop();
                                     analyzeTimer.start();
@@ -149,7 +151,7 @@ public class RoverPOVScreen extends javax.swing.JPanel implements Screen {
                     java.awt.image.BufferedImage img = rov.receive.getRecentImage();
                     //java.awt.image.BufferedImage img = rov.takeRecentPicture();
                     if(img != null)
-                        roverPOV.setIcon(new ImageIcon(img.getScaledInstance(1024, 768, java.awt.Image.SCALE_SMOOTH)));
+                        roverPOV.setIcon(new ImageIcon(povImage = ImageScaler.scale(img, 1024, 768, povImage)));
                     //use mpp to get status...
                     repaint();
                 }
@@ -373,6 +375,7 @@ public class RoverPOVScreen extends javax.swing.JPanel implements Screen {
         }
         //log status of error recovery effort
         if(success){
+            rov.watchConnection();
             System.out.println("error fixed");
             PER.rover.StatsLog.print(PER.rover.StatsLog.ERROR_FIXED);
         }
@@ -610,7 +613,7 @@ public class RoverPOVScreen extends javax.swing.JPanel implements Screen {
         PER.rover.StatsLog.print(PER.rover.StatsLog.START_POV);
         java.awt.Image img = rov.takePicture(0, -20, 320,  240);
         if(img!= null)
-            roverPOV.setIcon(new ImageIcon(img.getScaledInstance(1024, 768, java.awt.Image.SCALE_SMOOTH)));
+            roverPOV.setIcon(new ImageIcon(povImage = ImageScaler.scale(img, 1024, 768, povImage)));
         scan = 0;
         trackAnimation = 7;
         missionBoxRover_tracks.setIcon(rovertracks[0]);
@@ -792,6 +795,7 @@ public class RoverPOVScreen extends javax.swing.JPanel implements Screen {
     
     private javax.swing.JLabel roverPOV;
     private javax.swing.JLabel roverAnalyzePOV;
+    private java.awt.image.BufferedImage povImage; //reused for each scaled picture
     private javax.swing.JLabel roverAnalyzeScanLine;
     
     private javax.swing.JLabel missionBox;
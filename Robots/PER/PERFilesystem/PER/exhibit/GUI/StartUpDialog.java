@@ -628,6 +628,7 @@ public class StartUpDialog extends javax.swing.JDialog {
             success = rov.initRobot();
             success = rov.refresh();
             if (success) {
+                rov.watchConnection();
                 return true;
             } else {
                 javax.swing.JOptionPane.showMessageDialog(this,
@@ -23,6 +23,7 @@ public class DriveToAction implements Action {
     transient private boolean quit = false;
     transient private Rover rov = null;
     transient private Thread myThread = null;
+    transient private Deadline deadline = null;
     transient private boolean success = false;
     transient private int ret;
     transient private long starttime;
@@ -101,8 +102,10 @@ public class DriveToAction implements Action {
     public boolean doAction(Rover r) {
         PER.rover.StatsLog.println(PER.rover.StatsLog.DRIVE,dist);
         rov = r;
+        deadline = new Deadline();
         myThread = new Thread() {
             public void run() {
+                rov.setDeadline(deadline);
                 starttime = System.currentTimeMillis();
                 
                 quit = false;
@@ -161,6 +164,8 @@ public class DriveToAction implements Action {
         for(int i=0; !rov.goTo(dist, angle, safety, takingPictures); i++) {
             if(rov.highLevelState.isTerminationCondition() || i >= MAX_NONFATAL_ERRORS) {
                 ret = rov.highLevelState.getStatus();
+                if(ret == RoverState.KILLED) //killed while waiting, so it may have started
+                    rov.killHighLevel();
                 return false;
                 //return (ret == ActionConstants.OBSTACLE_DETECTED); // If we stop short, we still scan.  Don't return error! (mblain)
             }
@@ -186,6 +191,8 @@ public class DriveToAction implements Action {
         }while(!rov.highLevelState.isTerminationCondition());
         
         ret = rov.highLevelState.getStatus();
+        if(quit && ret == RoverState.KILLED) //an update was cut short by kill()
+            rov.killHighLevel();
         return ret == RoverState.SUCCESS;
     }
     
@@ -201,6 +208,8 @@ public class DriveToAction implements Action {
     
     public void kill() {
         quit = true;
+        if(deadline != null)
+            deadline.cancel(); //wakes up a command that is waiting for the rover
     }
     
     public int getTimeRemaining() {
@@ -24,6 +24,26 @@ public class ImagePreview extends JComponent
             return;
         }
 
+        //pictures saved from the rover are JPEGs; decode those straight to
+        //thumbnail size instead of decoding the whole thing and shrinking it
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            try {
+                byte [] data = java.nio.file.Files.readAllBytes(file.toPath());
+                PER.rover.control.ImageDecoder decoder = PER.rover.control.ImageDecoder.getDecoder();
+                Dimension size = decoder.getSize(data, 0, data.length);
+                if (size != null && size.width > 90) {
+                    java.awt.image.BufferedImage small = decoder.decodeScaled(data, 0, data.length,
+                        90, Math.max(1, size.height * 90 / size.width), null);
+                    if (small != null) {
+                        thumbnail = new ImageIcon(small);
+                        return;
+                    }
+                }
+            } catch (java.io.IOException e) {
+            }
+        }
+
         //Don't use createImageIcon (which is a wrapper for getResource)
         //because the image we're trying to load is probably not one
         //of this program's own resources.
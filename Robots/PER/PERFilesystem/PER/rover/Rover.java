@@ -92,6 +92,41 @@ public class Rover extends RoverController {
         this.IP = ip;
     }
     
+    /** Starts watching the connection to the rover.  If the rover stops
+     * answering, it is reconnected to as soon as it comes back, and whatever
+     * was streaming is started again.  The rover is only initialized again if
+     * its clock jumped while the connection was down, which means it was
+     * restarted; after a short drop, whatever it was doing carries on.
+     *
+     *@see RoverController#getMonitor
+     */
+    public void watchConnection() {
+        PER.rover.control.ConnectionMonitor monitor = getMonitor();
+        if(monitor == null)
+            return;
+        monitor.addListener(new PER.rover.control.ConnectionMonitor.Listener() {
+            private int resetsAtLoss = 0;
+            
+            public void connectionLost() {
+                resetsAtLoss = getClockResets();
+                Log.println("Lost the connection to the rover at " + IP);
+            }
+            public void connectionRestored() {
+                if(getClockResets() != resetsAtLoss) {
+                    Log.println("Reconnected to the rover at " + IP + ", which restarted; initializing it");
+                    initRobot();
+                }else
+                    Log.println("Reconnected to the rover at " + IP);
+            }
+        });
+    }
+    
+    /* How many times the rover's clock has been seen to jump. */
+    private int getClockResets() {
+        PER.rover.control.ReceiveThread r = receive;
+        return r == null ? 0 : r.getClock().getResetCount();
+    }
+    
     /** Loads the last used IP address from a saved file. If the file can not
      * be opened, returns <code>defaultIP</code>.
      *
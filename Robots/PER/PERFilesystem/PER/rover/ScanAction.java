@@ -30,6 +30,7 @@ public class ScanAction implements PER.rover.Action {
     
     transient private Rover rov = null;
     transient private Thread myThread = null;
+    transient private Deadline deadline = null;
     transient private boolean success = false, completed = false;
     transient private int ret = 0;
     transient private boolean quit = false;
@@ -79,8 +80,10 @@ public class ScanAction implements PER.rover.Action {
             return false;
         }
         rov = r;
+        deadline = new Deadline();
         myThread = new Thread() {
             public void run() {
+                rov.setDeadline(deadline);
                 success = false;
                 starttime = System.currentTimeMillis();
                 
@@ -129,15 +132,20 @@ public class ScanAction implements PER.rover.Action {
         return success;
     }
     
-    /** this action can't currently be killed
+    /** Stops the scan.  The action finishes with a return value of KILLED.
      */
     public void kill() {
+        quit = true;
+        if(deadline != null)
+            deadline.cancel();
     }
     
     private boolean scan() {
         rawScanVals = rov.scan(tilt, minPan, maxPan, step);
         if(rawScanVals == null) {
             ret = rov.state.getStatus();
+            if(ret == RoverState.KILLED) //the rover may still be scanning
+                rov.killHighLevel();
             return false;
         }
         translateScanVals();
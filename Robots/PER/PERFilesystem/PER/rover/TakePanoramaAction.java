@@ -6,18 +6,26 @@
 
 package PER.rover;
 
-import PER.rover.control.Datapack;
-import PER.rover.control.Reliagram;
-import PER.rover.control.RoverCommand;
+import PER.rover.control.Deadline;
+import PER.rover.control.PanTilt;
+import PER.rover.control.PanoramaPlanner;
+import PER.rover.control.PanoramaStitcher;
+import PER.rover.control.PanoramaTileCache;
+import PER.rover.control.PictureBurst;
 import PER.rover.control.RoverState;
-import java.awt.Color;
-import java.awt.Graphics;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import javax.imageio.ImageIO;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Takes panoramic images.
+ * Takes panoramic images.  The pictures are put together with a
+ * PanoramaStitcher as they arrive, so <code>getImage</code> can be shown while
+ * the panorama is being taken and never has half of a picture in it.
+ * <p>
+ * The pictures are taken in the order that moves the head the least from
+ * where it is (see PanoramaPlanner), and pictures of the same view taken
+ * recently from the same place are reused from the PanoramaTileCache
+ * instead of being taken again.
  *
  * @author  Eric Porter
  * @version 1.0
@@ -29,16 +37,20 @@ public class TakePanoramaAction implements Action {
     public static final int FOV_HEIGHT = 34;
     
     private int time;
-    private BufferedImage img = null;
-    private Graphics graphics = null;
+    private PanoramaStitcher stitcher = null;
     private int imgWidth, imgHeight, width, height, lowAngle, highAngle;
+    private int overlap = 0;
+    private boolean useCache = true;
     
     transient private boolean quit = false;
     transient private Rover rov = null;
     transient private Thread myThread = null;
+    transient private Deadline deadline = null;
     transient private boolean completed = false;
     transient private int ret;
     transient private long starttime, imageUpdateTime, imagesDone;
+    transient private int imagesReceived, errorImages, imagesCached, imagesTotal;
+    transient private double [] pose;
     
     /** Creates new TakePanoramaAction from angles -50 to 0 at 320x240 */
     public TakePanoramaAction() {
@@ -60,17 +72,13 @@ public class TakePanoramaAction implements Action {
         highAngle = highAng;
         if(lowAng > highAng || width > 480 || width <= 0 || height > 640 || height <= 0)
             return;
-        imgWidth = 360*width/FOV_WIDTH;
-        imgHeight = (highAngle - lowAngle) * height / FOV_HEIGHT;
-        //img = new BufferedImage(imgWidth, imgHeight, BufferedImage.TYPE_INT_ARGB);
-        img = new BufferedImage(imgWidth, imgHeight, BufferedImage.TYPE_3BYTE_BGR);
-        graphics = img.getGraphics();
+        stitcher = new PanoramaStitcher(lowAngle, highAngle, width, height);
+        imgWidth = stitcher.getWidth();
+        imgHeight = stitcher.getHeight();
         imageUpdateTime = System.currentTimeMillis();
         
         //calculate the estimated time in seconds - this should actually work
-        time = (int)(.75*Math.ceil(360./FOV_WIDTH)*Math.ceil((double)(highAngle-lowAngle)/FOV_HEIGHT));
-        
-        clearImage();
+        estimateTime();
     }
     
     /** Sets the low and high angles to be used for the panorama.
@@ -84,13 +92,46 @@ public class TakePanoramaAction implements Action {
         lowAngle = lowAng;
         highAngle = highAng;
         //update affected variables
-        imgHeight = (highAngle - lowAngle) * height / FOV_HEIGHT;
-        img = new BufferedImage(imgWidth, imgHeight, BufferedImage.TYPE_3BYTE_BGR);
-        graphics = img.getGraphics();
-        time = (int)(.75*Math.ceil(360./FOV_WIDTH)*Math.ceil((double)(highAngle-lowAngle)/FOV_HEIGHT));
+        stitcher = new PanoramaStitcher(lowAngle, highAngle, width, height);
+        imgHeight = stitcher.getHeight();
+        estimateTime();
         
         return true;
     }
+    
+    /**
+     * Sets how many degrees neighboring pictures overlap.  Where they overlap,
+     * the stitcher lines them up with each other, but more pictures are taken.
+     * The default is 0, which takes the fewest pictures.
+     *@return False if the overlap is negative or leaves nothing of each picture.
+     */
+    public boolean setOverlap(int degrees) {
+        if(degrees < 0 || degrees >= FOV_HEIGHT)
+            return false;
+        overlap = degrees;
+        estimateTime();
+        return true;
+    }
+    
+    public int getOverlap() {
+        return overlap;
+    }
+    
+    /**
+     * Sets whether pictures taken recently from the same place are reused
+     * instead of being taken again.  The default is true.
+     */
+    public void setUseCache(boolean use) {
+        useCache = use;
+    }
+    
+    public boolean getUseCache() {
+        return useCache;
+    }
+    
+    private void estimateTime() {
+        time = (int)(.75*Math.ceil(360./(FOV_WIDTH-overlap))*Math.ceil((double)(highAngle-lowAngle)/(FOV_HEIGHT-overlap)));
+    }
 
     /** Returns the panoramic image taken by the action. May be null if the image
      * has not yet been taken.
@@ -100,7 +141,7 @@ public class TakePanoramaAction implements Action {
      *@see #getRecentImage
      */
     public BufferedImage getImage() {
-        return img;
+        return stitcher == null ? null : stitcher.getSnapshot();
     }
     
     public boolean isSuccess() {
@@ -115,8 +156,10 @@ public class TakePanoramaAction implements Action {
         
         clearImage();
         
+        deadline = new Deadline();
         myThread = new Thread() {
             public void run() {
+                rov.setDeadline(deadline);
                 starttime = System.currentTimeMillis();
                 
                 quit = false;
@@ -135,137 +178,99 @@ public class TakePanoramaAction implements Action {
     
     private void clearImage() {
         imageUpdateTime = System.currentTimeMillis();
-        graphics.setColor(java.awt.Color.gray);
-        graphics.fillRect(0, 0, imgWidth, imgHeight);
+        stitcher.clear();
     }
     
     private int doit(){
-        Reliagram rgram = rov.reliagram;
-        RoverCommand cmd = new RoverCommand();
-        int i=0, j=0; //helpers
-        int imagesWide = (360-1)/FOV_WIDTH+1;
-        int imagesHigh = (highAngle-lowAngle-1)/FOV_HEIGHT+1;
-        int positions [][][] = new int[imagesWide][imagesHigh][5];
+        ArrayList<PanTilt> tiles = new ArrayList<PanTilt>();
         int grabPan, grabTilt; //where to take picture from
-        int placeX, placeY; //where to place it in the large image
-        int placeWidth, placeHeight; //how much of the just taken image to use
         //int panAngles [] = {170, 106, 62, 23, -21, -67, -124, -175}, whichPan = 0;
         
-        //I need to move the head far left so that head is always moving left.
-        //the head goes to different positons depending on whether it moved left or right.
-        int sleepTime = Math.abs(rov.state.getPan()-180)*8; //sleep for 8 ms for each degree off
-        //rov.look(180, lowAngle + FOV_HEIGHT/2);
-        rov.look(180, lowAngle + FOV_HEIGHT/2);
-        try{Thread.sleep(sleepTime);}catch(Exception e) {}
-        
-        int waitTimeForReceipt = 7000, timeWaitedForReceipt=0;
-        for(int pan=180; pan>-180; pan-=FOV_WIDTH) {
-            if(pan - FOV_WIDTH >= -180) { //enough room to draw whole image
+        //the stitcher places each picture by where it was taken, so the last
+        //column and row are simply moved back inside the panorama
+        for(int pan=180; pan>-180 + overlap; pan-=FOV_WIDTH-overlap) {
+            if(pan - FOV_WIDTH >= -180) //enough room to draw whole image
                 grabPan = pan - FOV_WIDTH/2;
-                placeX = width*i;
-                placeWidth = width;
-            }else {
+            else
                 grabPan = -180 + FOV_WIDTH/2;
-                placeX = imgWidth-width; //fix this, maybe
-                placeWidth = width;
-            }
             //uses special pan angles if using the real mars rover
-            for(int tilt=lowAngle; tilt<highAngle; tilt+=FOV_HEIGHT) {
-                if(tilt + FOV_HEIGHT <= highAngle) { //enough room to draw whole image
+            for(int tilt=lowAngle; tilt<highAngle && (tilt == lowAngle || tilt<highAngle - overlap); tilt+=FOV_HEIGHT-overlap) {
+                if(tilt + FOV_HEIGHT <= highAngle) //enough room to draw whole image
                     grabTilt = tilt + FOV_HEIGHT/2;
-                    placeY = imgHeight - height*(j+1);
-                    placeHeight = height;
-                }else {
+                else
                     grabTilt = highAngle - FOV_HEIGHT/2;
-                    placeY = 0;
-                    placeHeight = height/2+(height/2)*(highAngle-tilt)/FOV_HEIGHT;
-                }
-                cmd.takePicture(grabPan, grabTilt, width, height, false);
-                positions[i][j][0] = rgram.send(cmd.getData(), cmd.getLength());
-                positions[i][j][1] = placeX;
-                positions[i][j][2] = placeY;
-                positions[i][j][3] = placeWidth;
-                positions[i][j][4] = placeHeight;
-                //wait until the Stayton receives the request
-                while(!rgram.wasReceived(positions[i][j][0])) {
-                    try{Thread.sleep(5);}catch(Exception e) {}
-                    timeWaitedForReceipt += 5;
-                    if(timeWaitedForReceipt > waitTimeForReceipt)
-                        return RoverState.COMM_DEAD;
-                }
-                j++;
+                tiles.add(new PanTilt(grabPan, grabTilt));
             }
-            i++;
-            j=0;
         }
-        int imagesTaken = imagesWide * imagesHigh;
-        int imagesReceived = 0, errorImages = 0;
+        int imagesTaken = tiles.size();
+        imagesTotal = imagesTaken;
+        imagesReceived = 0;
+        errorImages = 0;
+        imagesCached = 0;
         imagesDone = 0;
-        long lastRcvTime = System.currentTimeMillis();
-        while(System.currentTimeMillis() - lastRcvTime < 7000 && imagesReceived + errorImages < imagesTaken){
-            for(i=0; i<imagesWide; i++)
-                for(j=0; j<imagesHigh; j++) {
-                    if(positions[i][j][0] > 0) { //if there is no result for it yet. . .
-                        Datapack dpack = rgram.receive(positions[i][j][0], -1); //no wait for image
-                        if(dpack != null) {
-                            if(dpack.getLength() == RoverState.FULL_PACKET_LENGTH) {
-                                positions[i][j][0] = -1; //indicate an error while grabbing image
-                                errorImages++;
-                            }else
-                                try {
-                                    ByteArrayInputStream bais = new ByteArrayInputStream(dpack.getData(), 0, dpack.getLength());
-                                    BufferedImage image = ImageIO.read(bais);
-                                    bais.close();
-                                    if(image == null) {
-                                        //System.out.println("the image was null");
-                                        throw new Exception();
-                                    }
-                                    placeX = positions[i][j][1];
-                                    placeY = positions[i][j][2];
-                                    placeWidth = positions[i][j][3];
-                                    placeHeight = positions[i][j][4];
-                                    
-                                    if(placeWidth != width || placeHeight != height) //only crop if necessary
-                                        image = image.getSubimage(0, 0, placeWidth, placeHeight);
-                                    //if the one just on top of this image has already been placed
-                                    if(j == imagesHigh-2 && positions[i][j+1][0] == 0) {
-                                        int intendedEnding = placeY+placeHeight;
-                                        int upperImHeight = positions[i][imagesHigh-1][4];
-                                        int myHeight = intendedEnding-upperImHeight;
-                                        image = image.getSubimage(0, placeHeight-myHeight, placeWidth, myHeight);
-                                        placeY += placeHeight-myHeight;
-                                        placeHeight = myHeight;
-                                        //System.out.println("i: "+i+" j: "+j+" myHeight: "+myHeight+" PlaceHeight: "+placeHeight);
-                                    }
-                                    //System.out.println("drawing "+placeX+" "+placeY+" "+placeWidth+" "+placeHeight);
-                                    graphics.drawImage(image, placeX, placeY, placeWidth, placeHeight, null);
-                                    imageUpdateTime = System.currentTimeMillis();
-                                    positions[i][j][0] = 0;
-                                    imagesReceived++;
-                                    imagesDone++;
-                                    
-                                } catch(Exception e) {
-                                    positions[i][j][0] = -1; //indicate an error while grabbing image
-                                    e.printStackTrace();
-                                    errorImages++;
-                                }
-                            lastRcvTime = System.currentTimeMillis();
-                        }
-                    }
-                }
-            
-            try{Thread.sleep(20);}catch(Exception e) {}
+        
+        //the tiles still cached from the last panorama here are drawn right away
+        pose = rov.highLevelState.getPosition().clone();
+        PanoramaTileCache cache = PanoramaTileCache.getCache();
+        ArrayList<PanTilt> needed = new ArrayList<PanTilt>();
+        for(PanTilt pt : tiles) {
+            BufferedImage cached = useCache ? cache.get(pose, pt, width, height) : null;
+            if(cached == null) {
+                needed.add(pt);
+                continue;
+            }
+            stitcher.addTile(pt, cached);
+            imageUpdateTime = System.currentTimeMillis();
+            imagesCached++;
+            imagesDone++;
         }
         
-        Log.println("Successful images: " + imagesReceived + ", Total: " + imagesTaken + ", Errors: " + errorImages);
+        int status = RoverState.SUCCESS;
+        if(!needed.isEmpty()) {
+            //each request moves the head while the picture before it is sent
+            //back, so the head starts moving right away instead of first going
+            //to pan 180
+            List<PanTilt> order = PanoramaPlanner.plan(needed, new PanTilt(rov.state.getPan(), rov.state.getTilt()));
+            //the requests are pipelined and the tiles are drawn as they are decoded
+            PictureBurst burst = rov.captureBurst(order, width, height, new TileListener());
+            if(burst == null)
+                return rov.state.getStatus();
+            status = burst.waitFor();
+        }
+        
+        Log.println("Successful images: " + imagesReceived + ", Cached: " + imagesCached + ", Total: " + imagesTaken + ", Errors: " + errorImages);
         
-        if(imagesReceived == imagesTaken) {
+        if(status == RoverState.SUCCESS) {
             rov.look(0, 0);
             return RoverState.SUCCESS;
-        }else
+        }else if(status == RoverState.KILLED)
+            return RoverState.KILLED;
+        else
             return RoverState.COMM_DEAD;
     }
     
+    /* Adds each decoded tile to the panorama.  This runs on the decoder's
+     * threads, and tiles that don't overlap are drawn at the same time; the
+     * stitcher copies the tile before it returns.
+     */
+    private class TileListener implements PictureBurst.FrameListener {
+        public void frameFailed(int index, PanTilt position, int status) {
+            synchronized(this) {
+                errorImages++;
+            }
+        }
+        
+        public void frameCaptured(int index, PanTilt position, BufferedImage image) {
+            stitcher.addTile(position, image);
+            PanoramaTileCache.getCache().put(pose, position, image);
+            synchronized(this) {
+                imageUpdateTime = System.currentTimeMillis();
+                imagesReceived++;
+                imagesDone++;
+            }
+        }
+    }
+    
     public String getSummary() {
         return getShortSummary();
     }
@@ -290,6 +295,8 @@ public class TakePanoramaAction implements Action {
     
     public void kill() {
         quit = true;
+        if(deadline != null)
+            deadline.cancel();
     }
     
     public int getTimeRemaining() {
@@ -313,12 +320,17 @@ public class TakePanoramaAction implements Action {
         return imagesDone;
     }
     
+    /** The number of pictures in the panorama, or 0 until it is started. */
+    public int getImagesTotal() {
+        return imagesTotal;
+    }
+    
     public long getImageUpdateTime() {
         return imageUpdateTime;
     }
     
     public BufferedImage getRecentImage() {
-    return img;
+        return getImage();
     }
     
 }
@@ -5,6 +5,7 @@
  */
 
 package PER.rover;
+import PER.rover.control.Deadline;
 import PER.rover.control.RoverState;
 
 /**
@@ -21,6 +22,7 @@ public class TurnToAction implements Action {
     
     transient private Rover rov = null;
     transient private Thread myThread = null;
+    transient private Deadline deadline = null;
     transient private boolean success;
     transient private int ret;
     transient private boolean quit = false;
@@ -59,8 +61,10 @@ public class TurnToAction implements Action {
     public boolean doAction(Rover r) {
         PER.rover.StatsLog.println(PER.rover.StatsLog.TURN,angle);
         rov = r;
+        deadline = new Deadline();
         myThread = new Thread() {
             public void run() {
+                rov.setDeadline(deadline);
                 success = false;
                 
                 starttime = System.currentTimeMillis();
@@ -141,6 +145,8 @@ public class TurnToAction implements Action {
             PER.rover.Log.println("turn failure! "+rov.highLevelState.getStatus(),true);
             if(rov.highLevelState.isTerminationCondition() || i >= MAX_NONFATAL_ERRORS) {
                 ret = rov.highLevelState.getStatus();
+                if(ret == RoverState.KILLED) //killed while waiting, so it may have started
+                    rov.killHighLevel();
                 return false;
             }
         }
@@ -168,6 +174,8 @@ public class TurnToAction implements Action {
         }while(!rov.highLevelState.isTerminationCondition());
         
         ret = rov.highLevelState.getStatus();
+        if(quit && ret == RoverState.KILLED) //an update was cut short by kill()
+            rov.killHighLevel();
         return ret == RoverState.SUCCESS;
     }
     
@@ -190,6 +198,8 @@ public class TurnToAction implements Action {
     
     public void kill() {
         quit = true;
+        if(deadline != null)
+            deadline.cancel(); //wakes up a command that is waiting for the rover
     }
     
     public int getTimeRemaining() {
@@ -0,0 +1,505 @@
+/*
+ * AsyncRoverController.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Non-blocking versions of the commands in RoverController.  Every function
+ * sends its command right away and returns a CompletableFuture instead of
+ * waiting for the rover to answer, so a program can have several commands
+ * outstanding at once (for example moving the head while a picture is still
+ * coming back) and chain what happens next with <code>thenCompose</code>,
+ * <code>thenCombine</code> and the like.
+ * <p>
+ * Commands that only return a status complete with a RoverStatus, whether or not
+ * the status is SUCCESS, just as the blocking versions return false and leave
+ * the code in <code>state</code>.  Answers are read by the same code as in
+ * RoverController, so each command means the same thing either way.  Commands that return data (pictures, scans,
+ * strings) complete with that data.  If the rover never answers, answers with
+ * something that can't be understood, or returns an error instead of data, the
+ * future completes exceptionally with a RoverException holding the status code.
+ * <p>
+ * The <code>state</code> and <code>highLevelState</code> of the RoverController
+ * are updated the same way the blocking functions update them.  Answers are
+ * parsed and decoded on the common ForkJoinPool, never on the thread that
+ * receives packets, so slow callbacks can't hold up other commands.  Callbacks
+ * added with the non-<code>Async</code> functions of CompletableFuture run on
+ * that pool as well.
+ * <p>
+ * By default each command waits as long as its blocking version.  Use
+ * <code>withTimeout</code> to give a different time limit, or
+ * <code>withDeadline</code> to share a Deadline that can be cancelled; the
+ * futures of a cancelled Deadline fail with <code>KILLED</code> right away and
+ * their commands stop being resent.  Cancelling a future stops waiting for the
+ * answer but does not stop the rover.
+ *
+ * @see RoverController
+ */
+public class AsyncRoverController {
+    private RoverController rc;
+
+    /**
+     * The command to be sent to the rover.  It is shared with every controller
+     * made by <code>withTimeout</code>.  Synchronize on it while building and
+     * sending a command.
+     */
+    private RoverCommand command;
+
+    /** How long to wait for an answer in ms, or 0 to use each command's default. */
+    private int timeout;
+
+    /** Limits every command, or null. */
+    private Deadline deadline;
+
+    /** How often getMean checks whether the mean has come back, in ms. */
+    private final static int MEAN_POLL_TIME = 50;
+    /** How long getMean waits for the mean to come back, in ms. */
+    private final static int MEAN_WAIT_TIME = 2500;
+
+    /**
+     * Creates a new AsyncRoverController that sends commands over the
+     * connection of <code>rc</code>.
+     * @param rc A RoverController, which may or may not be connected yet.
+     */
+    public AsyncRoverController(RoverController rc) {
+        this(rc, new RoverCommand(), 0, null);
+    }
+
+    private AsyncRoverController(RoverController rc, RoverCommand command, int timeout, Deadline deadline) {
+        this.rc = rc;
+        this.command = command;
+        this.timeout = timeout;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Returns a controller for the same rover that waits <code>ms</code>
+     * milliseconds for every answer instead of the default for each command.
+     * @param ms How long to wait, or 0 to go back to the defaults.
+     */
+    public AsyncRoverController withTimeout(int ms) {
+        return new AsyncRoverController(rc, command, Math.max(0, ms), deadline);
+    }
+
+    /**
+     * Returns a controller for the same rover whose commands are all limited by
+     * <code>deadline</code>.  As with RoverController.setDeadline, initRobot,
+     * killRobot, killHighLevel and stopStreaming ignore it.
+     * @param deadline The deadline, or null for none.
+     */
+    public AsyncRoverController withDeadline(Deadline deadline) {
+        return new AsyncRoverController(rc, command, timeout, deadline);
+    }
+
+    /** Returns the RoverController whose connection and state this controller uses. */
+    public RoverController getRoverController() {
+        return rc;
+    }
+
+    /** Initializes the rover.  @see RoverController#initRobot */
+    public CompletableFuture<RoverStatus> initRobot() {
+        synchronized(command) {
+            command.initRover();
+            return status(send(RoverController.READ_TIMEOUT, null), rc.state, null);
+        }
+    }
+
+    /** Kills anything the rover is doing.  @see RoverController#killRobot */
+    public CompletableFuture<RoverStatus> killRobot() {
+        return initRobot();
+    }
+
+    /** Takes a picture.  @see RoverController#takePicture(int, int, int, int, boolean) */
+    public CompletableFuture<BufferedImage> takePicture(int pan, int tilt, int width, int height, boolean lightUV) {
+        int extraTime = (width > 320 || height > 240) ?
+        RoverController.LARGE_PICTURE_TIME : RoverController.PICTURE_TIME;
+        synchronized(command) {
+            command.takePicture(pan, tilt, width, height, lightUV);
+            return picture(send(RoverController.READ_TIMEOUT + extraTime, deadline));
+        }
+    }
+
+    /** Takes a picture with the UV light off.  @see RoverController#takePicture(int, int, int, int) */
+    public CompletableFuture<BufferedImage> takePicture(int pan, int tilt, int width, int height) {
+        return takePicture(pan, tilt, width, height, false);
+    }
+
+    /** Gets the raw YUV picture from the camera.  @see RoverController#takeRawPicture */
+    public CompletableFuture<byte []> takeRawPicture(int pan, int tilt, int width, int height) {
+        synchronized(command) {
+            command.takeRawPicture(pan, tilt, width, height, false);
+            return answer(send(RoverController.READ_TIMEOUT + RoverController.RECENT_PICTURE_TIME, deadline),
+            dpack -> RoverController.parseData(rc.state, dpack, deadline));
+        }
+    }
+
+    /** Gets the most recent picture the rover took.  @see RoverController#takeRecentPicture */
+    public CompletableFuture<BufferedImage> takeRecentPicture() {
+        synchronized(command) {
+            command.takeRecentPicture();
+            return picture(send(RoverController.READ_TIMEOUT + RoverController.RECENT_PICTURE_TIME, deadline));
+        }
+    }
+
+    /** Scans the area around the rover.  @see RoverController#scan */
+    public CompletableFuture<int []> scan(int tilt, final int minPan, final int maxPan, final int step) {
+        if(tilt > 90 || tilt < -90 || minPan < -180 || maxPan > 180 ||
+        minPan > maxPan || step <= 0)
+            return failed(rc.state, RoverState.BAD_INPUT);
+        int extraTime = RoverController.getScanTime(minPan, maxPan, step);
+        CompletableFuture<Datapack> answer;
+        synchronized(command) {
+            command.scan(tilt, minPan, maxPan, step);
+            answer = send(RoverController.READ_TIMEOUT + extraTime, deadline);
+        }
+        return answer(answer, dpack -> RoverController.parseScan(rc.state, dpack, deadline, minPan, maxPan, step));
+    }
+
+    /** Starts the rover driving.  @see RoverController#goTo(int, int) */
+    public CompletableFuture<RoverStatus> goTo(int dist, int angle) {
+        return goTo(dist, angle, PER.rover.DriveToAction.CYCLE_SAFETY, true);
+    }
+
+    /** Starts the rover driving.  @see RoverController#goTo(int, int, byte, boolean) */
+    public CompletableFuture<RoverStatus> goTo(int dist, int angle, byte safetyLevel, boolean takePics) {
+        rc.setDriveDirection(dist, angle);
+        synchronized(command) {
+            command.goTo(dist, angle, safetyLevel, takePics);
+            return status(send(RoverController.READ_TIMEOUT, deadline), rc.highLevelState, deadline);
+        }
+    }
+
+    /** Starts the rover turning.  @see RoverController#turnTo(int, boolean) */
+    public CompletableFuture<RoverStatus> turnTo(int degrees, boolean takePics) {
+        degrees = rc.setTurnDirection(degrees);
+        synchronized(command) {
+            command.turnTo(degrees, takePics);
+            return status(send(RoverController.READ_TIMEOUT, deadline), rc.highLevelState, deadline);
+        }
+    }
+
+    /** Starts the rover turning.  @see RoverController#turnTo(int) */
+    public CompletableFuture<RoverStatus> turnTo(int degrees) {
+        return turnTo(degrees, true);
+    }
+
+    /** Kills a running turnTo, goTo or scan.  @see RoverController#killHighLevel */
+    public CompletableFuture<RoverStatus> killHighLevel() {
+        synchronized(command) {
+            command.killHL();
+            return status(send(RoverController.READ_TIMEOUT, null), rc.highLevelState, null);
+        }
+    }
+
+    /** Gets the status of the current high level command.  @see RoverController#updateHighLevel */
+    public CompletableFuture<RoverStatus> updateHighLevel() {
+        synchronized(command) {
+            command.getUpdate();
+            return status(send(RoverController.READ_TIMEOUT, deadline), rc.highLevelState, deadline);
+        }
+    }
+
+    /**
+     * Gets the rover's calibration, sharing the cache of the RoverController.
+     * If it is already cached the future is already complete.  If it can't be
+     * loaded, the future completes with RoverCalibration.DEFAULT.
+     * @see RoverController#getRoverCalibration
+     */
+    public CompletableFuture<RoverCalibration> getRoverCalibration() {
+        RoverCalibration cached = rc.getCachedCalibration();
+        if(cached != null)
+            return CompletableFuture.completedFuture(cached);
+        final int generation = rc.getCalibrationGeneration();
+        return getCalibration().handle((text, e) -> rc.calibrationFetched(text, generation));
+    }
+
+    /** Gets the drive adjustment value, or 100 if there is none.  @see RoverController#getDriveCalibration */
+    public CompletableFuture<Integer> getDriveCalibration() {
+        return getRoverCalibration().thenApply(cal -> cal.getDriveAdjust());
+    }
+
+    /** Gets the turn adjustment value, or 100 if there is none.  @see RoverController#getTurnCalibration */
+    public CompletableFuture<Integer> getTurnCalibration() {
+        return getRoverCalibration().thenApply(cal -> cal.getTurnAdjust());
+    }
+
+    /** Gets the calibration file.  @see RoverController#getCalibration */
+    public CompletableFuture<String> getCalibration() {
+        synchronized(command) {
+            command.getCalibration();
+            return file(send(RoverController.READ_TIMEOUT, deadline));
+        }
+    }
+
+    /** Replaces the calibration file and the cached calibration.  @see RoverController#setCalibration */
+    public CompletableFuture<RoverStatus> setCalibration(final String cal) {
+        CompletableFuture<RoverStatus> answer;
+        synchronized(command) {
+            command.setCalibration(cal);
+            answer = status(send(RoverController.READ_TIMEOUT, deadline), rc.state, deadline);
+        }
+        return answer.whenComplete((status, e) -> rc.calibrationSet(cal, status != null && status.isSuccess()));
+    }
+
+    /** Gets the scan calibration file.  @see RoverController#getScanList */
+    public CompletableFuture<String> getScanList() {
+        synchronized(command) {
+            command.getScanList();
+            return file(send(RoverController.READ_TIMEOUT, deadline));
+        }
+    }
+
+    /** Replaces the scan calibration file.  @see RoverController#setScanList */
+    public CompletableFuture<RoverStatus> setScanList(String cal) {
+        synchronized(command) {
+            command.setScanList(cal);
+            return status(send(RoverController.READ_TIMEOUT, deadline), rc.state, deadline);
+        }
+    }
+
+    /** Moves the head.  @see RoverController#look */
+    public CompletableFuture<RoverStatus> look(int pan, int tilt) {
+        return headMove(true, pan, true, tilt);
+    }
+
+    /** Sets the pan.  @see RoverController#setPan */
+    public CompletableFuture<RoverStatus> setPan(int pan) {
+        return headMove(true, pan, false, 0);
+    }
+
+    /** Sets the tilt.  @see RoverController#setTilt */
+    public CompletableFuture<RoverStatus> setTilt(int tilt) {
+        return headMove(false, 0, true, tilt);
+    }
+
+    /** Gets the current state of the rover.  @see RoverController#refresh */
+    public CompletableFuture<RoverStatus> refresh() {
+        return headMove(false, 0, false, 0);
+    }
+
+    /** Moves the pan and/or tilt.  @see RoverController#headMove */
+    public CompletableFuture<RoverStatus> headMove(boolean doPan, int pan, boolean doTilt, int tilt) {
+        synchronized(command) {
+            command.headMove(doPan, pan, doTilt, tilt);
+            return status(send(RoverController.READ_TIMEOUT, deadline), rc.state, deadline);
+        }
+    }
+
+    /** Sets the motors and servos directly.  @see RoverController#setAll */
+    public CompletableFuture<RoverStatus> setAll(int mask, int rightMotor, int leftMotor, int frontLeftServo,
+    int frontRightServo, int backRightServo, int backLeftServo, int pan, int tilt) {
+        synchronized(command) {
+            command.setAll(mask, rightMotor, leftMotor, frontLeftServo,
+            frontRightServo, backRightServo, backLeftServo, pan, tilt);
+            return status(send(RoverController.READ_TIMEOUT, deadline), rc.state, deadline);
+        }
+    }
+
+    /** Turns the rover in place.  @see RoverController#spin */
+    public CompletableFuture<RoverStatus> spin(int speed) {
+        synchronized(command) {
+            command.spin(speed);
+            return status(send(RoverController.READ_TIMEOUT, deadline), rc.state, deadline);
+        }
+    }
+
+    /** Drives in a straight line at an angle.  @see RoverController#crab */
+    public CompletableFuture<RoverStatus> crab(int speed, int angle) {
+        synchronized(command) {
+            command.crab(speed, angle);
+            return status(send(RoverController.READ_TIMEOUT, deadline), rc.state, deadline);
+        }
+    }
+
+    /** Drives around a point.  @see RoverController#quadTurn */
+    public CompletableFuture<RoverStatus> quadTurn(int speed, int radius) {
+        synchronized(command) {
+            command.quadTurn(speed, radius);
+            return status(send(RoverController.READ_TIMEOUT, deadline), rc.state, deadline);
+        }
+    }
+
+    /** Turns the UV light on or off.  @see RoverController#setLight */
+    public CompletableFuture<RoverStatus> setLight(boolean on) {
+        synchronized(command) {
+            command.setLight(on);
+            return status(send(RoverController.READ_TIMEOUT, deadline), rc.state, deadline);
+        }
+    }
+
+    /** Gets the version of the code on the Stargate.  @see RoverController#getVersion */
+    public CompletableFuture<String> getVersion() {
+        CompletableFuture<Datapack> answer;
+        synchronized(command) {
+            command.getVersion();
+            answer = send(RoverController.READ_TIMEOUT, deadline);
+        }
+        return answer(answer, dpack -> RoverController.parseVersion(rc.state, dpack, deadline));
+    }
+
+    /** Starts tracking the largest blob.  @see RoverController#startTrack(int, int, int, int, int, int) */
+    public CompletableFuture<RoverStatus> startTrack(int minY, int maxY, int minU, int maxU,
+    int minV, int maxV) {
+        return startTrack(minY, maxY, minU, maxU, minV, maxV, 0, true, true, 0);
+    }
+
+    /** Starts tracking.  @see RoverController#startTrack(int, int, int, int, int, int, int, boolean, boolean, int) */
+    public CompletableFuture<RoverStatus> startTrack(int minY, int maxY, int minU, int maxU,
+    int minV, int maxV, int trackMethod, boolean movePan, boolean moveTilt, int driveMethod) {
+        synchronized(command) {
+            command.startTrack(minY, maxY, minU, maxU, minV, maxV, trackMethod, movePan, moveTilt, driveMethod);
+            return streaming(status(send(RoverController.READ_TIMEOUT, deadline), rc.state, deadline), copyCommand());
+        }
+    }
+
+    /** Stops tracking, mean and motion.  @see RoverController#stopStreaming */
+    public CompletableFuture<RoverStatus> stopStreaming() {
+        synchronized(command) {
+            command.stopStreaming();
+            return streaming(status(send(RoverController.READ_TIMEOUT, null), rc.state, null), null);
+        }
+    }
+
+    /** Gets the camera's settings.  @see RoverController#getCameraProperties */
+    public CompletableFuture<int []> getCameraProperties() {
+        CompletableFuture<Datapack> answer;
+        synchronized(command) {
+            command.getProperties();
+            answer = send(RoverController.READ_TIMEOUT, deadline);
+        }
+        return answer(answer, dpack -> RoverController.parseCameraProperties(rc.state, dpack, deadline));
+    }
+
+    /**
+     * Gets the mean for the red, green and blue channels.  If <code>stream</code>
+     * is false, the future does not complete until the mean has come back and
+     * is in <code>receive</code>; if it doesn't come back in 2.5 seconds the
+     * future fails with COMM_DEAD.
+     * @see RoverController#getMean
+     */
+    public CompletableFuture<RoverStatus> getMean(boolean stream) {
+        final long sendTime = System.currentTimeMillis();
+        CompletableFuture<RoverStatus> started;
+        synchronized(command) {
+            command.getMean(stream);
+            started = status(send(RoverController.READ_TIMEOUT, deadline), rc.state, deadline);
+            if(stream)
+                return streaming(started, copyCommand());
+        }
+        final ReceiveThread receive = rc.receive;
+        return started.thenCompose(status -> {
+            if(!status.isSuccess() || receive == null)
+                return CompletableFuture.completedFuture(status);
+            return waitForMean(receive, sendTime, status, System.currentTimeMillis() + MEAN_WAIT_TIME);
+        });
+    }
+
+    /** Starts motion detection.  @see RoverController#startMotionDetection */
+    public CompletableFuture<RoverStatus> startMotionDetection() {
+        synchronized(command) {
+            command.startMotion();
+            return streaming(status(send(RoverController.READ_TIMEOUT, deadline), rc.state, deadline), copyCommand());
+        }
+    }
+
+    /* Tells the RoverController what is streaming once the command works, so
+     * that its ConnectionMonitor can start it again after reconnecting.
+     */
+    private CompletableFuture<RoverStatus> streaming(CompletableFuture<RoverStatus> started, final byte [] cmd) {
+        return started.thenApply(status -> {
+            if(status.isSuccess())
+                rc.setStreamingCommand(cmd);
+            return status;
+        });
+    }
+
+    /* A copy of the command, which the caller must hold the lock on. */
+    private byte [] copyCommand() {
+        byte [] copy = new byte[command.getLength()];
+        System.arraycopy(command.getData(), 0, copy, 0, copy.length);
+        return copy;
+    }
+
+    /* Sends the command, which the caller must hold the lock on.  The future
+     * completes with the answer, or null if there wasn't one in time.
+     */
+    private CompletableFuture<Datapack> send(int defaultTimeout, Deadline deadline) {
+        Reliagram reliagram = rc.reliagram;
+        if(reliagram == null) {
+            rc.state.setStatus(RoverState.NOT_CONNECTED);
+            CompletableFuture<Datapack> f = new CompletableFuture<Datapack>();
+            f.completeExceptionally(new RoverException(RoverState.NOT_CONNECTED));
+            return f;
+        }
+        if(deadline != null && deadline.isDone())
+            return CompletableFuture.completedFuture(null);
+        int seqNum = reliagram.send(command.getData(), command.getLength());
+        if(seqNum <= 0)
+            return CompletableFuture.completedFuture(null);
+        return reliagram.receiveAsync(seqNum, timeout > 0 ? timeout : defaultTimeout, deadline);
+    }
+
+    private CompletableFuture<RoverStatus> status(CompletableFuture<Datapack> answer, final RoverState target,
+    final Deadline deadline) {
+        return answer.thenApplyAsync(dpack -> {
+            RoverController.parseStatus(target, dpack, deadline);
+            if(dpack == null || dpack.getData().length != RoverState.FULL_PACKET_LENGTH)
+                throw fail(target);
+            return new RoverStatus(dpack.getData());
+        });
+    }
+
+    /* Reads the answer with one of RoverController's parse functions on the
+     * common pool.  If it returns null, fails with the status it left in state.
+     */
+    private <T> CompletableFuture<T> answer(CompletableFuture<Datapack> answer, final Function<Datapack, T> parse) {
+        return answer.thenApplyAsync(dpack -> {
+            T result = parse.apply(dpack);
+            if(result == null)
+                throw fail(rc.state);
+            return result;
+        });
+    }
+
+    private CompletableFuture<BufferedImage> picture(CompletableFuture<Datapack> answer) {
+        return answer(answer, dpack -> RoverController.parsePicture(rc.state, dpack, deadline));
+    }
+
+    private CompletableFuture<String> file(CompletableFuture<Datapack> answer) {
+        return answer(answer, dpack -> RoverController.parseFile(rc.state, dpack, deadline));
+    }
+
+    private CompletableFuture<RoverStatus> waitForMean(final ReceiveThread receive, final long sendTime,
+    final RoverStatus status, final long giveUpTime) {
+        if(receive.getMeanUpdateTime() > sendTime)
+            return CompletableFuture.completedFuture(status);
+        if(deadline != null && deadline.isCancelled())
+            return failed(rc.state, RoverState.KILLED);
+        if(System.currentTimeMillis() > giveUpTime || (deadline != null && deadline.isDone()))
+            return failed(rc.state, RoverState.COMM_DEAD);
+        Executor later = CompletableFuture.delayedExecutor(MEAN_POLL_TIME, TimeUnit.MILLISECONDS);
+        return CompletableFuture.supplyAsync(() -> null, later)
+        .thenCompose(x -> waitForMean(receive, sendTime, status, giveUpTime));
+    }
+
+    /* The exception to fail with once the status has been left in target. */
+    private static RuntimeException fail(RoverState target) {
+        return new java.util.concurrent.CompletionException(new RoverException(target.getStatus()));
+    }
+
+    private static <T> CompletableFuture<T> failed(RoverState target, int status) {
+        target.setStatus(status);
+        CompletableFuture<T> f = new CompletableFuture<T>();
+        f.completeExceptionally(new RoverException(status));
+        return f;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Blob.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+/**
+ * One connected region of pixels found by a BlobLabeler.  Like the tracking
+ * information in ReceiveThread, coordinates are in pixels of the picture
+ * that was labeled.
+ *
+ * @see BlobLabeler
+ */
+public class Blob {
+   private final int area, minX, minY, maxX, maxY;
+   private final double centerX, centerY;
+   private final int meanY, meanU, meanV;
+
+   Blob(int area, double centerX, double centerY, int minX, int minY, int maxX, int maxY,
+   int meanY, int meanU, int meanV) {
+      this.area = area;
+      this.centerX = centerX;
+      this.centerY = centerY;
+      this.minX = minX;
+      this.minY = minY;
+      this.maxX = maxX;
+      this.maxY = maxY;
+      this.meanY = meanY;
+      this.meanU = meanU;
+      this.meanV = meanV;
+   }
+
+   /** The number of pixels in the blob. */
+   public int getArea() {
+      return area;
+   }
+
+   /** The x coordinate of the centroid. */
+   public double getCenterX() {
+      return centerX;
+   }
+
+   /** The y coordinate of the centroid. */
+   public double getCenterY() {
+      return centerY;
+   }
+
+   public int getMinX() {
+      return minX;
+   }
+
+   public int getMinY() {
+      return minY;
+   }
+
+   public int getMaxX() {
+      return maxX;
+   }
+
+   public int getMaxY() {
+      return maxY;
+   }
+
+   /** The width of the bounding box. */
+   public int getWidth() {
+      return maxX - minX + 1;
+   }
+
+   /** The height of the bounding box. */
+   public int getHeight() {
+      return maxY - minY + 1;
+   }
+
+   /**
+    * How much of the bounding box the blob fills, from 0 to 1.  The rover's
+    * tracking uses the same measure, pixels / box, for its confidence.
+    */
+   public double getDensity() {
+      return ((double) area) / (getWidth()*getHeight());
+   }
+
+   public int getMeanY() {
+      return meanY;
+   }
+
+   public int getMeanU() {
+      return meanU;
+   }
+
+   public int getMeanV() {
+      return meanV;
+   }
+
+   public String toString() {
+      return area+" pixels at ("+Math.round(centerX)+", "+Math.round(centerY)+"), box ("
+      +minX+", "+minY+")-("+maxX+", "+maxY+"), mean YUV "+meanY+" "+meanU+" "+meanV;
+   }
+}
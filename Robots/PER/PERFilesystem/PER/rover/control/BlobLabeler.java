@@ -0,0 +1,261 @@
+/*
+ * BlobLabeler.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.util.Arrays;
+
+/**
+ * Finds every connected region of pixels within track parameters, where the
+ * rover's own tracking only reports the largest one.  Each Blob has its area,
+ * centroid, bounding box and mean color, so several targets can be followed
+ * or the best one picked from a single picture.
+ * <p>
+ * Labeling is done in one pass over the picture.  Each pixel in range takes
+ * the label of a neighbor above or to the left, and when two neighbors have
+ * different labels they are joined with union-find.  The sums for the
+ * centroid and color are kept on each label's root and added together when
+ * labels are joined, so no second pass is needed and the time is linear in
+ * the number of pixels.  A labeler reuses its arrays from picture to picture.
+ */
+public class BlobLabeler {
+   private int minArea = 1;
+   private boolean eightConnected = true;
+
+   private int width = 0, height = 0;
+   private int labels [] = new int[0]; //the label of each pixel when it was found, 0 if not in range
+   private int count = 0; //labels used so far; they start at 1
+   //union-find and the sums for each label, which are only right for roots
+   private int parent [], area [], minX [], minY [], maxX [], maxY [];
+   private long sumX [], sumY [], sumLuma [], sumU [], sumV [];
+   private int blobIndex []; //the index+1 in the last result of each root, or 0
+
+   /** Creates a new BlobLabeler */
+   public BlobLabeler() {
+      grow(256);
+   }
+
+   /** Blobs smaller than this many pixels are left out.  The default is 1. */
+   public void setMinArea(int pixels) {
+      minArea = Math.max(1, pixels);
+   }
+
+   public int getMinArea() {
+      return minArea;
+   }
+
+   /**
+    * Sets whether pixels that only touch at a corner are in the same blob.
+    * The default is true, which is what TrackFinder does.
+    */
+   public void setEightConnected(boolean eight) {
+      eightConnected = eight;
+   }
+
+   /**
+    * Labels a picture from <code>VisionUtil.v4l_yuv420p2yuv</code>.
+    * @return The blobs, largest first.
+    */
+   public Blob [] label(int yuv [], int width, int height,
+   int minY, int maxY, int minU, int maxU, int minV, int maxV) {
+      return scan(yuv, null, null, width, height, minY, maxY, minU, maxU, minV, maxV);
+   }
+
+   /**
+    * Labels a YUV420P picture, such as from <code>takeRawPicture</code> or a
+    * RawFrame, without converting it first.
+    * @return The blobs, largest first.
+    */
+   public Blob [] labelYUV420P(byte yuv [], int width, int height,
+   int minY, int maxY, int minU, int maxU, int minV, int maxV) {
+      if(yuv.length < 3*width*height/2)
+         throw new IllegalArgumentException("yuv is too short for "+width+"x"+height);
+      return scan(null, yuv, null, width, height, minY, maxY, minU, maxU, minV, maxV);
+   }
+
+   /**
+    * Labels the pixels that are true in a mask, such as one from
+    * <code>VisionUtil.threshold</code>.
+    * @param yuv The picture the mask is of, from <code>v4l_yuv420p2yuv</code>,
+    * for the mean colors.  If it is null the means are 0.
+    * @return The blobs, largest first.
+    */
+   public Blob [] label(boolean mask [], int yuv [], int width, int height) {
+      return scan(yuv, null, mask, width, height, 0, 255, 0, 255, 0, 255);
+   }
+
+   /**
+    * Gets which blob each pixel of the last picture labeled is in.
+    * @param dest An array of at least width*height to fill, or null.
+    * @return For each pixel, the index+1 in the last result of the blob it is
+    * in, or 0 if it isn't in one.
+    */
+   public int [] getLabels(int dest []) {
+      int numpix = width*height;
+      if(dest == null || dest.length < numpix)
+         dest = new int[numpix];
+      for(int i=0; i<numpix; i++)
+         dest[i] = labels[i] == 0 ? 0 : blobIndex[find(labels[i])];
+      return dest;
+   }
+
+   private Blob [] scan(int packed [], byte planar [], boolean mask [], int width, int height,
+   int loY, int hiY, int loU, int hiU, int loV, int hiV) {
+      int numpix = width*height;
+      if(labels.length < numpix)
+         labels = new int[numpix];
+      this.width = width;
+      this.height = height;
+      count = 0;
+      int chroma = numpix, quarter = numpix/4;
+      int i = 0;
+      for(int y=0; y<height; y++) {
+         for(int x=0; x<width; x++, i++) {
+            int py, pu, pv;
+            if(packed != null) {
+               int p = packed[i];
+               pv = (p >> 16) & 255;
+               py = (p >> 8) & 255;
+               pu = p & 255;
+            }else if(planar != null) {
+               int c = chroma + (y/2)*(width/2) + x/2;
+               py = planar[i] & 255;
+               pu = planar[c] & 255;
+               pv = planar[c+quarter] & 255;
+            }else
+               py = pu = pv = 0;
+            boolean in = mask != null ? mask[i] : py >= loY && py <= hiY && pu >= loU && pu <= hiU
+            && pv >= loV && pv <= hiV;
+            if(!in) {
+               labels[i] = 0;
+               continue;
+            }
+            //join the labels of the neighbors that were already scanned
+            int l = 0;
+            if(x > 0 && labels[i-1] != 0)
+               l = find(labels[i-1]);
+            if(y > 0) {
+               int up = i - width;
+               l = join(l, labels[up]);
+               if(eightConnected) {
+                  if(x > 0)
+                     l = join(l, labels[up-1]);
+                  if(x < width-1)
+                     l = join(l, labels[up+1]);
+               }
+            }
+            if(l == 0) {
+               l = ++count;
+               if(l >= parent.length)
+                  grow(2*parent.length);
+               parent[l] = l;
+               area[l] = 0;
+               sumX[l] = sumY[l] = sumLuma[l] = sumU[l] = sumV[l] = 0;
+               minX[l] = maxX[l] = x;
+               minY[l] = maxY[l] = y;
+            }
+            labels[i] = l;
+            area[l]++;
+            sumX[l] += x;
+            sumY[l] += y;
+            sumLuma[l] += py;
+            sumU[l] += pu;
+            sumV[l] += pv;
+            if(x < minX[l]) minX[l] = x;
+            if(x > maxX[l]) maxX[l] = x;
+            maxY[l] = y;
+         }
+      }
+      return collect();
+   }
+
+   /* Makes a Blob of each root that is big enough, largest first. */
+   private Blob [] collect() {
+      int roots = 0;
+      for(int l=1; l<=count; l++)
+         if(parent[l] == l && area[l] >= minArea)
+            roots++;
+      //the negated area above the label, so sorting puts the largest first
+      //and breaks ties by label
+      long [] order = new long[roots];
+      roots = 0;
+      for(int l=1; l<=count; l++) {
+         blobIndex[l] = 0;
+         if(parent[l] == l && area[l] >= minArea)
+            order[roots++] = ((long) -area[l] << 32) | l;
+      }
+      Arrays.sort(order);
+      Blob [] blobs = new Blob[roots];
+      for(int k=0; k<roots; k++) {
+         int l = (int) order[k];
+         int n = area[l];
+         blobIndex[l] = k+1;
+         blobs[k] = new Blob(n, (double) sumX[l]/n, (double) sumY[l]/n, minX[l], minY[l], maxX[l], maxY[l],
+         (int) (sumLuma[l]/n), (int) (sumU[l]/n), (int) (sumV[l]/n));
+      }
+      return blobs;
+   }
+
+   /* Joins label l, a root or 0, with the label of a neighbor, which may be 0. */
+   private int join(int l, int neighbor) {
+      if(neighbor == 0)
+         return l;
+      int r = find(neighbor);
+      if(l == 0 || l == r)
+         return r;
+      //the lower label becomes the root and takes the other's sums
+      int root = Math.min(l, r), child = Math.max(l, r);
+      parent[child] = root;
+      area[root] += area[child];
+      sumX[root] += sumX[child];
+      sumY[root] += sumY[child];
+      sumLuma[root] += sumLuma[child];
+      sumU[root] += sumU[child];
+      sumV[root] += sumV[child];
+      minX[root] = Math.min(minX[root], minX[child]);
+      maxX[root] = Math.max(maxX[root], maxX[child]);
+      minY[root] = Math.min(minY[root], minY[child]);
+      maxY[root] = Math.max(maxY[root], maxY[child]);
+      return root;
+   }
+
+   private int find(int l) {
+      while(parent[l] != l) {
+         parent[l] = parent[parent[l]]; //path halving
+         l = parent[l];
+      }
+      return l;
+   }
+
+   private void grow(int size) {
+      parent = grow(parent, size);
+      area = grow(area, size);
+      minX = grow(minX, size);
+      minY = grow(minY, size);
+      maxX = grow(maxX, size);
+      maxY = grow(maxY, size);
+      blobIndex = grow(blobIndex, size);
+      sumX = grow(sumX, size);
+      sumY = grow(sumY, size);
+      sumLuma = grow(sumLuma, size);
+      sumU = grow(sumU, size);
+      sumV = grow(sumV, size);
+   }
+
+   private static int [] grow(int [] a, int size) {
+      int [] b = new int[size];
+      if(a != null)
+         System.arraycopy(a, 0, b, 0, a.length);
+      return b;
+   }
+
+   private static long [] grow(long [] a, int size) {
+      long [] b = new long[size];
+      if(a != null)
+         System.arraycopy(a, 0, b, 0, a.length);
+      return b;
+   }
+}
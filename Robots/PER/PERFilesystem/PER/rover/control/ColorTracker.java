@@ -0,0 +1,444 @@
+/*
+ * ColorTracker.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.awt.image.BufferedImage;
+import java.util.Vector;
+
+/**
+ * Tracks colors on this computer instead of on the rover.  The rover's
+ * <code>startTrack</code> tracks one color at 176x144; this tracks any number
+ * of TrackColors at once at the full size of the frames it is given, and
+ * gives a TrackResult for each color with the same fields as ReceiveThread.
+ * <p>
+ * Frames come from a RawFrameStream (give this as the stream's listener) or
+ * from the pictures that ReceiveThread gets (see <code>watch</code>).  Only the
+ * newest frame waits to be tracked, so a slow computer skips frames instead
+ * of falling behind.  Each pixel is classified by looking its Y, U and V up in
+ * three tables with a bit for each color, so adding colors costs almost
+ * nothing.
+ * <p>
+ * If tracking a frame takes longer than the latency budget, only every
+ * second (then fourth or eighth) pixel of every second row is looked at until
+ * it is fast enough again, and frames that are already older than the budget
+ * when their turn comes are dropped.
+ */
+public class ColorTracker extends Thread implements RawFrameStream.FrameListener {
+
+    /** Receives the results of tracking. */
+    public interface Listener {
+        /**
+         * Called on the tracker's thread for each frame tracked.
+         * @param results One for each color, in the order they were given.
+         */
+        void tracked(TrackResult [] results);
+    }
+
+    /** The most colors that can be tracked at once. */
+    public static final int MAX_COLORS = 32;
+    /** The default latency budget in ms. */
+    public static final int DEFAULT_BUDGET = 100;
+    /** The most pixels skipped between the pixels looked at. */
+    private static final int MAX_STEP = 8;
+
+    private TrackColor [] colors = new TrackColor[0];
+    //bit k is set if the value is in color k
+    private int [] yClass = new int[256], uClass = new int[256], vClass = new int[256];
+    private boolean largestBlob = false;
+    private BlobLabeler labeler = new BlobLabeler();
+    private boolean [] mask = new boolean[0];
+
+    private Vector<Listener> listeners = new Vector<Listener>();
+    private boolean keepGoing = true;
+    private TrackResult [] latest = null;
+    //waitForResults waits on this; the thread waits on the tracker itself,
+    //which is what ReceiveThread notifies
+    private Object resultLock = new Object();
+
+    //the frame waiting to be tracked: a kept RawFrame, or a picture
+    private RawFrame pendingFrame = null;
+    private BufferedImage pendingImage = null;
+    private int pendingPan, pendingTilt, pendingNumber;
+    private long pendingTime;
+    private byte [] imageYUV = new byte[0];
+    private int [] imageRGB = new int[0];
+
+    //the budget and the metrics
+    private int budget = DEFAULT_BUDGET;
+    private int step = 1;
+    private int framesTracked = 0, framesDropped = 0;
+    private long totalLatency = 0, totalTrackTime = 0;
+    private int maxLatency = 0;
+
+    private ReceiveThread watched = null;
+    private RoverState watchedState = null;
+
+    /** Creates a new ColorTracker and starts its thread. */
+    public ColorTracker() {
+        super("ColorTracker");
+        setDaemon(true);
+        this.start();
+    }
+
+    /** Sets the colors to track, replacing the ones there were. */
+    public synchronized void setColors(TrackColor [] newColors) {
+        if(newColors.length > MAX_COLORS)
+            throw new IllegalArgumentException("at most "+MAX_COLORS+" colors can be tracked");
+        int [] ys = new int[256], us = new int[256], vs = new int[256];
+        for(int k=0; k<newColors.length; k++) {
+            TrackColor m = newColors[k];
+            for(int i=Math.max(0, m.getMinY()); i<=Math.min(255, m.getMaxY()); i++)
+                ys[i] |= 1 << k;
+            for(int i=Math.max(0, m.getMinU()); i<=Math.min(255, m.getMaxU()); i++)
+                us[i] |= 1 << k;
+            for(int i=Math.max(0, m.getMinV()); i<=Math.min(255, m.getMaxV()); i++)
+                vs[i] |= 1 << k;
+        }
+        colors = newColors.clone();
+        yClass = ys;
+        uClass = us;
+        vClass = vs;
+        latest = null;
+    }
+
+    public synchronized TrackColor [] getColors() {
+        return colors.clone();
+    }
+
+    /**
+     * Sets whether each result is the largest connected blob of the color, or
+     * (the default, like the rover) all of the pixels of the color in the frame.
+     */
+    public synchronized void setLargestBlob(boolean largest) {
+        largestBlob = largest;
+    }
+
+    /**
+     * Sets how long in ms it should take from a frame arriving to its result.
+     * 0 means there is no budget, and every pixel of every frame is tracked.
+     */
+    public synchronized void setLatencyBudget(int ms) {
+        budget = Math.max(0, ms);
+        if(budget == 0)
+            step = 1;
+    }
+
+    public synchronized int getLatencyBudget() {
+        return budget;
+    }
+
+    public synchronized void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    public synchronized void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    /** The results for the last frame tracked, or null if none has been. */
+    public synchronized TrackResult [] getResults() {
+        return latest;
+    }
+
+    /**
+     * Waits for the results of a frame that arrived at or after a time.
+     * @param since A local system time in ms, such as when the camera was moved.
+     * @param timeout How long to wait in ms.
+     * @return The results, or null if there were none in time.
+     */
+    public TrackResult [] waitForResults(long since, int timeout) {
+        long giveUp = System.currentTimeMillis() + timeout;
+        synchronized(resultLock) {
+            TrackResult [] results = getResults();
+            while(results == null || results.length == 0 || results[0].getArrivalTime() < since) {
+                long wait = giveUp - System.currentTimeMillis();
+                if(wait <= 0)
+                    return null;
+                try {
+                    resultLock.wait(wait);
+                }catch(InterruptedException e) {
+                    return null;
+                }
+                results = getResults();
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Tracks the pictures that a ReceiveThread gets, such as the ones taken
+     * during turnTo and driveTo.  Only one ReceiveThread is watched at a time.
+     * @param state Where the pan and tilt of the pictures are read from.
+     */
+    public void watch(ReceiveThread receive, RoverState state) {
+        ReceiveThread old;
+        synchronized(this) {
+            old = watched;
+            watched = receive;
+            watchedState = state;
+        }
+        if(old != null)
+            old.unregisterObject(this, ReceiveThread.PICTURE_RECEIVE);
+        if(receive != null)
+            receive.registerObject(this, ReceiveThread.PICTURE_RECEIVE);
+    }
+
+    /** Gives a picture to track. */
+    public void submit(BufferedImage image, int pan, int tilt, long arrivalTime) {
+        synchronized(this) {
+            dropPending();
+            pendingImage = image;
+            pendingPan = pan;
+            pendingTilt = tilt;
+            pendingTime = arrivalTime;
+            pendingNumber++;
+            notifyAll();
+        }
+    }
+
+    /** Called by a RawFrameStream for each frame. */
+    public void frameReceived(RawFrame frame) {
+        frame.keep();
+        synchronized(this) {
+            dropPending();
+            pendingFrame = frame;
+            notifyAll();
+        }
+    }
+
+    /** Called by a RawFrameStream when it stops. */
+    public void streamStopped(int status) {
+    }
+
+    /** Stops the thread and stops watching a ReceiveThread. */
+    public void quit() {
+        watch(null, null);
+        synchronized(this) {
+            keepGoing = false;
+            dropPending();
+            notifyAll();
+        }
+    }
+
+    /** The number of frames tracked. */
+    public synchronized int getFramesTracked() {
+        return framesTracked;
+    }
+
+    /** The number of frames skipped, because a newer one came or they were too old. */
+    public synchronized int getFramesDropped() {
+        return framesDropped;
+    }
+
+    /** The average time in ms from a frame arriving to its results. */
+    public synchronized double getAverageLatency() {
+        return framesTracked == 0 ? 0 : ((double) totalLatency) / framesTracked;
+    }
+
+    /** The longest time in ms from a frame arriving to its results. */
+    public synchronized int getMaxLatency() {
+        return maxLatency;
+    }
+
+    /** The average time in ms spent tracking a frame. */
+    public synchronized double getAverageTrackTime() {
+        return framesTracked == 0 ? 0 : ((double) totalTrackTime) / framesTracked;
+    }
+
+    /** How many pixels apart the pixels looked at are now: 1, 2, 4 or 8. */
+    public synchronized int getStep() {
+        return step;
+    }
+
+    /** Sets the metrics back to 0. */
+    public synchronized void resetMetrics() {
+        framesTracked = framesDropped = maxLatency = 0;
+        totalLatency = totalTrackTime = 0;
+    }
+
+    public void run() {
+        while(true) {
+            RawFrame frame;
+            BufferedImage image;
+            int pan, tilt, number;
+            long arrival;
+            synchronized(this) {
+                while(keepGoing && pendingFrame == null && pendingImage == null) {
+                    try {
+                        wait();
+                    }catch(InterruptedException e) {}
+                    //ReceiveThread notifies this object when it has a new picture
+                    if(watched != null && pendingFrame == null && pendingImage == null
+                    && watched.getImageUpdateTime() > pendingTime) {
+                        pendingImage = watched.getRecentImage();
+                        pendingTime = watched.getImageUpdateTime();
+                        pendingPan = watchedState.getPan();
+                        pendingTilt = watchedState.getTilt();
+                        pendingNumber++;
+                    }
+                }
+                if(!keepGoing)
+                    return;
+                frame = pendingFrame;
+                image = pendingImage;
+                number = pendingNumber;
+                pendingFrame = null;
+                pendingImage = null;
+                if(frame != null) {
+                    arrival = frame.getArrivalTime();
+                    pan = frame.getPan();
+                    tilt = frame.getTilt();
+                    number = frame.getNumber();
+                }else {
+                    arrival = pendingTime;
+                    pan = pendingPan;
+                    tilt = pendingTilt;
+                }
+                if(budget > 0 && System.currentTimeMillis() - arrival > budget) {
+                    framesDropped++;
+                    if(frame != null)
+                        frame.release();
+                    continue;
+                }
+            }
+            long start = System.currentTimeMillis();
+            TrackResult [] results;
+            try {
+                if(frame != null)
+                    results = track(frame.getYUV(), frame.getWidth(), frame.getHeight(), pan, tilt, number, arrival);
+                else
+                    results = track(image, pan, tilt, number, arrival);
+            }finally {
+                if(frame != null)
+                    frame.release();
+            }
+            long done = System.currentTimeMillis();
+            Listener [] ls;
+            synchronized(this) {
+                latest = results;
+                int latency = (int) (done - arrival);
+                framesTracked++;
+                totalLatency += latency;
+                totalTrackTime += done - start;
+                maxLatency = Math.max(maxLatency, latency);
+                adjustStep(latency);
+                ls = listeners.toArray(new Listener[listeners.size()]);
+            }
+            synchronized(resultLock) {
+                resultLock.notifyAll();
+            }
+            for(int i=0; i<ls.length; i++) {
+                try {
+                    ls[i].tracked(results);
+                }catch(Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /* Looks at fewer pixels if the last frame went over the budget, and at
+     * more again once there is plenty of room.  The caller holds the lock.
+     */
+    private void adjustStep(int latency) {
+        if(budget == 0)
+            return;
+        if(latency > budget && step < MAX_STEP)
+            step *= 2;
+        else if(latency < budget/4 && step > 1)
+            step /= 2;
+    }
+
+    /* The caller holds the lock. */
+    private void dropPending() {
+        if(pendingFrame != null) {
+            pendingFrame.release();
+            framesDropped++;
+        }else if(pendingImage != null)
+            framesDropped++;
+        pendingFrame = null;
+        pendingImage = null;
+    }
+
+    private TrackResult [] track(BufferedImage image, int pan, int tilt, int number, long arrival) {
+        int width = image.getWidth() & ~1, height = image.getHeight() & ~1;
+        if(imageRGB.length < width*height)
+            imageRGB = new int[width*height];
+        if(imageYUV.length < 3*width*height/2)
+            imageYUV = new byte[3*width*height/2];
+        image.getRGB(0, 0, width, height, imageRGB, 0, width);
+        VisionUtil.rgb2yuv420p(imageRGB, width, height, imageYUV);
+        return track(imageYUV, width, height, pan, tilt, number, arrival);
+    }
+
+    /* Tracks every color in a YUV420P frame. */
+    private TrackResult [] track(byte [] yuv, int width, int height, int pan, int tilt, int number, long arrival) {
+        TrackColor [] ms;
+        int [] ys, us, vs;
+        int s;
+        boolean blobs;
+        synchronized(this) {
+            ms = colors;
+            ys = yClass;
+            us = uClass;
+            vs = vClass;
+            s = step;
+            blobs = largestBlob;
+        }
+        int n = ms.length;
+        int [] count = new int[n], minX = new int[n], minY = new int[n], maxX = new int[n], maxY = new int[n];
+        long [] sumX = new long[n], sumY = new long[n];
+        for(int k=0; k<n; k++) {
+            minX[k] = minY[k] = Integer.MAX_VALUE;
+            maxX[k] = maxY[k] = -1;
+        }
+        int gw = (width + s - 1) / s, gh = (height + s - 1) / s;
+        if(blobs && mask.length < gw*gh*n)
+            mask = new boolean[gw*gh*n];
+        int numpix = width*height, quarter = numpix/4, halfWidth = width/2;
+        for(int gy=0, y=0; y<height; gy++, y+=s) {
+            int row = y*width, chroma = numpix + (y/2)*halfWidth;
+            for(int gx=0, x=0; x<width; gx++, x+=s) {
+                int c = chroma + x/2;
+                int bits = ys[yuv[row+x] & 255] & us[yuv[c] & 255] & vs[yuv[c+quarter] & 255];
+                if(blobs)
+                    for(int k=0; k<n; k++)
+                        mask[k*gw*gh + gy*gw + gx] = (bits & (1 << k)) != 0;
+                while(bits != 0) {
+                    int k = Integer.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    count[k]++;
+                    sumX[k] += x;
+                    sumY[k] += y;
+                    if(x < minX[k]) minX[k] = x;
+                    if(x > maxX[k]) maxX[k] = x;
+                    if(y < minY[k]) minY[k] = y;
+                    maxY[k] = y;
+                }
+            }
+        }
+        long done = System.currentTimeMillis();
+        TrackResult [] results = new TrackResult[n];
+        boolean [] one = blobs ? new boolean[gw*gh] : null;
+        for(int k=0; k<n; k++) {
+            if(blobs && count[k] > 0) {
+                System.arraycopy(mask, k*gw*gh, one, 0, gw*gh);
+                Blob [] found = labeler.label(one, null, gw, gh);
+                Blob b = found[0];
+                results[k] = new TrackResult(ms[k], (int) Math.round(b.getCenterX()*s), (int) Math.round(b.getCenterY()*s),
+                b.getMinX()*s, b.getMinY()*s, Math.min(width-1, b.getMaxX()*s + s-1), Math.min(height-1, b.getMaxY()*s + s-1),
+                b.getArea()*s*s, width, height, pan, tilt, number, arrival, done);
+            }else if(count[k] > 0) {
+                results[k] = new TrackResult(ms[k], (int) (sumX[k]/count[k]), (int) (sumY[k]/count[k]),
+                minX[k], minY[k], Math.min(width-1, maxX[k] + s-1), Math.min(height-1, maxY[k] + s-1),
+                count[k]*s*s, width, height, pan, tilt, number, arrival, done);
+            }else
+                results[k] = new TrackResult(ms[k], 0, 0, 0, 0, 0, 0, 0, width, height, pan, tilt, number, arrival, done);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * ConnectionMonitor.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.util.Vector;
+
+/**
+ * Watches whether the rover is still answering and reconnects when it stops.
+ * Get the monitor for a connection with <code>RoverController.getMonitor()</code>.
+ * <p>
+ * Anything that arrives from the rover, even an ack, shows that the connection
+ * is alive.  When nothing has arrived for a third of the timeout, the monitor
+ * sends a small command to find out.  When nothing has arrived for the whole
+ * timeout, the connection is lost: the status of <code>state</code> becomes
+ * <code>COMM_DEAD</code>, commands that are waiting return, and new commands
+ * fail right away until the rover is heard from again.  The monitor then tries
+ * to reconnect, waiting longer after each try, and when the rover answers it
+ * starts whatever was streaming again.
+ */
+public class ConnectionMonitor extends Thread {
+
+    /** Is told when the connection is lost and when it comes back. */
+    public interface Listener {
+        /** Called on the monitor's thread when the rover stops answering. */
+        void connectionLost();
+
+        /**
+         * Called on the monitor's thread when the rover answers again, before
+         * streaming is started again.  The rover may have been restarted, so
+         * this is the place to call <code>initRobot</code>.
+         */
+        void connectionRestored();
+    }
+
+    /** How long in ms the rover can be silent before the connection is lost. */
+    public static final int DEFAULT_TIMEOUT = 400;
+    /** How long in ms to wait for the first try at reconnecting to work. */
+    public static final int MIN_BACKOFF = 250;
+    /** The longest wait in ms between tries at reconnecting. */
+    public static final int MAX_BACKOFF = 5000;
+
+    private RoverController rc;
+    private Reliagram rgram;
+    private RoverCommand command = new RoverCommand();
+    private Vector<Listener> listeners = new Vector<Listener>();
+    private boolean keepGoing = true;
+    private boolean connected = true;
+    private int timeout = DEFAULT_TIMEOUT;
+    private int heartbeatSeq = 0;
+
+    /** Creates a new ConnectionMonitor and starts its thread.  Use
+     * <code>RoverController.getMonitor()</code> instead. */
+    public ConnectionMonitor(RoverController rc, Reliagram rgram) {
+        super("ConnectionMonitor");
+        this.rc = rc;
+        this.rgram = rgram;
+        setDaemon(true);
+        this.start();
+    }
+
+    /** Sets how long in ms the rover can be silent before the connection is lost. */
+    public synchronized void setTimeout(int ms) {
+        timeout = Math.max(60, ms);
+        notifyAll();
+    }
+
+    public synchronized int getTimeout() {
+        return timeout;
+    }
+
+    /** Returns false from when the connection is lost until it is restored. */
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    public synchronized void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    public synchronized void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    /** Stops the thread.  This is done by RoverController.closeComm. */
+    public void quit() {
+        synchronized(this) {
+            keepGoing = false;
+            notifyAll();
+        }
+        rgram.setLinkDown(false);
+    }
+
+    public void run() {
+        long watchStart = System.currentTimeMillis();
+        while(isRunning()) {
+            int limit = getTimeout();
+            int interval = Math.max(20, limit/3);
+            long now = System.currentTimeMillis();
+            long idle = now - Math.max(rgram.getLastReceiveTime(), watchStart);
+            if(idle >= limit) {
+                lost();
+                reconnect();
+                watchStart = System.currentTimeMillis();
+                continue;
+            }
+            if(idle >= interval)
+                heartbeat();
+            pause(Math.min(interval, limit - idle));
+        }
+    }
+
+    private void lost() {
+        synchronized(this) {
+            if(!keepGoing)
+                return;
+            connected = false;
+        }
+        rgram.setLinkDown(true);
+        rc.state.setStatus(RoverState.COMM_DEAD);
+        Listener [] ls;
+        synchronized(this) {
+            ls = listeners.toArray(new Listener[listeners.size()]);
+        }
+        for(int i=0; i<ls.length; i++) {
+            try {
+                ls[i].connectionLost();
+            }catch(Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /* Keeps trying until the rover answers or quit is called. */
+    private void reconnect() {
+        int backoff = MIN_BACKOFF;
+        while(isRunning()) {
+            long attempt = System.currentTimeMillis();
+            if(rgram.reconnect()) {
+                //commands keep failing fast until the rover is heard from
+                heartbeat();
+                long giveUp = attempt + backoff;
+                while(isRunning() && rgram.getLastReceiveTime() < attempt) {
+                    long wait = giveUp - System.currentTimeMillis();
+                    if(wait <= 0)
+                        break;
+                    pause(Math.min(wait, 20));
+                }
+                if(rgram.getLastReceiveTime() >= attempt) {
+                    restored();
+                    return;
+                }
+            }else
+                pause(backoff);
+            backoff = Math.min(2*backoff, MAX_BACKOFF);
+        }
+    }
+
+    private void restored() {
+        synchronized(this) {
+            if(!keepGoing)
+                return;
+            connected = true;
+        }
+        rgram.setLinkDown(false);
+        Listener [] ls;
+        synchronized(this) {
+            ls = listeners.toArray(new Listener[listeners.size()]);
+        }
+        for(int i=0; i<ls.length; i++) {
+            try {
+                ls[i].connectionRestored();
+            }catch(Exception e) {
+                e.printStackTrace();
+            }
+        }
+        rc.restoreStreaming();
+    }
+
+    /* Asks the rover for its state only to hear from it, so the answer is not
+     * put in state; the poller and the other commands do that.
+     */
+    private void heartbeat() {
+        if(heartbeatSeq > 0)
+            rgram.cancel(heartbeatSeq);
+        command.headMove(false, 0, false, 0);
+        heartbeatSeq = rgram.send(command.getData(), command.getLength());
+        if(heartbeatSeq > 0)
+            rgram.receiveAsync(heartbeatSeq, getTimeout());
+    }
+
+    private synchronized boolean isRunning() {
+        return keepGoing;
+    }
+
+    private synchronized void pause(long ms) {
+        if(!keepGoing || ms <= 0)
+            return;
+        try {
+            wait(ms);
+        }catch(InterruptedException e) {}
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * ConstantVelocityFilter.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+/**
+ * A Kalman filter for one angle that is assumed to change at a steady rate,
+ * such as the direction to an object the rover is tracking.  Each
+ * measurement is given with the time it was made, so measurements that come
+ * at uneven times, or late, are weighted correctly, and the angle can be
+ * predicted for any time.  Angles are in degrees and times in ms.
+ *
+ * @see PredictiveTracker
+ */
+public class ConstantVelocityFilter {
+   private double processNoise, measurementNoise;
+   private boolean started = false;
+   private long time; //when the estimate is for
+   private double angle, rate; //degrees and degrees per ms
+   private double p00, p01, p11; //the covariance of angle and rate
+
+   /**
+    * Creates a new ConstantVelocityFilter.
+    * @param processNoise How much the rate can change, as the variance of the
+    * acceleration in degrees^2 / s^3.  Higher follows turns faster.
+    * @param measurementNoise The variance of a measurement in degrees^2.
+    * Higher smooths more.
+    */
+   public ConstantVelocityFilter(double processNoise, double measurementNoise) {
+      setNoise(processNoise, measurementNoise);
+   }
+
+   /** Sets the noise; see the constructor. */
+   public synchronized void setNoise(double processNoise, double measurementNoise) {
+      this.processNoise = processNoise / 1e9; //degrees^2 / ms^3
+      this.measurementNoise = measurementNoise;
+   }
+
+   /** Forgets everything; the next measurement starts a new estimate. */
+   public synchronized void reset() {
+      started = false;
+   }
+
+   /** Returns true once there has been a measurement. */
+   public synchronized boolean isStarted() {
+      return started;
+   }
+
+   /**
+    * Adds a measurement.  Measurements older than the newest one already
+    * given are ignored.
+    * @param measured The angle that was measured.
+    * @param when The local system time in ms when it was true.
+    */
+   public synchronized void update(double measured, long when) {
+      if(!started) {
+         angle = measured;
+         rate = 0;
+         p00 = measurementNoise;
+         p01 = 0;
+         //the rate is unknown to about 10 degrees per second for each degree
+         //of measurement noise (sqrt(R)/100 degrees per ms), so a moving
+         //object's rate is picked up within a few measurements
+         p11 = measurementNoise / 1e4;
+         time = when;
+         started = true;
+         return;
+      }
+      if(when < time)
+         return;
+      advance(when);
+      double s = p00 + measurementNoise;
+      double k0 = p00 / s, k1 = p01 / s;
+      double error = measured - angle;
+      angle += k0 * error;
+      rate += k1 * error;
+      p11 -= k1 * p01;
+      p01 -= k0 * p01;
+      p00 -= k0 * p00;
+   }
+
+   /** The angle predicted for a local system time in ms. */
+   public synchronized double predict(long when) {
+      return angle + rate * (when - time);
+   }
+
+   /** The rate the angle is changing in degrees per second. */
+   public synchronized double getRate() {
+      return rate * 1000;
+   }
+
+   /** The standard deviation of the angle estimate in degrees. */
+   public synchronized double getUncertainty() {
+      return Math.sqrt(p00);
+   }
+
+   /** The local system time in ms of the last measurement. */
+   public synchronized long getTime() {
+      return time;
+   }
+
+   public synchronized String toString() {
+      return Math.round(angle*10)/10.0+" degrees, "+Math.round(getRate()*10)/10.0+" degrees/s, +/- "
+      +Math.round(getUncertainty()*10)/10.0;
+   }
+
+   /* Moves the estimate forward to a later time. */
+   private void advance(long when) {
+      double dt = when - time;
+      angle += rate * dt;
+      double q = processNoise;
+      p00 += dt * (2*p01 + dt*p11) + q*dt*dt*dt/3;
+      p01 += dt * p11 + q*dt*dt/2;
+      p11 += q * dt;
+      time = when;
+   }
+}
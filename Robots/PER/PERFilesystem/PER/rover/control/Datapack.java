@@ -9,10 +9,17 @@ package PER.rover.control;
 
 public class Datapack {
    private byte [] buf;
+   private int length;
    private int sequenceNumber;
    
    public Datapack(byte [] buffer, int seqNum) {
+      this(buffer, buffer.length, seqNum);
+   }
+   
+   /** For data that only fills the start of <code>buffer</code>. */
+   public Datapack(byte [] buffer, int length, int seqNum) {
       buf = buffer;
+      this.length = length;
       sequenceNumber = seqNum;
    }
    
@@ -21,7 +28,7 @@ public class Datapack {
    }
    
    public int getLength() {
-      return buf.length;
+      return length;
    }
    
    public int getSequenceNumber() {
@@ -0,0 +1,105 @@
+/*
+ * Deadline.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.util.Vector;
+
+/**
+ * A time limit and cancellation flag for commands sent to the rover.  Give one
+ * to RoverController with <code>setDeadline</code> (or to AsyncRoverController
+ * with <code>withDeadline</code>) and every command waits no longer than the
+ * deadline allows.  Calling <code>cancel</code> wakes up anything waiting for the
+ * rover right away, stops Reliagram from resending the commands, and makes the
+ * commands fail with a status of <code>RoverState.KILLED</code>.
+ * <p>
+ * An Action usually makes one Deadline when it starts and cancels it in
+ * <code>kill()</code>.
+ */
+public class Deadline {
+   private long endTime;
+   private boolean cancelled = false;
+   private Vector<Runnable> listeners = new Vector<Runnable>(); //run on cancel
+
+   /** Creates a Deadline with no time limit that is only done when cancelled. */
+   public Deadline() {
+      endTime = Long.MAX_VALUE;
+   }
+
+   /**
+    * Creates a Deadline that expires <code>ms</code> milliseconds from now.
+    * @param ms How long commands have, in ms.
+    */
+   public Deadline(int ms) {
+      endTime = System.currentTimeMillis() + Math.max(0, ms);
+   }
+
+   /** Cancels everything using this Deadline.  Calling it again does nothing. */
+   public void cancel() {
+      Runnable [] toRun;
+      synchronized(this) {
+         if(cancelled)
+            return;
+         cancelled = true;
+         toRun = listeners.toArray(new Runnable[listeners.size()]);
+         listeners.clear();
+      }
+      for(int i=0; i<toRun.length; i++) {
+         try {
+            toRun[i].run();
+         }catch(Exception e) {
+            e.printStackTrace();
+         }
+      }
+   }
+
+   /** Returns true if <code>cancel</code> has been called. */
+   public synchronized boolean isCancelled() {
+      return cancelled;
+   }
+
+   /** Returns true if this was cancelled or the time limit has passed. */
+   public synchronized boolean isDone() {
+      return cancelled || System.currentTimeMillis() >= endTime;
+   }
+
+   /** How many ms are left, or Integer.MAX_VALUE if there is no time limit. */
+   public synchronized int getRemaining() {
+      if(cancelled)
+         return 0;
+      if(endTime == Long.MAX_VALUE)
+         return Integer.MAX_VALUE;
+      return (int) Math.max(0, Math.min(Integer.MAX_VALUE, endTime - System.currentTimeMillis()));
+   }
+
+   /**
+    * Limits a timeout to what is left of this Deadline.
+    * @param timeout A timeout in ms, which must be greater than 0.
+    * @return The smaller of <code>timeout</code> and the time remaining.
+    */
+   public int limit(int timeout) {
+      return Math.min(timeout, getRemaining());
+   }
+
+   /**
+    * Runs <code>r</code> when this is cancelled, or right away if it already
+    * was.  It runs on the thread that calls <code>cancel</code>, so it should be quick.
+    */
+   public void addCancelListener(Runnable r) {
+      synchronized(this) {
+         if(!cancelled) {
+            listeners.add(r);
+            return;
+         }
+      }
+      r.run();
+   }
+
+   /** Removes a listener added with <code>addCancelListener</code>. */
+   public synchronized void removeCancelListener(Runnable r) {
+      listeners.remove(r);
+   }
+}
@@ -0,0 +1,247 @@
+/*
+ * ImageDecoder.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.Iterator;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/** Decodes the JPEG images sent back by the rover.  Every thread that decodes
+ * keeps its own <code>ImageReader</code>, so readers are created once per thread
+ * instead of once per picture.  Decodes can either run on the calling thread or
+ * be handed to a small shared pool so that bursts of pictures (such as the tiles
+ * of a panorama) are decoded on several processors at once.
+ * <p>
+ * Use <code>getDecoder()</code> to get the shared instance.
+ */
+public class ImageDecoder {
+
+   /** Receives the result of a decode started with <code>submit</code>. */
+   public interface DecodeListener {
+      /**
+       * Called on a decoding thread once the image has been decoded.  The image
+       * is a scratch image owned by that thread and is overwritten by the next
+       * decode, so copy or draw it before returning.
+       * @param image The decoded image or null if the data could not be decoded.
+       */
+      void imageDecoded(BufferedImage image);
+   }
+
+   /** The maximum number of threads used for background decoding. */
+   public static final int MAX_THREADS = 4;
+
+   private static ImageDecoder decoder = null;
+
+   private ThreadPoolExecutor pool;
+   private ThreadLocal<ImageReader> readers;
+   private ThreadLocal<BufferedImage> scratch;
+
+   /** Creates a new ImageDecoder.  Most programs should use <code>getDecoder()</code>. */
+   public ImageDecoder() {
+      int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+      //the queue has no limit so that submit never decodes on the caller's
+      //thread, which can be the thread receiving everything from the rover;
+      //only as many pictures as were asked for can be waiting
+      pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+         private int count = 0;
+         public synchronized Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "ImageDecoder-"+(count++));
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      pool.allowCoreThreadTimeOut(true);
+      readers = new ThreadLocal<ImageReader>();
+      scratch = new ThreadLocal<BufferedImage>();
+   }
+
+   /** Returns the decoder shared by RoverController, ReceiveThread and the actions. */
+   public static synchronized ImageDecoder getDecoder() {
+      if(decoder == null)
+         decoder = new ImageDecoder();
+      return decoder;
+   }
+
+   /**
+    * Decodes an image into a new BufferedImage on the calling thread.
+    * @return The image or null if the data could not be decoded.
+    */
+   public BufferedImage decode(byte [] data, int offset, int length) {
+      return decode(data, offset, length, null);
+   }
+
+   /**
+    * Decodes an image on the calling thread, reusing <code>dest</code> if it has
+    * the same size and type as the encoded image.
+    * @param dest An image to decode into or null to always allocate a new one.
+    * @return The image, which is <code>dest</code> if it could be reused, or null
+    * if the data could not be decoded.
+    */
+   public BufferedImage decode(byte [] data, int offset, int length, BufferedImage dest) {
+      ImageReader reader = getReader();
+      if(reader == null)
+         return null;
+      ImageInputStream iis = null;
+      try {
+         iis = ImageIO.createImageInputStream(new ByteArrayInputStream(data, offset, length));
+         reader.setInput(iis, true, true);
+         ImageReadParam param = reader.getDefaultReadParam();
+         if(dest != null && canReuse(reader, dest))
+            param.setDestination(dest);
+         return reader.read(0, param);
+      } catch(Exception e) {
+         return null;
+      } finally {
+         reader.setInput(null);
+         try {
+            if(iis != null)
+               iis.close();
+         } catch(Exception e) {}
+      }
+   }
+
+   /**
+    * Reads just the size of an encoded image.
+    * @return The size or null if the data is not an image this decoder can read.
+    */
+   public java.awt.Dimension getSize(byte [] data, int offset, int length) {
+      ImageReader reader = getReader();
+      if(reader == null)
+         return null;
+      ImageInputStream iis = null;
+      try {
+         iis = ImageIO.createImageInputStream(new ByteArrayInputStream(data, offset, length));
+         reader.setInput(iis, true, true);
+         return new java.awt.Dimension(reader.getWidth(0), reader.getHeight(0));
+      } catch(Exception e) {
+         return null;
+      } finally {
+         reader.setInput(null);
+         try {
+            if(iis != null)
+               iis.close();
+         } catch(Exception e) {}
+      }
+   }
+
+   /**
+    * Decodes a reduced size copy of an image for thumbnails and previews.  The
+    * decoder skips rows and columns of the source (<code>ImageReadParam</code>
+    * source subsampling) so that it never produces much more than is needed,
+    * then area averages down to exactly the requested size.  Only the final
+    * image is allocated, and only if <code>dest</code> can't be reused.
+    * <p>
+    * This only saves anything when the picture is shown smaller than it was
+    * taken, such as a file preview.  Pictures shown at their size or larger,
+    * and pictures that are stitched into a panorama, should use
+    * <code>decode</code>.
+    * @param width The width of the preview.
+    * @param height The height of the preview.
+    * @param dest A preview from a previous call to reuse, or null.
+    * @return The preview, which is <code>dest</code> if it could be reused, or
+    * null if the data could not be decoded.
+    */
+   public BufferedImage decodeScaled(byte [] data, int offset, int length, int width,
+   int height, BufferedImage dest) {
+      ImageReader reader = getReader();
+      if(reader == null || width <= 0 || height <= 0)
+         return null;
+      ImageInputStream iis = null;
+      BufferedImage image;
+      try {
+         iis = ImageIO.createImageInputStream(new ByteArrayInputStream(data, offset, length));
+         reader.setInput(iis, true, true);
+         int srcWidth = reader.getWidth(0), srcHeight = reader.getHeight(0);
+         //the largest subsampling that still leaves at least width x height pixels
+         int sub = Math.max(1, Math.min(srcWidth/width, srcHeight/height));
+         ImageReadParam param = reader.getDefaultReadParam();
+         param.setSourceSubsampling(sub, sub, 0, 0);
+         BufferedImage tmp = scratch.get();
+         if(tmp != null && tmp.getWidth() == (srcWidth+sub-1)/sub && tmp.getHeight() == (srcHeight+sub-1)/sub
+         && canReuseType(reader, tmp))
+            param.setDestination(tmp);
+         image = reader.read(0, param);
+      } catch(Exception e) {
+         return null;
+      } finally {
+         reader.setInput(null);
+         try {
+            if(iis != null)
+               iis.close();
+         } catch(Exception e) {}
+      }
+      scratch.set(image);
+      return ImageScaler.scale(image, width, height, dest);
+   }
+
+   /**
+    * Decodes an image into a scratch image owned by the calling thread.  The
+    * returned image is overwritten by the next call to this function on the same
+    * thread, so this is only useful when the image is drawn somewhere else
+    * immediately.
+    * @return The scratch image or null if the data could not be decoded.
+    */
+   public BufferedImage decodeScratch(byte [] data, int offset, int length) {
+      BufferedImage image = decode(data, offset, length, scratch.get());
+      if(image != null)
+         scratch.set(image);
+      return image;
+   }
+
+   /**
+    * Decodes an image on the shared pool.  If the pool is busy, the image waits
+    * its turn; it is never decoded on the calling thread.
+    * @param listener Notified on the decoding thread when the decode is done.
+    * @return A Future that completes after the listener has returned.
+    */
+   public Future<?> submit(final byte [] data, final int offset, final int length,
+   final DecodeListener listener) {
+      return pool.submit(new Runnable() {
+         public void run() {
+            listener.imageDecoded(decodeScratch(data, offset, length));
+         }
+      });
+   }
+
+   /* Only reuse images that are exactly what the reader would have made. */
+   private boolean canReuse(ImageReader reader, BufferedImage dest) throws java.io.IOException {
+      if(dest.getWidth() != reader.getWidth(0) || dest.getHeight() != reader.getHeight(0))
+         return false;
+      return canReuseType(reader, dest);
+   }
+
+   private boolean canReuseType(ImageReader reader, BufferedImage dest) throws java.io.IOException {
+      Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+      if(!types.hasNext())
+         return false;
+      int type = types.next().getBufferedImageType();
+      return type != BufferedImage.TYPE_CUSTOM && type == dest.getType();
+   }
+
+   private ImageReader getReader() {
+      ImageReader reader = readers.get();
+      if(reader == null) {
+         Iterator<ImageReader> it = ImageIO.getImageReadersByFormatName("jpeg");
+         if(!it.hasNext())
+            return null;
+         reader = it.next();
+         readers.set(reader);
+      }
+      return reader;
+   }
+}
@@ -0,0 +1,195 @@
+/*
+ * ImageScaler.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+
+/** Fast image resizing for displaying rover pictures.  Shrinking is done with an
+ * integer area average (every source pixel is read once) and enlarging with
+ * bilinear interpolation.  Both write into a destination image that the caller
+ * can hand back on the next call, so screens that redraw often do not allocate a
+ * new image every time.  This is much faster than
+ * <code>getScaledInstance(..., Image.SCALE_SMOOTH)</code>.
+ */
+public class ImageScaler {
+
+   /** Creates a new instance of ImageScaler */
+   public ImageScaler() {
+   }
+
+   /**
+    * Scales an image to the given size.
+    * @param src The image to scale.
+    * @param width The width of the scaled image.
+    * @param height The height of the scaled image.
+    * @param dest An image from a previous call to reuse, or null.  It is only
+    * reused if it already has the right size and type.
+    * @return The scaled image, which is <code>dest</code> if it could be reused.
+    */
+   public static BufferedImage scale(Image src, int width, int height, BufferedImage dest) {
+      BufferedImage bsrc = toBufferedImage(src);
+      if(width >= bsrc.getWidth() || height >= bsrc.getHeight())
+         return bilinear(bsrc, width, height, dest);
+      return areaAverage(bsrc, width, height, dest);
+   }
+
+   /**
+    * Shrinks an image by averaging all of the source pixels that fall in each
+    * destination pixel.  The width and height should not be larger than the
+    * size of <code>src</code>.
+    * @param dest An image from a previous call to reuse, or null.
+    * @return The scaled image, which is <code>dest</code> if it could be reused.
+    */
+   public static BufferedImage areaAverage(BufferedImage src, int width, int height, BufferedImage dest) {
+      int sw = src.getWidth(), sh = src.getHeight();
+      width = Math.max(1, Math.min(width, sw));
+      height = Math.max(1, Math.min(height, sh));
+      boolean alpha = src.getColorModel().hasAlpha();
+      dest = getDestination(width, height, alpha, dest);
+      int [] out = ((DataBufferInt) dest.getRaster().getDataBuffer()).getData();
+
+      //where each destination column starts in the source
+      int [] xStart = new int[width+1];
+      for(int x=0; x<=width; x++)
+         xStart[x] = x*sw/width;
+      final BufferedImage fsrc = src;
+      final int fwidth = width, fheight = height;
+      final boolean falpha = alpha;
+      //each destination row reads about sh/height rows of the source
+      ParallelImage.forEachBand(sw*Math.max(1, sh/height), height, 1, new ParallelImage.Band() {
+         public int run(int startRow, int endRow) {
+            averageRows(fsrc, fwidth, fheight, falpha, xStart, out, startRow, endRow);
+            return 0;
+         }
+      });
+      return dest;
+   }
+
+   /* Does rows startRow to endRow of the destination for areaAverage. */
+   private static void averageRows(BufferedImage src, int width, int height, boolean alpha,
+   int [] xStart, int [] out, int startRow, int endRow) {
+      int sw = src.getWidth(), sh = src.getHeight();
+      int [] sumA = new int[width], sumR = new int[width], sumG = new int[width], sumB = new int[width];
+      int [] row = new int[sw];
+
+      for(int y=startRow; y<endRow; y++) {
+         int ys = y*sh/height, ye = (y+1)*sh/height;
+         for(int x=0; x<width; x++)
+            sumA[x] = sumR[x] = sumG[x] = sumB[x] = 0;
+         for(int sy=ys; sy<ye; sy++) {
+            getRow(src, sy, row);
+            for(int x=0; x<width; x++) {
+               int a = 0, r = 0, g = 0, b = 0;
+               for(int sx=xStart[x]; sx<xStart[x+1]; sx++) {
+                  int p = row[sx];
+                  a += p >>> 24;
+                  r += (p >> 16) & 255;
+                  g += (p >> 8) & 255;
+                  b += p & 255;
+               }
+               sumA[x] += a;
+               sumR[x] += r;
+               sumG[x] += g;
+               sumB[x] += b;
+            }
+         }
+         int offset = y*width;
+         int rows = ye - ys;
+         for(int x=0; x<width; x++) {
+            int n = rows*(xStart[x+1]-xStart[x]);
+            int a = alpha ? sumA[x]/n : 255;
+            out[offset+x] = (a<<24) | ((sumR[x]/n)<<16) | ((sumG[x]/n)<<8) | (sumB[x]/n);
+         }
+      }
+   }
+
+   /**
+    * Resizes an image with bilinear interpolation.  This is the right choice
+    * when enlarging.
+    * @param dest An image from a previous call to reuse, or null.
+    * @return The scaled image, which is <code>dest</code> if it could be reused.
+    */
+   public static BufferedImage bilinear(BufferedImage src, int width, int height, BufferedImage dest) {
+      dest = getDestination(Math.max(1, width), Math.max(1, height), src.getColorModel().hasAlpha(), dest);
+      Graphics2D g = dest.createGraphics();
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.setComposite(java.awt.AlphaComposite.Src);
+      g.drawImage(src, 0, 0, dest.getWidth(), dest.getHeight(), null);
+      g.dispose();
+      return dest;
+   }
+
+   /**
+    * Returns <code>img</code> if it is already a BufferedImage, otherwise draws it
+    * into a new one.  The image must already be loaded.
+    */
+   public static BufferedImage toBufferedImage(Image img) {
+      if(img instanceof BufferedImage)
+         return (BufferedImage) img;
+      BufferedImage bi = new BufferedImage(Math.max(1, img.getWidth(null)),
+      Math.max(1, img.getHeight(null)), BufferedImage.TYPE_INT_ARGB);
+      Graphics2D g = bi.createGraphics();
+      g.drawImage(img, 0, 0, null);
+      g.dispose();
+      return bi;
+   }
+
+   private static BufferedImage getDestination(int width, int height, boolean alpha, BufferedImage dest) {
+      int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+      if(dest != null && dest.getWidth() == width && dest.getHeight() == height && dest.getType() == type)
+         return dest;
+      return new BufferedImage(width, height, type);
+   }
+
+   /* Reads one row of the source as packed ARGB, going straight to the pixel
+    * data for the types that the rover's pictures and panoramas use.
+    */
+   private static void getRow(BufferedImage src, int y, int [] row) {
+      int w = src.getWidth();
+      switch(src.getType()) {
+         case BufferedImage.TYPE_INT_RGB:
+         case BufferedImage.TYPE_INT_ARGB: {
+            int [] data = ((DataBufferInt) src.getRaster().getDataBuffer()).getData();
+            int offset = rasterOffset(src, y);
+            if(src.getType() == BufferedImage.TYPE_INT_ARGB)
+               System.arraycopy(data, offset, row, 0, w);
+            else
+               for(int x=0; x<w; x++)
+                  row[x] = 0xff000000 | data[offset+x];
+            return;
+         }
+         case BufferedImage.TYPE_3BYTE_BGR: {
+            byte [] data = ((DataBufferByte) src.getRaster().getDataBuffer()).getData();
+            int offset = rasterOffset(src, y);
+            for(int x=0; x<w; x++, offset+=3)
+               row[x] = 0xff000000 | ((data[offset+2] & 255)<<16) | ((data[offset+1] & 255)<<8) | (data[offset] & 255);
+            return;
+         }
+         default:
+            src.getRGB(0, y, w, 1, row, 0, w);
+      }
+   }
+
+   /* The index of the first sample of row y in the image's data buffer. */
+   private static int rasterOffset(BufferedImage src, int y) {
+      java.awt.image.Raster raster = src.getRaster();
+      java.awt.image.SampleModel sm = raster.getSampleModel();
+      int tx = raster.getSampleModelTranslateX(), ty = raster.getSampleModelTranslateY();
+      if(sm instanceof java.awt.image.SinglePixelPackedSampleModel) {
+         int stride = ((java.awt.image.SinglePixelPackedSampleModel) sm).getScanlineStride();
+         return raster.getDataBuffer().getOffset() + (y-ty)*stride - tx;
+      }
+      java.awt.image.ComponentSampleModel csm = (java.awt.image.ComponentSampleModel) sm;
+      int minOffset = Math.min(csm.getBandOffsets()[0], Math.min(csm.getBandOffsets()[1], csm.getBandOffsets()[2]));
+      return raster.getDataBuffer().getOffset() + (y-ty)*csm.getScanlineStride() - tx*csm.getPixelStride() + minOffset;
+   }
+}
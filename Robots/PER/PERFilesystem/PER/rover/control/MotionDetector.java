@@ -0,0 +1,367 @@
+/*
+ * MotionDetector.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Detects motion on this computer at full resolution.  The rover's motion
+ * detection (<code>ReceiveThread.motion</code>) is a fixed 11x9 grid of 16x16
+ * blocks of a 176x144 picture compared with the picture before it.  This
+ * compares each frame with a background that is a running average of the
+ * frames before it, so noise and slow changes in the light average out, and
+ * the blocks can be any size.  Blocks whose average difference is over the
+ * threshold are joined into MotionRegions, largest first.
+ * <p>
+ * Frames can be YUV420P, such as from a RawFrameStream (give this as the
+ * stream's listener) or <code>takeRawPicture</code>, or RGB, such as the
+ * pictures ReceiveThread gets.  Only the Y plane is used.  The arrays are
+ * only made again when the frame or block size changes, so nothing is
+ * allocated for each frame.
+ */
+public class MotionDetector implements RawFrameStream.FrameListener {
+   /** The default size of the blocks in pixels. */
+   public static final int DEFAULT_BLOCK_SIZE = 8;
+   /** The default average difference per pixel for a block to have motion. */
+   public static final int DEFAULT_THRESHOLD = 20;
+   /** The default learning rate: the background moves 1/16 of the way to each frame. */
+   public static final int DEFAULT_LEARNING_RATE = 4;
+
+   private int blockSize = DEFAULT_BLOCK_SIZE;
+   private int threshold = DEFAULT_THRESHOLD;
+   private int learningRate = DEFAULT_LEARNING_RATE;
+   private int minBlocks = 1;
+
+   private int width = 0, height = 0, columns = 0, rows = 0;
+   private int background [] = new int[0]; //the Y of each pixel with 8 bits of fraction
+   private boolean hasBackground = false;
+   private int motion [] = new int[0]; //the average difference per pixel of each block
+   private int motionBlocks = 0;
+   private byte luma [] = new byte[0]; //the Y of an RGB frame
+   private int rgb [] = new int[0];
+
+   //for finding regions
+   private int regionOf [] = new int[0];
+   private int queue [] = new int[0];
+   private MotionRegion regions [] = new MotionRegion[0];
+   private int regionCount = 0;
+
+   private int frames = 0;
+   private long updateTime = 0;
+
+   /** Creates a new MotionDetector with 8x8 blocks. */
+   public MotionDetector() {
+   }
+
+   /** Creates a new MotionDetector with blocks of blockSize x blockSize pixels. */
+   public MotionDetector(int blockSize) {
+      setBlockSize(blockSize);
+   }
+
+   /**
+    * Sets the size of the blocks in pixels, from 1 to 128, and starts the
+    * background over.
+    */
+   public synchronized void setBlockSize(int size) {
+      if(size < 1 || size > 128)
+         throw new IllegalArgumentException("block size must be from 1 to 128");
+      blockSize = size;
+      width = height = 0;
+      hasBackground = false;
+   }
+
+   public synchronized int getBlockSize() {
+      return blockSize;
+   }
+
+   /**
+    * Sets how different from the background a block has to be, as the
+    * average difference of its pixels from 0 to 255.
+    */
+   public synchronized void setThreshold(int thresh) {
+      threshold = thresh;
+   }
+
+   public synchronized int getThreshold() {
+      return threshold;
+   }
+
+   /**
+    * Sets how fast the background changes.  The background moves
+    * 1/2^rate of the way to each frame, so a higher rate is slower.  0
+    * compares each frame with the one before it, like the rover does.
+    */
+   public synchronized void setLearningRate(int rate) {
+      learningRate = Math.max(0, Math.min(16, rate));
+   }
+
+   public synchronized int getLearningRate() {
+      return learningRate;
+   }
+
+   /** Regions with fewer blocks than this are left out.  The default is 1. */
+   public synchronized void setMinBlocks(int blocks) {
+      minBlocks = Math.max(1, blocks);
+   }
+
+   public synchronized int getMinBlocks() {
+      return minBlocks;
+   }
+
+   /** Forgets the background, so the next frame becomes it. */
+   public synchronized void reset() {
+      hasBackground = false;
+      motionBlocks = regionCount = 0;
+   }
+
+   /**
+    * Compares a frame with the background and then adds it to the background.
+    * The first frame, and the first after the size changes, only becomes the
+    * background.
+    * @param yuv A YUV420P frame, or any frame that starts with its Y plane.
+    * @return The number of blocks with motion.
+    */
+   public synchronized int process(byte yuv [], int width, int height) {
+      if(yuv.length < width*height)
+         throw new IllegalArgumentException("frame is too short for "+width+"x"+height);
+      resize(width, height);
+      if(!hasBackground) {
+         for(int i=0; i<width*height; i++)
+            background[i] = (yuv[i] & 255) << 8;
+         hasBackground = true;
+         motionBlocks = regionCount = 0;
+         Arrays.fill(motion, 0, columns*rows, 0);
+      }else {
+         difference(yuv);
+         findRegions();
+      }
+      frames++;
+      updateTime = System.currentTimeMillis();
+      notifyAll();
+      return motionBlocks;
+   }
+
+   /**
+    * Compares an RGB frame, such as from <code>VisionUtil.v4l_yuv420p2rgb</code>,
+    * with the background.
+    * @return The number of blocks with motion.
+    */
+   public synchronized int process(int rgb [], int width, int height) {
+      if(luma.length < width*height)
+         luma = new byte[width*height];
+      for(int i=0; i<width*height; i++) {
+         int p = rgb[i];
+         luma[i] = (byte) ((19595*((p >> 16) & 255) + 38470*((p >> 8) & 255) + 7471*(p & 255) + 32768) >> 16);
+      }
+      return process(luma, width, height);
+   }
+
+   /**
+    * Compares a picture, such as <code>ReceiveThread.getRecentImage()</code>,
+    * with the background.
+    * @return The number of blocks with motion.
+    */
+   public synchronized int process(BufferedImage image) {
+      int w = image.getWidth(), h = image.getHeight();
+      if(rgb.length < w*h)
+         rgb = new int[w*h];
+      image.getRGB(0, 0, w, h, rgb, 0, w);
+      return process(rgb, w, h);
+   }
+
+   /** Called by a RawFrameStream for each frame. */
+   public void frameReceived(RawFrame frame) {
+      process(frame.getYUV(), frame.getWidth(), frame.getHeight());
+   }
+
+   /** Called by a RawFrameStream when it stops. */
+   public void streamStopped(int status) {
+   }
+
+   /** The number of columns of blocks. */
+   public synchronized int getColumns() {
+      return columns;
+   }
+
+   /** The number of rows of blocks. */
+   public synchronized int getRows() {
+      return rows;
+   }
+
+   /**
+    * The average difference per pixel of each block in the last frame, row
+    * by row like <code>ReceiveThread.motion</code>.  This is the detector's
+    * own array, which changes with each frame.
+    */
+   public synchronized int [] getMotion() {
+      return motion;
+   }
+
+   /** The number of blocks over the threshold in the last frame. */
+   public synchronized int getMotionBlocks() {
+      return motionBlocks;
+   }
+
+   /** Returns true if the last frame had a region of at least the minimum size. */
+   public synchronized boolean isMotion() {
+      return regionCount > 0;
+   }
+
+   /** The number of regions found in the last frame. */
+   public synchronized int getRegionCount() {
+      return regionCount;
+   }
+
+   /**
+    * Gets a region found in the last frame.  The regions are reused for the
+    * next frame.
+    * @param i From 0, the largest, to <code>getRegionCount()</code>-1.
+    */
+   public synchronized MotionRegion getRegion(int i) {
+      if(i < 0 || i >= regionCount)
+         throw new IndexOutOfBoundsException(i+" of "+regionCount+" regions");
+      return regions[i];
+   }
+
+   /** The number of frames given so far. */
+   public synchronized int getFrames() {
+      return frames;
+   }
+
+   /** The system time in ms when the last frame was processed. */
+   public synchronized long getUpdateTime() {
+      return updateTime;
+   }
+
+   /**
+    * Waits for a frame to be processed after a time.
+    * @return true if one was, or false if it timed out.
+    */
+   public synchronized boolean waitForFrame(long since, int timeout) {
+      long giveUp = System.currentTimeMillis() + timeout;
+      while(updateTime <= since) {
+         long wait = giveUp - System.currentTimeMillis();
+         if(wait <= 0)
+            return false;
+         try {
+            wait(wait);
+         }catch(InterruptedException e) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /* Makes the arrays for a new size, which starts the background over. */
+   private void resize(int w, int h) {
+      if(w == width && h == height)
+         return;
+      width = w;
+      height = h;
+      columns = (w + blockSize - 1) / blockSize;
+      rows = (h + blockSize - 1) / blockSize;
+      if(background.length < w*h)
+         background = new int[w*h];
+      int blocks = columns*rows;
+      if(motion.length < blocks) {
+         motion = new int[blocks];
+         regionOf = new int[blocks];
+         queue = new int[blocks];
+         MotionRegion [] more = new MotionRegion[blocks];
+         System.arraycopy(regions, 0, more, 0, regions.length);
+         for(int i=regions.length; i<blocks; i++)
+            more[i] = new MotionRegion();
+         regions = more;
+      }
+      hasBackground = false;
+   }
+
+   /* Sums the difference of each block from the background and moves the
+    * background toward the frame.
+    */
+   private void difference(byte yuv []) {
+      int blocks = columns*rows;
+      Arrays.fill(motion, 0, blocks, 0);
+      int rate = learningRate;
+      for(int y=0, i=0; y<height; y++) {
+         int block = (y / blockSize) * columns;
+         for(int x=0; x<width; block++) {
+            int end = Math.min(x + blockSize, width);
+            int sum = 0;
+            for(; x<end; x++, i++) {
+               int p = (yuv[i] & 255) << 8, b = background[i];
+               int d = p - b;
+               sum += d < 0 ? -d : d;
+               background[i] = b + (d >> rate);
+            }
+            motion[block] += sum;
+         }
+      }
+      //turn the sums into the average per pixel; the last row and column can be smaller
+      motionBlocks = 0;
+      for(int r=0, k=0; r<rows; r++) {
+         int h = Math.min(blockSize, height - r*blockSize);
+         for(int c=0; c<columns; c++, k++) {
+            int w = Math.min(blockSize, width - c*blockSize);
+            motion[k] = (motion[k] / (w*h) + 128) >> 8;
+            if(motion[k] > threshold)
+               motionBlocks++;
+         }
+      }
+   }
+
+   /* Joins the blocks over the threshold that touch, even at a corner. */
+   private void findRegions() {
+      int blocks = columns*rows;
+      Arrays.fill(regionOf, 0, blocks, -1);
+      regionCount = 0;
+      for(int start=0; start<blocks; start++) {
+         if(motion[start] <= threshold || regionOf[start] >= 0)
+            continue;
+         MotionRegion reg = regions[regionCount];
+         reg.blocks = 0;
+         reg.sumX = reg.sumY = reg.sumDiff = 0;
+         reg.minX = reg.minY = Integer.MAX_VALUE;
+         reg.maxX = reg.maxY = -1;
+         int head = 0, tail = 0;
+         queue[tail++] = start;
+         regionOf[start] = regionCount;
+         while(head < tail) {
+            int k = queue[head++];
+            int r = k / columns, c = k % columns;
+            int d = motion[k];
+            reg.blocks++;
+            reg.sumDiff += d;
+            reg.sumX += (long) d * Math.min(c*blockSize + blockSize/2, width-1);
+            reg.sumY += (long) d * Math.min(r*blockSize + blockSize/2, height-1);
+            reg.minX = Math.min(reg.minX, c*blockSize);
+            reg.minY = Math.min(reg.minY, r*blockSize);
+            reg.maxX = Math.max(reg.maxX, Math.min(width, (c+1)*blockSize) - 1);
+            reg.maxY = Math.max(reg.maxY, Math.min(height, (r+1)*blockSize) - 1);
+            for(int nr=Math.max(0, r-1); nr<=Math.min(rows-1, r+1); nr++)
+               for(int nc=Math.max(0, c-1); nc<=Math.min(columns-1, c+1); nc++) {
+                  int n = nr*columns + nc;
+                  if(motion[n] > threshold && regionOf[n] < 0) {
+                     regionOf[n] = regionCount;
+                     queue[tail++] = n;
+                  }
+               }
+         }
+         if(reg.blocks >= minBlocks)
+            regionCount++;
+      }
+      //largest first; there are few regions, so sort them in place
+      for(int i=1; i<regionCount; i++) {
+         MotionRegion reg = regions[i];
+         int j = i;
+         for(; j>0 && regions[j-1].blocks < reg.blocks; j--)
+            regions[j] = regions[j-1];
+         regions[j] = reg;
+      }
+   }
+}
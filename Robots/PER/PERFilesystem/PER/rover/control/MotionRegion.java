@@ -0,0 +1,65 @@
+/*
+ * MotionRegion.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+/**
+ * One connected group of blocks where a MotionDetector found motion.
+ * Coordinates are in pixels of the frame.  The regions are reused for the
+ * next frame, so copy what is needed before the detector is given another.
+ *
+ * @see MotionDetector
+ */
+public class MotionRegion {
+   int blocks, minX, minY, maxX, maxY;
+   long sumX, sumY, sumDiff;
+
+   MotionRegion() {
+   }
+
+   /** The number of blocks in the region. */
+   public int getBlocks() {
+      return blocks;
+   }
+
+   public int getMinX() {
+      return minX;
+   }
+
+   public int getMinY() {
+      return minY;
+   }
+
+   /** The last pixel of the region, inclusive. */
+   public int getMaxX() {
+      return maxX;
+   }
+
+   /** The last pixel of the region, inclusive. */
+   public int getMaxY() {
+      return maxY;
+   }
+
+   /** The x coordinate of the center of the blocks, weighted by their difference. */
+   public int getCenterX() {
+      return sumDiff == 0 ? (minX+maxX)/2 : (int) (sumX/sumDiff);
+   }
+
+   /** The y coordinate of the center of the blocks, weighted by their difference. */
+   public int getCenterY() {
+      return sumDiff == 0 ? (minY+maxY)/2 : (int) (sumY/sumDiff);
+   }
+
+   /** The average difference per pixel of the blocks, from 0 to 255. */
+   public int getMeanDifference() {
+      return (int) (sumDiff/blocks);
+   }
+
+   public String toString() {
+      return blocks+" blocks at ("+getCenterX()+", "+getCenterY()+"), box ("+minX+", "+minY+")-("
+      +maxX+", "+maxY+"), difference "+getMeanDifference();
+   }
+}
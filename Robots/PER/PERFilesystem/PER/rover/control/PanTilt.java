@@ -0,0 +1,44 @@
+/*
+ * PanTilt.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+/**
+ * A position of the rover's head, in degrees.  Pan is from -180 to 180 and
+ * tilt from -90 to 90, as in <code>RoverController.look</code>.
+ */
+public class PanTilt {
+    private final int pan, tilt;
+
+    /** Creates a new PanTilt */
+    public PanTilt(int pan, int tilt) {
+        this.pan = pan;
+        this.tilt = tilt;
+    }
+
+    public int getPan() {
+        return pan;
+    }
+
+    public int getTilt() {
+        return tilt;
+    }
+
+    public boolean equals(Object o) {
+        if(!(o instanceof PanTilt))
+            return false;
+        PanTilt pt = (PanTilt) o;
+        return pt.pan == pan && pt.tilt == tilt;
+    }
+
+    public int hashCode() {
+        return pan*181 + tilt;
+    }
+
+    public String toString() {
+        return "pan="+pan+", tilt="+tilt;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * PanoramaPlanner.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Puts the pictures of a panorama in the order that moves the head the
+ * least.  The pan and tilt servos move at the same time, so the time to get
+ * from one position to the next is set by whichever has farther to go, and
+ * pan, which has the most to cover, is what matters.
+ * <p>
+ * The pictures are taken a column at a time, going up one column and down
+ * the next.  The columns are taken in order of pan, starting from the end
+ * nearer the head, which covers every pan with the least travel, and keeps
+ * the head turning the same way the whole time so the gears take up their
+ * slack the same way for every picture.  The tilt the first column starts
+ * from is whichever is nearer the head.
+ * <p>
+ * The positions can be any list, such as a panorama with some pictures
+ * left out; positions with the same pan are a column.
+ */
+public class PanoramaPlanner {
+
+    /** Creates a new PanoramaPlanner.  All of the functions are static. */
+    public PanoramaPlanner() {
+    }
+
+    /**
+     * Orders pictures to take the least head travel.
+     * @param positions Where to take the pictures, in any order.
+     * @param start Where the head is now, or null if it isn't known.
+     * @return A new list of the same positions.
+     */
+    public static List<PanTilt> plan(List<PanTilt> positions, PanTilt start) {
+        //the tilts of each column, in order of pan
+        TreeMap<Integer, List<Integer>> columns = new TreeMap<Integer, List<Integer>>();
+        for(PanTilt pt : positions) {
+            List<Integer> column = columns.get(pt.getPan());
+            if(column == null) {
+                column = new ArrayList<Integer>();
+                columns.put(pt.getPan(), column);
+            }
+            column.add(pt.getTilt());
+        }
+        for(List<Integer> column : columns.values())
+            Collections.sort(column);
+
+        List<PanTilt> best = null;
+        int bestTravel = Integer.MAX_VALUE;
+        for(int i=0; i<4; i++) {
+            List<PanTilt> order = serpentine(columns, i < 2, i % 2 == 0);
+            int travel = getTravel(start, order);
+            if(travel < bestTravel) {
+                best = order;
+                bestTravel = travel;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The time the head takes to move between two positions, in degrees of
+     * travel of the servo that has farther to go.
+     */
+    public static int getTravel(PanTilt from, PanTilt to) {
+        return Math.max(Math.abs(from.getPan() - to.getPan()), Math.abs(from.getTilt() - to.getTilt()));
+    }
+
+    /**
+     * The total head travel to take pictures in order.
+     * @param start Where the head is now, or null to start at the first position.
+     */
+    public static int getTravel(PanTilt start, List<PanTilt> order) {
+        int travel = 0;
+        PanTilt last = start;
+        for(PanTilt pt : order) {
+            if(last != null)
+                travel += getTravel(last, pt);
+            last = pt;
+        }
+        return travel;
+    }
+
+    /* Up one column and down the next. */
+    private static List<PanTilt> serpentine(TreeMap<Integer, List<Integer>> columns,
+    boolean highPanFirst, boolean upFirst) {
+        List<Integer> pans = new ArrayList<Integer>(columns.keySet());
+        if(highPanFirst)
+            Collections.reverse(pans);
+        List<PanTilt> order = new ArrayList<PanTilt>();
+        boolean up = upFirst;
+        for(Integer pan : pans) {
+            List<Integer> column = columns.get(pan);
+            for(int i=0; i<column.size(); i++) {
+                int tilt = column.get(up ? i : column.size()-1-i);
+                order.add(new PanTilt(pan, tilt));
+            }
+            up = !up;
+        }
+        return order;
+    }
+}
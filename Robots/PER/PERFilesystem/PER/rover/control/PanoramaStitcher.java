@@ -0,0 +1,379 @@
+/*
+ * PanoramaStitcher.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Builds a panorama out of pictures as they arrive, in any order.  Each
+ * picture is put where the head was pointing when it was taken, and where it
+ * overlaps a picture already in the panorama, the overlap is compared with
+ * phase correlation to find how far off that guess is, so the two line up
+ * even though the field of view constants are not exact.  Overlapping
+ * pixels are averaged to hide the difference in exposure.
+ * <p>
+ * Pictures are drawn into a private canvas.  <code>getSnapshot</code> hands
+ * out a copy that is made at most once for each change and is never written
+ * to again, so a screen showing the panorama never sees half of a picture,
+ * and a new snapshot is a new image each time it changes.
+ * <p>
+ * <code>addTile</code> can be called from several threads at once, such as
+ * the ImageDecoder's threads in a PictureBurst.  Each picture only holds the
+ * part of the canvas it can be drawn in, so pictures that don't overlap are
+ * lined up and drawn at the same time, and one waits only for the pictures
+ * that overlap it.  Snapshots wait for the pictures being drawn to finish,
+ * and pictures added after that wait for the snapshot.
+ * <p>
+ * Like TakePanoramaAction, pan 180 is at the left edge and the highest tilt
+ * at the top.
+ */
+public class PanoramaStitcher {
+   /** The background of the parts of the panorama that have no picture yet. */
+   public static final int BACKGROUND = 0x808080;
+   /** The largest piece of an overlap that is compared, in pixels on a side. */
+   private static final int MAX_WINDOW = 128;
+   /** Overlaps smaller than this on a side are not compared. */
+   private static final int MIN_WINDOW = 16;
+   /** How strong the correlation peak must be, from 0 to 1, to be believed. */
+   private static final double MIN_PEAK = 0.08;
+
+   private final int lowTilt, highTilt, tileWidth, tileHeight;
+   private final int width, height;
+   private final double xScale, yScale; //pixels per degree
+   private final int canvas [];
+   private final boolean covered [];
+   private final ArrayList<Rectangle> placed = new ArrayList<Rectangle>(); //the Rectangle of each picture
+   private final ArrayList<Rectangle> busy = new ArrayList<Rectangle>(); //the area held by each picture being drawn
+   private int waiting = 0; //snapshots and clears waiting for busy to empty
+   private boolean refine = true;
+   private int maxShift;
+   private int tiles = 0, refined = 0;
+   private int version = 0;
+   private BufferedImage snapshot = null;
+   private int snapshotVersion = -1;
+
+   /**
+    * Creates a new PanoramaStitcher for a panorama all the way around.
+    * @param lowTilt The lowest tilt the panorama includes.
+    * @param highTilt The highest tilt the panorama includes.
+    * @param tileWidth The width of the pictures.
+    * @param tileHeight The height of the pictures.
+    */
+   public PanoramaStitcher(int lowTilt, int highTilt, int tileWidth, int tileHeight) {
+      this.lowTilt = lowTilt;
+      this.highTilt = highTilt;
+      this.tileWidth = tileWidth;
+      this.tileHeight = tileHeight;
+      xScale = ((double) tileWidth) / VisionUtil.FOV_WIDTH;
+      yScale = ((double) tileHeight) / VisionUtil.FOV_HEIGHT;
+      width = 360*tileWidth/VisionUtil.FOV_WIDTH;
+      height = Math.max(1, (highTilt - lowTilt)*tileHeight/VisionUtil.FOV_HEIGHT);
+      maxShift = Math.max(tileWidth, tileHeight) / 8;
+      canvas = new int[width*height];
+      covered = new boolean[width*height];
+      clear();
+   }
+
+   public int getWidth() {
+      return width;
+   }
+
+   public int getHeight() {
+      return height;
+   }
+
+   /** Takes every picture out of the panorama. */
+   public synchronized void clear() {
+      waitForDrawing();
+      Arrays.fill(canvas, BACKGROUND);
+      Arrays.fill(covered, false);
+      placed.clear();
+      tiles = refined = 0;
+      version++;
+   }
+
+   /** Sets whether overlaps are compared to line the pictures up.  The default is true. */
+   public synchronized void setRefine(boolean refine) {
+      this.refine = refine;
+   }
+
+   /** Sets the farthest in pixels a picture is moved from where the head was pointing. */
+   public synchronized void setMaxShift(int pixels) {
+      maxShift = Math.max(0, pixels);
+   }
+
+   /** The number of pictures in the panorama. */
+   public synchronized int getTileCount() {
+      return tiles;
+   }
+
+   /** The number of pictures that were moved to line up with an overlap. */
+   public synchronized int getRefinedCount() {
+      return refined;
+   }
+
+   /** A number that changes every time the panorama does. */
+   public synchronized int getVersion() {
+      return version;
+   }
+
+   /**
+    * Adds a picture to the panorama.  The picture is copied, so it can be
+    * reused as soon as this returns.  This can be called from more than one
+    * thread at once.
+    * @param position Where the head was pointing when it was taken.
+    * @param image The picture, which is scaled if it isn't the tile size.
+    */
+   public void addTile(PanTilt position, BufferedImage image) {
+      if(image.getWidth() != tileWidth || image.getHeight() != tileHeight)
+         image = ImageScaler.scale(image, tileWidth, tileHeight, null);
+      int [] tile = image.getRGB(0, 0, tileWidth, tileHeight, null, 0, tileWidth);
+      int x = (int) Math.round((180 - position.getPan())*xScale - tileWidth/2.0);
+      int y = (int) Math.round((highTilt - position.getTilt())*yScale - tileHeight/2.0);
+      Rectangle area, overlap = null;
+      int limit = 0;
+      synchronized(this) {
+         //hold everywhere the picture can end up once it is lined up
+         while(true) {
+            limit = refine ? maxShift : 0;
+            area = new Rectangle(x - limit, y - limit, tileWidth + 2*limit, tileHeight + 2*limit);
+            if(waiting == 0 && !isBusy(area))
+               break;
+            try {
+               wait();
+            }catch(InterruptedException e) {}
+         }
+         busy.add(area);
+         if(refine)
+            overlap = largestOverlap(x, y);
+      }
+      boolean moved = false;
+      try {
+         //nothing else draws in area until it is given back
+         if(overlap != null) {
+            int [] shift = align(tile, x, y, overlap, limit);
+            if(shift != null && (shift[0] != 0 || shift[1] != 0)) {
+               x += shift[0];
+               y += shift[1];
+               moved = true;
+            }
+         }
+         draw(tile, x, y);
+      }finally {
+         synchronized(this) {
+            busy.remove(area);
+            placed.add(new Rectangle(x, y, tileWidth, tileHeight));
+            tiles++;
+            if(moved)
+               refined++;
+            version++;
+            notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Gets the panorama as it is now.  The image is never changed afterwards;
+    * a new one is made the next time this is called after the panorama
+    * changes.
+    */
+   public synchronized BufferedImage getSnapshot() {
+      if(snapshotVersion != version) {
+         waitForDrawing();
+         BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+         int [] data = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+         System.arraycopy(canvas, 0, data, 0, canvas.length);
+         snapshot = img;
+         snapshotVersion = version;
+      }
+      return snapshot;
+   }
+
+   /* Waits until no picture is being drawn.  Pictures can't start being drawn
+    * until the caller lets go of the lock.
+    */
+   private void waitForDrawing() {
+      waiting++;
+      try {
+         while(!busy.isEmpty()) {
+            try {
+               wait();
+            }catch(InterruptedException e) {}
+         }
+      }finally {
+         waiting--;
+         notifyAll();
+      }
+   }
+
+   private boolean isBusy(Rectangle area) {
+      for(int k=0; k<busy.size(); k++)
+         if(area.intersects(busy.get(k)))
+            return true;
+      return false;
+   }
+
+   /* Copies a picture in, averaging with what is already there. */
+   private void draw(int tile [], int x, int y) {
+      int x0 = Math.max(0, x), x1 = Math.min(width, x+tileWidth);
+      int y0 = Math.max(0, y), y1 = Math.min(height, y+tileHeight);
+      for(int cy=y0; cy<y1; cy++) {
+         int t = (cy-y)*tileWidth + (x0-x);
+         for(int i=cy*width+x0, end=cy*width+x1; i<end; i++, t++) {
+            int p = tile[t] & 0xffffff;
+            if(covered[i]) {
+               int q = canvas[i];
+               //the average of each channel, without carries between them
+               p = (p & q) + (((p ^ q) & 0xfefefe) >> 1);
+            }
+            canvas[i] = p;
+            covered[i] = true;
+         }
+      }
+   }
+
+   /* The largest part of the canvas that a picture at (x, y) shares with a
+    * picture already drawn, or null if it doesn't overlap one.  The caller
+    * holds the lock.
+    */
+   private Rectangle largestOverlap(int x, int y) {
+      Rectangle bounds = new Rectangle(0, 0, width, height);
+      Rectangle mine = new Rectangle(x, y, tileWidth, tileHeight).intersection(bounds);
+      Rectangle best = null;
+      for(int k=0; k<placed.size(); k++) {
+         Rectangle r = mine.intersection(placed.get(k));
+         if(!r.isEmpty() && (best == null || r.width*r.height > best.width*best.height))
+            best = r;
+      }
+      return best;
+   }
+
+   /* Finds how far a picture at (x, y) should move to line up with the
+    * picture drawn in best, or null if the overlap is too small or the match
+    * isn't clear.
+    */
+   private int [] align(int tile [], int x, int y, Rectangle best, int limit) {
+      int w = window(best.width), h = window(best.height);
+      if(w < MIN_WINDOW || h < MIN_WINDOW)
+         return null;
+      //compare the middle of the overlap
+      int ox = best.x + (best.width - w)/2, oy = best.y + (best.height - h)/2;
+      double [] aRe = new double[w*h], aIm = new double[w*h];
+      double [] bRe = new double[w*h], bIm = new double[w*h];
+      for(int j=0; j<h; j++) {
+         double wy = 0.5 - 0.5*Math.cos(2*Math.PI*(j+0.5)/h);
+         for(int i=0; i<w; i++) {
+            double wx = 0.5 - 0.5*Math.cos(2*Math.PI*(i+0.5)/w);
+            int cx = ox+i, cy = oy+j;
+            aRe[j*w+i] = wx*wy*luma(canvas[cy*width+cx]);
+            bRe[j*w+i] = wx*wy*luma(tile[(cy-y)*tileWidth + (cx-x)]);
+         }
+      }
+      fft2(aRe, aIm, w, h, false);
+      fft2(bRe, bIm, w, h, false);
+      //the cross power spectrum, normalized so only the phase is left
+      for(int i=0; i<w*h; i++) {
+         double re = aRe[i]*bRe[i] + aIm[i]*bIm[i];
+         double im = aIm[i]*bRe[i] - aRe[i]*bIm[i];
+         double mag = Math.sqrt(re*re + im*im);
+         if(mag > 1e-9) {
+            re /= mag;
+            im /= mag;
+         }else
+            re = im = 0;
+         aRe[i] = re;
+         aIm[i] = im;
+      }
+      fft2(aRe, aIm, w, h, true);
+      int peak = 0;
+      for(int i=1; i<w*h; i++)
+         if(aRe[i] > aRe[peak])
+            peak = i;
+      if(aRe[peak] < MIN_PEAK)
+         return null;
+      int dx = peak % w, dy = peak / w;
+      if(dx > w/2) dx -= w;
+      if(dy > h/2) dy -= h;
+      if(Math.abs(dx) > limit || Math.abs(dy) > limit)
+         return null;
+      return new int[] {dx, dy};
+   }
+
+   /* The largest power of 2 no bigger than size or MAX_WINDOW. */
+   private static int window(int size) {
+      int w = 1;
+      while(w*2 <= size && w*2 <= MAX_WINDOW)
+         w *= 2;
+      return w;
+   }
+
+   private static double luma(int p) {
+      return 0.299*((p >> 16) & 255) + 0.587*((p >> 8) & 255) + 0.114*(p & 255);
+   }
+
+   /* A 2D FFT in place, rows then columns.  The inverse is scaled by 1/(w*h). */
+   private static void fft2(double re [], double im [], int w, int h, boolean inverse) {
+      double [] cre = new double[h], cim = new double[h];
+      for(int j=0; j<h; j++)
+         fft(re, im, j*w, w, inverse);
+      for(int i=0; i<w; i++) {
+         for(int j=0; j<h; j++) {
+            cre[j] = re[j*w+i];
+            cim[j] = im[j*w+i];
+         }
+         fft(cre, cim, 0, h, inverse);
+         for(int j=0; j<h; j++) {
+            re[j*w+i] = cre[j];
+            im[j*w+i] = cim[j];
+         }
+      }
+      if(inverse) {
+         double scale = 1.0/(w*h);
+         for(int i=0; i<w*h; i++) {
+            re[i] *= scale;
+            im[i] *= scale;
+         }
+      }
+   }
+
+   /* An iterative radix-2 FFT of n (a power of 2) values starting at offset. */
+   private static void fft(double re [], double im [], int offset, int n, boolean inverse) {
+      for(int i=1, j=0; i<n; i++) {
+         int bit = n >> 1;
+         for(; (j & bit) != 0; bit >>= 1)
+            j ^= bit;
+         j ^= bit;
+         if(i < j) {
+            int a = offset + i, b = offset + j;
+            double t = re[a]; re[a] = re[b]; re[b] = t;
+            t = im[a]; im[a] = im[b]; im[b] = t;
+         }
+      }
+      for(int len=2; len<=n; len<<=1) {
+         double angle = (inverse ? 2 : -2)*Math.PI/len;
+         double wRe = Math.cos(angle), wIm = Math.sin(angle);
+         for(int i=0; i<n; i+=len) {
+            double uRe = 1, uIm = 0;
+            for(int k=0; k<len/2; k++) {
+               int a = offset + i + k, b = a + len/2;
+               double tRe = re[b]*uRe - im[b]*uIm, tIm = re[b]*uIm + im[b]*uRe;
+               re[b] = re[a] - tRe;
+               im[b] = im[a] - tIm;
+               re[a] += tRe;
+               im[a] += tIm;
+               double nRe = uRe*wRe - uIm*wIm;
+               uIm = uRe*wIm + uIm*wRe;
+               uRe = nRe;
+            }
+         }
+      }
+   }
+}
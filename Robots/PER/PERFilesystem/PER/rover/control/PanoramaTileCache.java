@@ -0,0 +1,164 @@
+/*
+ * PanoramaTileCache.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+
+/**
+ * Remembers the pictures of the last panorama, so a panorama taken again
+ * soon after from the same place only takes the pictures it doesn't already
+ * have.  Pictures are kept for one place at a time: the rover's position
+ * from its high level state.  Keeping a picture from a new place forgets
+ * the ones from anywhere else.
+ * <p>
+ * The position only changes with <code>goTo</code> and <code>turnTo</code>,
+ * so pictures are also forgotten once they are older than the maximum age,
+ * in case the rover was moved some other way or something in view moved.
+ * Use <code>getCache()</code> to get the shared instance.
+ */
+public class PanoramaTileCache {
+    /** The default time in ms a picture is kept. */
+    public static final int DEFAULT_MAX_AGE = 60000;
+    /** How far in cm the rover can be from where a picture was taken and still use it. */
+    public static final double MAX_DISTANCE = 1;
+    /** How many degrees the rover can be turned from where a picture was taken and still use it. */
+    public static final double MAX_TURN = 1;
+
+    private static PanoramaTileCache cache = null;
+
+    private int maxAge = DEFAULT_MAX_AGE;
+    private double [] pose = null;
+    private HashMap<Key, Tile> tiles = new HashMap<Key, Tile>();
+    private int hits = 0, misses = 0;
+
+    /** Creates a new PanoramaTileCache.  Most programs should use <code>getCache()</code>. */
+    public PanoramaTileCache() {
+    }
+
+    /** Returns the cache shared by the panorama actions. */
+    public static synchronized PanoramaTileCache getCache() {
+        if(cache == null)
+            cache = new PanoramaTileCache();
+        return cache;
+    }
+
+    /** Sets how long in ms a picture is kept.  0 keeps nothing. */
+    public synchronized void setMaxAge(int ms) {
+        maxAge = Math.max(0, ms);
+    }
+
+    public synchronized int getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Keeps a copy of a picture.
+     * @param pose The rover's position, as from <code>RoverState.getPosition</code>.
+     * @param position Where the head was pointing.
+     * @param image The picture, which is copied.
+     */
+    public void put(double [] pose, PanTilt position, BufferedImage image) {
+        if(getMaxAge() == 0)
+            return;
+        int w = image.getWidth(), h = image.getHeight();
+        BufferedImage copy = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        copy.setRGB(0, 0, w, h, image.getRGB(0, 0, w, h, null, 0, w), 0, w);
+        synchronized(this) {
+            if(!isSamePose(pose)) {
+                tiles.clear();
+                this.pose = pose.clone();
+            }
+            tiles.put(new Key(position, w, h), new Tile(copy, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Gets a picture taken recently from the same place.
+     * @return The picture, which must not be changed, or null if there isn't one.
+     */
+    public synchronized BufferedImage get(double [] pose, PanTilt position, int width, int height) {
+        Key key = new Key(position, width, height);
+        Tile tile = tiles.get(key);
+        if(tile != null && (!isSamePose(pose) || System.currentTimeMillis() - tile.time > maxAge)) {
+            tiles.remove(key);
+            tile = null;
+        }
+        if(tile == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return tile.image;
+    }
+
+    /** Forgets every picture. */
+    public synchronized void clear() {
+        tiles.clear();
+        pose = null;
+    }
+
+    /** The number of pictures kept now. */
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    /** The number of times a picture was found. */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /** The number of times a picture had to be taken. */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    public synchronized String toString() {
+        return tiles.size()+" pictures, "+hits+" hits, "+misses+" misses";
+    }
+
+    private boolean isSamePose(double [] p) {
+        if(pose == null)
+            return false;
+        double turn = Math.abs(p[2] - pose[2]) % 360;
+        return Math.hypot(p[0] - pose[0], p[1] - pose[1]) <= MAX_DISTANCE
+        && Math.min(turn, 360 - turn) <= MAX_TURN;
+    }
+
+    /* A head position and picture size. */
+    private static class Key {
+        private final PanTilt position;
+        private final int width, height;
+
+        Key(PanTilt position, int width, int height) {
+            this.position = position;
+            this.width = width;
+            this.height = height;
+        }
+
+        public int hashCode() {
+            return position.hashCode()*31 + width*7919 + height;
+        }
+
+        public boolean equals(Object o) {
+            if(!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return k.position.equals(position) && k.width == width && k.height == height;
+        }
+    }
+
+    private static class Tile {
+        final BufferedImage image;
+        final long time;
+
+        Tile(BufferedImage image, long time) {
+            this.image = image;
+            this.time = time;
+        }
+    }
+}
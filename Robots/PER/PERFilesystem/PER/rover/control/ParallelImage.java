@@ -0,0 +1,106 @@
+/*
+ * ParallelImage.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs per-pixel image work on every core by splitting the picture into bands
+ * of rows and running them on the common fork-join pool.  Pictures smaller
+ * than the serial threshold are done on the calling thread, since for those
+ * handing out the bands costs more than it saves.
+ * <p>
+ * VisionUtil's conversions and thresholding, TrackFinder and
+ * ImageScaler.areaAverage all use this, so callers get it for free.
+ */
+public class ParallelImage {
+
+   /** Work on something smaller than this many pixels is not split. */
+   public static final int SERIAL_PIXELS = 100000;
+   /** Bands are not made smaller than this many pixels. */
+   private static final int MIN_BAND_PIXELS = 32768;
+
+   private static volatile int serialPixels = SERIAL_PIXELS;
+
+   /** The work done on one band of rows. */
+   public interface Band {
+      /**
+       * Does the work for rows <code>startRow</code> up to but not including
+       * <code>endRow</code>.  Bands run at the same time, so this must only
+       * write to the rows it is given.
+       * @return A count for the band, such as the number of pixels found, or 0.
+       */
+      int run(int startRow, int endRow);
+   }
+
+   /** Creates a new instance of ParallelImage */
+   public ParallelImage() {
+   }
+
+   /**
+    * Sets the size in pixels below which work is done on the calling thread.
+    * Setting it to Integer.MAX_VALUE turns off running in parallel.
+    */
+   public static void setSerialThreshold(int pixels) {
+      serialPixels = Math.max(0, pixels);
+   }
+
+   public static int getSerialThreshold() {
+      return serialPixels;
+   }
+
+   /**
+    * Splits rows 0 to <code>height</code> into bands and runs them.
+    * @param rowStep Every band except the last starts and ends on a multiple
+    * of this many rows, such as 2 for YUV420P where rows share chroma.
+    * @return The sum of what the bands returned.
+    */
+   public static int forEachBand(int width, int height, int rowStep, Band band) {
+      long pixels = (long) width * height;
+      int parallelism = ForkJoinPool.getCommonPoolParallelism();
+      if(pixels < serialPixels || parallelism <= 1 || height < 2*rowStep)
+         return band.run(0, height);
+      int steps = (height + rowStep - 1) / rowStep;
+      int bands = (int) Math.min(Math.min(4L*parallelism, pixels/MIN_BAND_PIXELS), steps);
+      if(bands <= 1)
+         return band.run(0, height);
+      return ForkJoinPool.commonPool().invoke(new Bands(band, 0, bands, bands, steps, rowStep, height));
+   }
+
+   /* Runs bands first to last of count, splitting in half until there is one. */
+   private static class Bands extends RecursiveTask<Integer> {
+      private static final long serialVersionUID = 1L;
+
+      private Band band;
+      private int first, last, count, steps, rowStep, height;
+
+      Bands(Band band, int first, int last, int count, int steps, int rowStep, int height) {
+         this.band = band;
+         this.first = first;
+         this.last = last;
+         this.count = count;
+         this.steps = steps;
+         this.rowStep = rowStep;
+         this.height = height;
+      }
+
+      protected Integer compute() {
+         if(last - first == 1) {
+            int start = (int) ((long) first*steps/count) * rowStep;
+            int end = Math.min(height, (int) ((long) last*steps/count) * rowStep);
+            return band.run(start, end);
+         }
+         int middle = (first + last) / 2;
+         Bands upper = new Bands(band, first, middle, count, steps, rowStep, height);
+         Bands lower = new Bands(band, middle, last, count, steps, rowStep, height);
+         upper.fork();
+         int sum = lower.compute();
+         return sum + upper.join();
+      }
+   }
+}
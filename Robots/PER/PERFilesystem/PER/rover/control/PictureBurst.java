@@ -0,0 +1,311 @@
+/*
+ * PictureBurst.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * A series of pictures taken at different head positions, started with
+ * <code>RoverController.captureBurst</code>.
+ * <p>
+ * The requests are sent one after another as soon as the rover has received
+ * the one before, so the rover is taking the next picture while the last one
+ * is still being sent back.  Each picture is decoded on the ImageDecoder's
+ * threads as soon as it arrives and handed to the FrameListener, so frames can
+ * finish out of order.  If a frame fails, the listener is told why and the
+ * rest of the burst carries on.  If nothing arrives for <code>IDLE_TIME</code>
+ * ms, the frames still outstanding fail with <code>RoverState.COMM_DEAD</code>.
+ */
+public class PictureBurst extends Thread {
+
+    /** Receives the frames of a burst as they finish. */
+    public interface FrameListener {
+        /**
+         * Called once a frame has been decoded.  This can be called from several
+         * decoding threads at once.  The image is a scratch image owned by the
+         * decoding thread, so copy or draw it before returning.
+         * @param index The index of the frame in the list of positions.
+         * @param position Where the picture was taken.
+         * @param image The decoded picture.
+         */
+        void frameCaptured(int index, PanTilt position, BufferedImage image);
+
+        /**
+         * Called if a frame could not be taken.
+         * @param status Why, as a status code from RoverState.
+         */
+        void frameFailed(int index, PanTilt position, int status);
+    }
+
+    /** How long in ms to wait for a frame before giving up on the rest. */
+    public static final int IDLE_TIME = 7000;
+
+    //frame states other than the RoverState status codes
+    private static final int PENDING = -1;
+    private static final int DELIVERING = -2;
+
+    private Reliagram rgram;
+    private PanTilt [] positions;
+    private int width, height;
+    private FrameListener listener;
+    private Deadline deadline;
+
+    private int [] seqNums;
+    private int [] statuses;
+    private int finished = 0, captured = 0;
+    private long lastFrameTime;
+    private boolean cancelled = false;
+
+    /** Use <code>RoverController.captureBurst</code> instead. */
+    PictureBurst(Reliagram rgram, List<PanTilt> positions, int width,
+    int height, FrameListener listener, Deadline deadline) {
+        super("PictureBurst");
+        this.rgram = rgram;
+        this.positions = positions.toArray(new PanTilt[positions.size()]);
+        this.width = width;
+        this.height = height;
+        this.listener = listener;
+        this.deadline = deadline == null ? new Deadline() : deadline;
+        seqNums = new int[this.positions.length];
+        statuses = new int[this.positions.length];
+        for(int i=0; i<statuses.length; i++)
+            statuses[i] = PENDING;
+        lastFrameTime = System.currentTimeMillis();
+        setDaemon(true);
+    }
+
+    /** The number of frames in the burst. */
+    public int size() {
+        return positions.length;
+    }
+
+    /** Where frame <code>index</code> is taken. */
+    public PanTilt getPosition(int index) {
+        return positions[index];
+    }
+
+    /**
+     * Stops the burst.  Frames that haven't arrived fail with a status of
+     * <code>RoverState.KILLED</code>.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+
+    /** Returns true once every frame has been captured or has failed. */
+    public synchronized boolean isDone() {
+        return finished == positions.length;
+    }
+
+    /** The number of frames captured so far. */
+    public synchronized int getFramesCaptured() {
+        return captured;
+    }
+
+    /** The number of frames that have failed so far. */
+    public synchronized int getFramesFailed() {
+        return finished - captured;
+    }
+
+    /**
+     * The status of one frame.
+     * @return <code>RoverState.SUCCESS</code> if it was captured, the reason it
+     * failed, or -1 if it is not finished yet.
+     */
+    public synchronized int getFrameStatus(int index) {
+        return statuses[index] < 0 ? -1 : statuses[index];
+    }
+
+    /**
+     * Waits for every frame to finish.  The listener has been called for all of
+     * them by the time this returns.
+     * @return <code>RoverState.SUCCESS</code> if every frame was captured,
+     * otherwise the status of the first frame that failed.
+     */
+    public synchronized int waitFor() {
+        while(finished < positions.length) {
+            try {
+                wait();
+            }catch(InterruptedException e) {
+                return RoverState.KILLED;
+            }
+        }
+        return getStatus();
+    }
+
+    /**
+     * The result of the burst so far.
+     * @return <code>RoverState.SUCCESS</code> if no frame has failed,
+     * otherwise the status of the first frame that failed.
+     */
+    public synchronized int getStatus() {
+        for(int i=0; i<statuses.length; i++)
+            if(statuses[i] > RoverState.SUCCESS)
+                return statuses[i];
+        return RoverState.SUCCESS;
+    }
+
+    public void run() {
+        Runnable onCancel = new Runnable() {
+            public void run() {
+                synchronized(PictureBurst.this) {
+                    PictureBurst.this.notifyAll();
+                }
+            }
+        };
+        deadline.addCancelListener(onCancel);
+        try {
+            sendRequests();
+            waitForFrames();
+        }finally {
+            deadline.removeCancelListener(onCancel);
+        }
+    }
+
+    /* Sends each request once the one before it has reached the rover. */
+    private void sendRequests() {
+        RoverCommand cmd = new RoverCommand();
+        for(int i=0; i<positions.length; i++) {
+            if(isStopped())
+                return;
+            cmd.takePicture(positions[i].getPan(), positions[i].getTilt(), width, height, false);
+            final int seqNum = rgram.send(cmd.getData(), cmd.getLength());
+            if(seqNum <= 0) {
+                failRemaining(RoverState.COMM_DEAD);
+                return;
+            }
+            final int index = i;
+            synchronized(this) {
+                seqNums[i] = seqNum;
+            }
+            //the idle time takes care of frames that never come back
+            rgram.receiveAsync(seqNum, 0).thenAccept(dpack -> received(index, dpack));
+            if(!rgram.waitForReceipt(seqNum, IDLE_TIME, deadline)) {
+                if(!isStopped())
+                    failRemaining(RoverState.COMM_DEAD);
+                return;
+            }
+        }
+    }
+
+    private void waitForFrames() {
+        while(true) {
+            synchronized(this) {
+                if(finished == positions.length)
+                    return;
+                long wait = Math.min(lastFrameTime + IDLE_TIME - System.currentTimeMillis(),
+                deadline.getRemaining());
+                if(!isStopped() && wait > 0) {
+                    try {
+                        wait(wait);
+                    }catch(InterruptedException e) {}
+                    continue;
+                }
+                if(finished + countDelivering() == positions.length) {
+                    //only listeners are left to finish
+                    try {
+                        wait(50);
+                    }catch(InterruptedException e) {}
+                    continue;
+                }
+            }
+            failRemaining(isKilled() ? RoverState.KILLED : RoverState.COMM_DEAD);
+        }
+    }
+
+    private boolean isStopped() {
+        synchronized(this) {
+            if(cancelled)
+                return true;
+        }
+        return deadline.isDone();
+    }
+
+    private boolean isKilled() {
+        synchronized(this) {
+            if(cancelled)
+                return true;
+        }
+        return deadline.isCancelled();
+    }
+
+    private synchronized int countDelivering() {
+        int count = 0;
+        for(int i=0; i<statuses.length; i++)
+            if(statuses[i] == DELIVERING)
+                count++;
+        return count;
+    }
+
+    /* Handles the rover's answer to frame index on the receiving thread. */
+    private void received(final int index, Datapack dpack) {
+        if(dpack == null) {
+            //cancelled or given up on; failRemaining has already dealt with it
+            return;
+        }
+        if(dpack.getLength() == RoverState.FULL_PACKET_LENGTH) {
+            int status = new RoverStatus(dpack.getData()).getStatus();
+            finish(index, status == RoverState.SUCCESS ? RoverState.INVALID_PACKET_LENGTH : status);
+            return;
+        }
+        synchronized(this) {
+            if(statuses[index] != PENDING)
+                return;
+            //nothing else can fail this frame while it is decoded
+            statuses[index] = DELIVERING;
+            lastFrameTime = System.currentTimeMillis();
+        }
+        ImageDecoder.getDecoder().submit(dpack.getData(), 0, dpack.getLength(),
+        new ImageDecoder.DecodeListener() {
+            public void imageDecoded(BufferedImage image) {
+                if(image == null) {
+                    finish(index, RoverState.INVALID_PACKET_LENGTH);
+                    return;
+                }
+                try {
+                    if(listener != null)
+                        listener.frameCaptured(index, positions[index], image);
+                }finally {
+                    finish(index, RoverState.SUCCESS);
+                }
+            }
+        });
+    }
+
+    /* Records the result of a frame that is pending or being delivered. */
+    private void finish(int index, int status) {
+        synchronized(this) {
+            if(statuses[index] != PENDING && statuses[index] != DELIVERING)
+                return;
+            statuses[index] = status;
+            finished++;
+            if(status == RoverState.SUCCESS)
+                captured++;
+            lastFrameTime = System.currentTimeMillis();
+            notifyAll();
+        }
+        if(status != RoverState.SUCCESS && listener != null)
+            listener.frameFailed(index, positions[index], status);
+    }
+
+    /* Fails every frame that hasn't arrived and stops the rover resending them. */
+    private void failRemaining(int status) {
+        for(int i=0; i<positions.length; i++) {
+            int seqNum;
+            synchronized(this) {
+                if(statuses[i] != PENDING)
+                    continue;
+                seqNum = seqNums[i];
+            }
+            if(seqNum > 0)
+                rgram.cancel(seqNum);
+            finish(i, status);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * PredictiveTracker.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+/**
+ * Points the rover's head at a tracked object by predicting where it will
+ * be, instead of where it was.  When the rover moves its own head to track,
+ * it moves toward where the object was in the last picture, so the head lags
+ * behind a moving object and overshoots when it stops.
+ * <p>
+ * This keeps a ConstantVelocityFilter for the direction to the object in pan
+ * and tilt.  Each measurement is dated with the time the picture was taken,
+ * from the StargateClock, so the filter knows how old it is.  When a look
+ * command is sent, it is aimed where the object will be when the command
+ * reaches the rover plus the lead time the servos take to get there.  Small
+ * corrections are not sent at all, so the head doesn't jitter.
+ * <p>
+ * Measurements come from the rover's own tracking (see <code>startTrack</code>,
+ * which tracks without moving the head) or from a ColorTracker on this
+ * computer (add this as one of its listeners; the first color is followed).
+ * The look commands are sent from this thread.
+ */
+public class PredictiveTracker extends Thread implements ColorTracker.Listener {
+   /** The default time in ms the head takes to move to a new position. */
+   public static final int DEFAULT_LEAD = 150;
+   /** The default smallest change in degrees that is sent. */
+   public static final int DEFAULT_DEADBAND = 2;
+   /** The default fewest pixels for the object to be seen. */
+   public static final int DEFAULT_MIN_PIXELS = 10;
+   /** After this long in ms without seeing the object, the estimate starts over. */
+   public static final int LOST_TIME = 1000;
+
+   private RoverController rc;
+   private ConstantVelocityFilter panFilter = new ConstantVelocityFilter(2000, 4);
+   private ConstantVelocityFilter tiltFilter = new ConstantVelocityFilter(2000, 4);
+   private int lead = DEFAULT_LEAD;
+   private int deadband = DEFAULT_DEADBAND;
+   private int minPixels = DEFAULT_MIN_PIXELS;
+   private boolean keepGoing = true;
+   private boolean following = false;
+
+   private long lastTrackTime = 0; //the ReceiveThread data already used
+   private boolean pending = false; //a measurement from a ColorTracker
+   private double pendingPan, pendingTilt;
+   private long pendingTime;
+
+   private boolean commanded = false; //whether commandPan and commandTilt were sent
+   private int commandPan, commandTilt;
+   private int commands = 0, measurements = 0;
+
+   /** Creates a new PredictiveTracker and starts its thread. */
+   public PredictiveTracker(RoverController rc) {
+      super("PredictiveTracker");
+      this.rc = rc;
+      setDaemon(true);
+      this.start();
+   }
+
+   /**
+    * Starts the rover tracking an object without moving its head, and starts
+    * following it with predicted look commands.
+    * @return true if starting tracking was successful
+    */
+   public boolean startTrack(int minY, int maxY, int minU, int maxU, int minV, int maxV) {
+      if(!rc.startTrack(minY, maxY, minU, maxU, minV, maxV, 0, false, false, 0))
+         return false;
+      resetFilters();
+      if(rc.receive != null)
+         rc.receive.registerObject(this, ReceiveThread.TRACK_RECEIVE);
+      setFollowing(true);
+      return true;
+   }
+
+   /** Stops the rover tracking and stops following. */
+   public boolean stopTrack() {
+      setFollowing(false);
+      if(rc.receive != null)
+         rc.receive.unregisterObject(this, ReceiveThread.TRACK_RECEIVE);
+      return rc.stopStreaming();
+   }
+
+   /** Sets whether look commands are sent.  Measurements are kept either way. */
+   public synchronized void setFollowing(boolean follow) {
+      following = follow;
+      commanded = false;
+   }
+
+   public synchronized boolean isFollowing() {
+      return following;
+   }
+
+   /**
+    * Sets how far ahead in ms, past when a command reaches the rover, the
+    * head is aimed, for the time the servos take to get there.
+    */
+   public synchronized void setLead(int ms) {
+      lead = Math.max(0, ms);
+   }
+
+   public synchronized int getLead() {
+      return lead;
+   }
+
+   /** Sets the smallest change in degrees that a look command is sent for. */
+   public synchronized void setDeadband(int degrees) {
+      deadband = Math.max(0, degrees);
+   }
+
+   public synchronized int getDeadband() {
+      return deadband;
+   }
+
+   /** Sets the fewest pixels that count as seeing the object. */
+   public synchronized void setMinPixels(int pixels) {
+      minPixels = pixels;
+   }
+
+   /**
+    * Sets how the filters trust the measurements.
+    * @see ConstantVelocityFilter#ConstantVelocityFilter
+    */
+   public synchronized void setNoise(double processNoise, double measurementNoise) {
+      panFilter.setNoise(processNoise, measurementNoise);
+      tiltFilter.setNoise(processNoise, measurementNoise);
+   }
+
+   /** The filter for the pan of the object. */
+   public ConstantVelocityFilter getPanFilter() {
+      return panFilter;
+   }
+
+   /** The filter for the tilt of the object. */
+   public ConstantVelocityFilter getTiltFilter() {
+      return tiltFilter;
+   }
+
+   /** The number of look commands sent. */
+   public synchronized int getCommandsSent() {
+      return commands;
+   }
+
+   /** The number of measurements used. */
+   public synchronized int getMeasurements() {
+      return measurements;
+   }
+
+   /**
+    * Adds where the object was seen.
+    * @param pan The pan that would have centered the object.
+    * @param tilt The tilt that would have centered the object.
+    * @param captureTime The local system time in ms the picture was taken.
+    */
+   public synchronized void addMeasurement(double pan, double tilt, long captureTime) {
+      pending = true;
+      pendingPan = pan;
+      pendingTilt = tilt;
+      pendingTime = captureTime;
+      notifyAll();
+   }
+
+   /** Called by a ColorTracker with the results of each frame. */
+   public void tracked(TrackResult [] results) {
+      if(results.length == 0 || results[0].pixels < minPixels)
+         return;
+      TrackResult r = results[0];
+      long delay = rc.receive == null ? 0 : rc.receive.getClock().getOneWayDelay();
+      addMeasurement(r.getPan() + angle(r.x, r.getWidth(), VisionUtil.FOV_WIDTH),
+      r.getTilt() + angle(r.y, r.getHeight(), VisionUtil.FOV_HEIGHT), r.getArrivalTime() - delay);
+   }
+
+   /** Stops the thread. */
+   public void quit() {
+      if(rc.receive != null)
+         rc.receive.unregisterObject(this, ReceiveThread.TRACK_RECEIVE);
+      synchronized(this) {
+         keepGoing = false;
+         notifyAll();
+      }
+   }
+
+   public void run() {
+      while(true) {
+         boolean measured = false;
+         synchronized(this) {
+            //ReceiveThread notifies this object when it has new tracking data
+            if(!pending && !hasNewTrack()) {
+               try {
+                  wait(LOST_TIME);
+               }catch(InterruptedException e) {}
+            }
+            if(!keepGoing)
+               return;
+            if(pending) {
+               pending = false;
+               measure(pendingPan, pendingTilt, pendingTime);
+               measured = true;
+            }
+         }
+         if(!measured)
+            measured = readTrack();
+         if(measured)
+            aim();
+         else if(panFilter.isStarted() && System.currentTimeMillis() - panFilter.getTime() > LOST_TIME)
+            resetFilters();
+      }
+   }
+
+   private boolean hasNewTrack() {
+      ReceiveThread receive = rc.receive;
+      return receive != null && receive.getTrackUpdateTime() > lastTrackTime;
+   }
+
+   /* Takes the rover's latest tracking data if there is new data. */
+   private boolean readTrack() {
+      ReceiveThread receive = rc.receive;
+      if(receive == null || receive.getTrackUpdateTime() <= lastTrackTime)
+         return false;
+      lastTrackTime = receive.getTrackUpdateTime();
+      StargateClock.Sample sample = receive.getSample(ReceiveThread.TRACK_RECEIVE);
+      if(receive.pixels < minPixels || sample == null)
+         return false;
+      //the rover sends the head position with the tracking data
+      double pan = rc.state.getPan() + angle(receive.x, VisionUtil.TRACK_WIDTH, VisionUtil.FOV_WIDTH);
+      double tilt = rc.state.getTilt() + angle(receive.y, VisionUtil.TRACK_HEIGHT, VisionUtil.FOV_HEIGHT);
+      synchronized(this) {
+         measure(pan, tilt, sample.getCaptureTime());
+      }
+      return true;
+   }
+
+   /* The caller holds the lock. */
+   private void measure(double pan, double tilt, long when) {
+      panFilter.update(pan, when);
+      tiltFilter.update(tilt, when);
+      measurements++;
+   }
+
+   /* Sends a look command to where the object will be when the head gets there. */
+   private void aim() {
+      int pan, tilt;
+      synchronized(this) {
+         if(!following)
+            return;
+         long delay = rc.receive == null ? 0 : rc.receive.getClock().getOneWayDelay();
+         long arrive = System.currentTimeMillis() + delay + lead;
+         pan = (int) Math.round(Math.max(-180, Math.min(180, panFilter.predict(arrive))));
+         tilt = (int) Math.round(Math.max(-50, Math.min(90, tiltFilter.predict(arrive))));
+         if(commanded && Math.abs(pan - commandPan) < deadband && Math.abs(tilt - commandTilt) < deadband)
+            return;
+         commanded = true;
+         commandPan = pan;
+         commandTilt = tilt;
+         commands++;
+      }
+      rc.look(pan, tilt);
+   }
+
+   private void resetFilters() {
+      panFilter.reset();
+      tiltFilter.reset();
+   }
+
+   /* Like VisionUtil.objectPan and objectTilt, but for any picture size and
+    * without rounding.
+    */
+   private static double angle(int coord, int size, int fov) {
+      return (size/2.0 - coord) * fov / size;
+   }
+}
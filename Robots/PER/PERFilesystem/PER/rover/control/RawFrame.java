@@ -0,0 +1,126 @@
+/*
+ * RawFrame.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * One uncompressed YUV420P picture from a RawFrameStream.  The Y plane
+ * (width*height bytes) comes first, followed by the U and V planes at half the
+ * width and height.  This is the same format as
+ * <code>RoverController.takeRawPicture</code>.
+ * <p>
+ * Frames are pooled.  A frame given to <code>FrameListener.frameReceived</code>
+ * is reused for a later picture once the listener returns, unless the listener
+ * calls <code>keep</code>, in which case the frame is reused once
+ * <code>release</code> is called.
+ *
+ * @see RawFrameStream
+ */
+public class RawFrame {
+    private RawFrameStream stream;
+    private byte [] yuv;
+    private int width, height, pan, tilt, number;
+    private long arrivalTime;
+    private boolean kept = false;
+
+    RawFrame(RawFrameStream stream, int width, int height) {
+        this.stream = stream;
+        this.width = width;
+        this.height = height;
+        yuv = new byte[getLength()];
+    }
+
+    /**
+     * The pixels in YUV420P.  The array can be longer than the picture; only the
+     * first <code>getLength()</code> bytes are used.
+     */
+    public byte [] getYUV() {
+        return yuv;
+    }
+
+    /** The number of bytes of the picture in <code>getYUV()</code>. */
+    public int getLength() {
+        return 3*width*height/2;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** The pan the picture was asked for at. */
+    public int getPan() {
+        return pan;
+    }
+
+    /** The tilt the picture was asked for at. */
+    public int getTilt() {
+        return tilt;
+    }
+
+    /** Counts the frames of the stream, starting at 0. */
+    public int getNumber() {
+        return number;
+    }
+
+    /** The local system time in ms when the picture arrived. */
+    public long getArrivalTime() {
+        return arrivalTime;
+    }
+
+    /**
+     * Converts the picture to RGB in the stream's image.  The image is reused
+     * for the next frame, so it is only valid until this returns for another
+     * frame of the stream.
+     */
+    public BufferedImage getImage() {
+        return stream.convert(this);
+    }
+
+    /**
+     * Converts the picture to RGB in an image that the caller owns.
+     * @param dest An image from <code>VisionUtil.createRGBImage</code> the same
+     * size as this frame, or null to make a new one.
+     * @return The image written to.
+     * @see VisionUtil#v4l_yuv420p2rgb(byte[], int, int, BufferedImage)
+     */
+    public BufferedImage toRGB(BufferedImage dest) {
+        return VisionUtil.v4l_yuv420p2rgb(yuv, width, height, dest);
+    }
+
+    /** Keeps this frame from being reused after the listener returns. */
+    public synchronized void keep() {
+        kept = true;
+    }
+
+    /** Lets a frame that was kept be reused.  Don't use the frame afterwards. */
+    public void release() {
+        synchronized(this) {
+            if(!kept)
+                return;
+            kept = false;
+        }
+        stream.recycle(this);
+    }
+
+    synchronized boolean isKept() {
+        return kept;
+    }
+
+    /* Fills in a frame taken from the pool. */
+    void set(byte [] yuv, int pan, int tilt, int number, long arrivalTime) {
+        this.yuv = yuv;
+        this.pan = pan;
+        this.tilt = tilt;
+        this.number = number;
+        this.arrivalTime = arrivalTime;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * RawFrameStream.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * Takes uncompressed pictures one after another as fast as the rover can send
+ * them, for vision done on this computer.  Start one with
+ * <code>RoverController.streamRawFrames</code>.
+ * <p>
+ * Two requests are kept at the rover so that it takes the next picture while
+ * the last one is being sent.  Each picture is received straight into the
+ * buffer of a pooled RawFrame, and <code>RawFrame.getImage</code> converts it
+ * into one BufferedImage that is reused, so a stream running at camera rate
+ * doesn't allocate memory for every frame.  The frames are given to the
+ * listener on the stream's thread, and the next picture waits until the
+ * listener returns.
+ */
+public class RawFrameStream extends Thread {
+
+    /** Receives the frames of a stream. */
+    public interface FrameListener {
+        /**
+         * Called for each picture, in order.
+         * @param frame The picture, which is reused after this returns unless
+         * <code>frame.keep()</code> is called.
+         */
+        void frameReceived(RawFrame frame);
+
+        /**
+         * Called once when the stream stops.
+         * @param status <code>RoverState.KILLED</code> if <code>quit</code> was
+         * called, otherwise why the stream failed.
+         */
+        void streamStopped(int status);
+    }
+
+    /** How many requests are waiting at the rover at once. */
+    public static final int DEPTH = 2;
+    /** The stream stops after this many pictures in a row fail. */
+    public static final int MAX_FAILURES = 3;
+
+    private Reliagram rgram;
+    private int width, height;
+    private int pan, tilt;
+    private FrameListener listener;
+    private Deadline deadline = new Deadline();
+    private boolean keepGoing = true;
+    private int status = RoverState.SUCCESS;
+
+    private Vector<RawFrame> pool = new Vector<RawFrame>(); //frames that can be reused
+    private BufferedImage image = null;
+    private int framesReceived = 0;
+
+    /** Use <code>RoverController.streamRawFrames</code> instead. */
+    RawFrameStream(Reliagram rgram, int pan, int tilt, int width, int height, FrameListener listener) {
+        super("RawFrameStream");
+        this.rgram = rgram;
+        this.pan = pan;
+        this.tilt = tilt;
+        this.width = width;
+        this.height = height;
+        this.listener = listener;
+        setDaemon(true);
+    }
+
+    /** Moves the camera for the pictures asked for from now on. */
+    public synchronized void setPosition(int pan, int tilt) {
+        this.pan = pan;
+        this.tilt = tilt;
+    }
+
+    /** Stops the stream.  The rover stops being asked for pictures right away. */
+    public void quit() {
+        synchronized(this) {
+            keepGoing = false;
+        }
+        deadline.cancel();
+    }
+
+    /** The number of frames given to the listener so far. */
+    public synchronized int getFramesReceived() {
+        return framesReceived;
+    }
+
+    /** <code>RoverState.SUCCESS</code> while running, otherwise why it stopped. */
+    public synchronized int getStatus() {
+        return status;
+    }
+
+    public void run() {
+        RoverCommand cmd = new RoverCommand();
+        int [] seqNums = new int[DEPTH];
+        int [] pans = new int[DEPTH], tilts = new int[DEPTH];
+        int next = 0, failures = 0;
+        int result = RoverState.KILLED;
+        try {
+            for(int i=0; i<DEPTH; i++)
+                request(cmd, seqNums, pans, tilts, i);
+            while(isRunning()) {
+                if(seqNums[next] <= 0) {
+                    result = RoverState.COMM_DEAD;
+                    break;
+                }
+                RawFrame frame = obtain();
+                Datapack dpack = rgram.receive(seqNums[next], RoverController.READ_TIMEOUT
+                + RoverController.RECENT_PICTURE_TIME, deadline, frame.getYUV());
+                int framePan = pans[next], frameTilt = tilts[next];
+                seqNums[next] = 0;
+                if(!isRunning()) {
+                    recycle(frame);
+                    break;
+                }
+                //ask for another picture before dealing with this one
+                request(cmd, seqNums, pans, tilts, next);
+                next = (next + 1) % DEPTH;
+
+                int failed = RoverState.SUCCESS;
+                if(dpack == null)
+                    failed = RoverState.COMM_DEAD;
+                else if(dpack.getLength() == RoverState.FULL_PACKET_LENGTH) {
+                    //the reply was put in the frame's buffer, which is longer
+                    byte [] reply = Arrays.copyOf(dpack.getData(), RoverState.FULL_PACKET_LENGTH);
+                    failed = new RoverStatus(reply).getStatus();
+                    if(failed == RoverState.SUCCESS) //a status where a picture should be
+                        failed = RoverState.INVALID_PACKET_LENGTH;
+                }
+                if(failed == RoverState.SUCCESS && (dpack.getLength() < frame.getLength()))
+                    failed = RoverState.INVALID_PACKET_LENGTH;
+                if(failed != RoverState.SUCCESS) {
+                    recycle(frame);
+                    if(++failures < MAX_FAILURES)
+                        continue;
+                    result = failed;
+                    break;
+                }
+                failures = 0;
+                int number;
+                synchronized(this) {
+                    number = framesReceived++;
+                }
+                frame.set(dpack.getData(), framePan, frameTilt, number, System.currentTimeMillis());
+                try {
+                    listener.frameReceived(frame);
+                }finally {
+                    if(!frame.isKept())
+                        recycle(frame);
+                }
+            }
+        }finally {
+            for(int i=0; i<DEPTH; i++)
+                if(seqNums[i] > 0)
+                    rgram.cancel(seqNums[i]);
+            synchronized(this) {
+                keepGoing = false;
+                status = result;
+            }
+            listener.streamStopped(result);
+        }
+    }
+
+    private synchronized boolean isRunning() {
+        return keepGoing;
+    }
+
+    private void request(RoverCommand cmd, int [] seqNums, int [] pans, int [] tilts, int slot) {
+        synchronized(this) {
+            pans[slot] = pan;
+            tilts[slot] = tilt;
+        }
+        cmd.takeRawPicture(pans[slot], tilts[slot], width, height, false);
+        seqNums[slot] = rgram.send(cmd.getData(), cmd.getLength());
+    }
+
+    private RawFrame obtain() {
+        synchronized(pool) {
+            if(!pool.isEmpty())
+                return pool.remove(pool.size()-1);
+        }
+        return new RawFrame(this, width, height);
+    }
+
+    void recycle(RawFrame frame) {
+        synchronized(pool) {
+            if(pool.size() < DEPTH + 2)
+                pool.add(frame);
+        }
+    }
+
+    /* Converts a frame into the image shared by the stream. */
+    synchronized BufferedImage convert(RawFrame frame) {
+        image = frame.toRGB(image);
+        return image;
+    }
+}
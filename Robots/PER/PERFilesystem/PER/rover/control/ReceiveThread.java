@@ -7,7 +7,6 @@
 package PER.rover.control;
 
 import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
 import java.io.*;
 import java.util.Vector;
 
@@ -72,6 +71,8 @@ public class ReceiveThread extends Thread{
    private long javaMeanTime = 0;
    private long javaMotionTime = 0;
    private long lastStargateTime = 0, lastJavaTime=0;
+   private StargateClock clock;
+   private StargateClock.Sample [] samples = new StargateClock.Sample[NUM_RCVS];
    private BufferedImage image;
    
    private static final int OLD_TRACK_SIZE = 16; //size of tracking data without pan/tilt
@@ -88,6 +89,7 @@ public class ReceiveThread extends Thread{
    public ReceiveThread(Reliagram reliagram, RoverState State) {
       rgram = reliagram;
       state = State;
+      clock = reliagram.getClock();
       notifyThreads = new Vector[NUM_RCVS];
       motion = new int[99];
       this.start();
@@ -99,11 +101,12 @@ public class ReceiveThread extends Thread{
          if(pack != null && pack.getLength() > 6) {
             //there is a timestamp on the packets sent from the Stargate
             long stargateTime = decodestargateTime(pack.getData());
-            //If the time is higher, than is must be newer.  It is possible that the rover
-            //was reset, so if I haven't gotten anything for 5 seconds, that must be what happened.
-            if(stargateTime > lastStargateTime || System.currentTimeMillis() - lastJavaTime > 5000) {
+            StargateClock.Sample sample = clock.addPacket(stargateTime, System.currentTimeMillis());
+            //If the time is higher, than is must be newer.  If the rover was reset,
+            //its clock jumps and the clock estimate starts over.
+            if(stargateTime > lastStargateTime || sample.isReset()) {
                lastStargateTime = stargateTime;
-               lastJavaTime = System.currentTimeMillis();
+               lastJavaTime = sample.getArrivalTime();
                
                //System.out.println("got new packet, time is "+stargateTime+"\t"+System.currentTimeMillis());
                if(pack.getLength() == TRACK_SIZE || pack.getLength() == OLD_TRACK_SIZE) {
@@ -122,6 +125,7 @@ public class ReceiveThread extends Thread{
                   //System.out.println(minX+" "+maxX+" "+minY+" "+maxY+" "+x+" "+y+" "+pixels);
                   
                   javaTrackTime = lastJavaTime;
+                  samples[TRACK_RECEIVE] = sample;
                   wakeUpNotifyThreads(TRACK_RECEIVE);
                }else if(pack.getLength() == MEAN_SIZE) {
                   byte data [] = pack.getData();
@@ -130,6 +134,7 @@ public class ReceiveThread extends Thread{
                   meanV = ByteUtil.unsign(data[8]);
                   
                   javaMeanTime = lastJavaTime;
+                  samples[MEAN_RECEIVE] = sample;
                   wakeUpNotifyThreads(MEAN_RECEIVE);
                }else if(pack.getLength() == MOTION_SIZE) {
                   byte data [] = pack.getData();
@@ -141,20 +146,14 @@ public class ReceiveThread extends Thread{
                   }
                   //System.out.println("");
                   javaMotionTime = lastJavaTime;
+                  samples[MOTION_RECEIVE] = sample;
                   wakeUpNotifyThreads(MOTION_RECEIVE);
                }else if(pack.getLength() > 1000){ //must be a picture
-                  BufferedImage newImage;
-                  try {
-                     /*FileOutputStream fos = new FileOutputStream("stream/image"+(imagesRead++)+".jpg");
-                     fos.write(pack.getData(), 6, pack.getLength()-6);
-                     fos.close();*/
-                     ByteArrayInputStream bais = new ByteArrayInputStream(pack.getData(), 6, pack.getLength()-6);
-                     newImage = ImageIO.read(bais);
-                     bais.close();
-                  } catch(Exception e) {
-                     newImage = null;
-                     //System.out.println("Error reading in image! "+System.currentTimeMillis());
-                  }
+                  /*FileOutputStream fos = new FileOutputStream("stream/image"+(imagesRead++)+".jpg");
+                  fos.write(pack.getData(), 6, pack.getLength()-6);
+                  fos.close();*/
+                  //a new image every time since getRecentImage hands this one out
+                  BufferedImage newImage = ImageDecoder.getDecoder().decode(pack.getData(), 6, pack.getLength()-6);
                   if(newImage != null) {
                      image = newImage;
                      /* write image out for webcast */
@@ -169,6 +168,7 @@ public class ReceiveThread extends Thread{
                      }catch(java.io.IOException e){ System.out.println("Error writing to file "+rover.Rover.perPath+"rovercam.jpg"); }
                  */
                      javaPicTime = lastJavaTime;
+                     samples[PICTURE_RECEIVE] = sample;
                      wakeUpNotifyThreads(PICTURE_RECEIVE);
                   }/*else {
                   System.out.println("failed up to date check "+System.currentTimeMillis()+"st: "+stargateTime+" spt: "+stargatePicTime);
@@ -233,14 +233,35 @@ public class ReceiveThread extends Thread{
       return javaMotionTime;
    }
    
+   /**
+    * Gets the timing of the most recent data of the given type: when it was
+    * made on the rover (in local time), when it arrived and how long it took.
+    * Use this to correct tracking or motion data for how old it is.
+    * @param type One of PICTURE_RECEIVE, TRACK_RECEIVE, MEAN_RECEIVE or MOTION_RECEIVE.
+    * @return the timing or null if no data of that type has arrived.
+    */
+   public StargateClock.Sample getSample(int type) {
+      if(type < 0 || type >= NUM_RCVS)
+         return null;
+      return samples[type];
+   }
+   
+   /**
+    * Gets the estimate of how the Stargate's clock relates to the local clock.
+    * This is useful for monitoring the latency of the link to the rover.
+    */
+   public StargateClock getClock() {
+      return clock;
+   }
+   
    /* Because communication takes place over UDP, packets could arrive out of order
     * I'm having the stargate send its time to make sure that I don't replace current
-    * information with out of date information.
+    * information with out of date information.  The time is in ms.
     */
    private long decodestargateTime(byte [] arr) {
-      long seconds = ByteUtil.networkLongToInt(arr, 0);
-      long msecs = ByteUtil.networkShortToInt(arr, 4);
-      return (seconds << 32) + msecs;
+      long seconds = ByteUtil.networkLongToInt(arr, 0) & 0xffffffffL;
+      long msecs = ByteUtil.networkShortToUnsignedInt(arr, 4);
+      return seconds*1000 + msecs;
    }
    
    /** Registers an object to be notified when new data arrives that you are interested in.
@@ -8,6 +8,7 @@ package PER.rover.control;
 
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /** External class for RoverController to handle communication.
  *
@@ -17,11 +18,24 @@ public class Reliagram extends Thread {
    
    private DatagramSocket socket = null;
    private Vector outPackets, newPackets, responsePackets, incompletePackets, receiveWait;
+   private Vector asyncReceives; //PendingReceives for receiveAsync, guarded by responsePackets
    private RGHostFinder finder;
    
    private int nextSeqNum = 1;
    private int rcvTimeout;
    private boolean keepGoing = true;
+   private String hostAddress = null;
+   private int hostPort;
+   
+   //for ConnectionMonitor: when anything last arrived, and whether the link is known to be down
+   private volatile long lastReceiveTime = System.currentTimeMillis();
+   private volatile boolean linkDown = false;
+   
+   //when each recent packet was sent, for measuring round trips; 0 once resent
+   private static final int SEND_TIMES = 256;
+   private int [] sendSeqNums = new int[SEND_TIMES];
+   private long [] sendTimes = new long[SEND_TIMES];
+   private StargateClock clock = new StargateClock();
    
    private static final int GC_TIME = 15000;
    private static final int RETRY_TIME = 5000;
@@ -36,6 +50,7 @@ public class Reliagram extends Thread {
       responsePackets = new Vector();
       incompletePackets = new Vector();
       receiveWait = new Vector(); //holds Integers, receive's wait on these Integers
+      asyncReceives = new Vector();
       finder = new RGHostFinder();
    }
    
@@ -51,6 +66,8 @@ public class Reliagram extends Thread {
          InetAddress address = InetAddress.getByName(ipAddr);
          socket.connect(address, port);
          rcvTimeout = timeout;
+         hostAddress = ipAddr;
+         hostPort = port;
          if(!this.isAlive())
             start();
          return true;
@@ -69,12 +86,61 @@ public class Reliagram extends Thread {
       return true;
    }
    
+   /**
+    * Opens a new socket to the address last given to <code>connect</code> and
+    * forgets the sequence numbers seen from it, so that a rover that was
+    * restarted and starts counting again is heard.
+    * @return true if the socket was opened.
+    */
+   public synchronized boolean reconnect() {
+      if(hostAddress == null)
+         return false;
+      close();
+      return connect(hostAddress, hostPort, rcvTimeout);
+   }
+   
+   /** The local system time in ms when anything, even an ack, last arrived. */
+   public long getLastReceiveTime() {
+      return lastReceiveTime;
+   }
+   
+   /**
+    * Tells this whether the rover can be reached.  While the link is down,
+    * receives return null at once instead of waiting for their timeouts.
+    * Marking it down also stops resending everything that was sent, and
+    * wakes up everything that is waiting for a response.
+    */
+   public void setLinkDown(boolean down) {
+      linkDown = down;
+      if(!down)
+         return;
+      synchronized(outPackets) {
+         outPackets.clear();
+         outPackets.notifyAll();
+      }
+      expireAsyncReceives(true);
+      Object [] waiting;
+      synchronized(receiveWait) {
+         waiting = receiveWait.toArray();
+      }
+      for(int i=0; i<waiting.length; i++)
+         synchronized(waiting[i]) {
+            waiting[i].notifyAll();
+         }
+   }
+   
+   /** Returns true while the link is marked down with <code>setLinkDown</code>. */
+   public boolean isLinkDown() {
+      return linkDown;
+   }
+   
    /** Quits the thread that handles the receives; only call this if destroying
     * a copy of Reliagram.
     */
    public void quit() {
       close();
       keepGoing = false;
+      expireAsyncReceives(true);
    }
    
    public int send(byte [] cmd, int len) {
@@ -93,6 +159,10 @@ public class Reliagram extends Thread {
          DatagramPacket [] grams = rpack.getDatagrams();
          for(int i=0; i<grams.length; i++)
             socket.send(grams[i]);
+         synchronized(sendTimes) {
+            sendSeqNums[rpack.getSeqNum() % SEND_TIMES] = rpack.getSeqNum();
+            sendTimes[rpack.getSeqNum() % SEND_TIMES] = System.currentTimeMillis();
+         }
          rpack.setRetryTime(System.currentTimeMillis()+50);
          outPackets.add(rpack);
          return rpack.getSeqNum();
@@ -113,47 +183,186 @@ public class Reliagram extends Thread {
     * @param timeout How long to wait for - 0 means infinite timeout
     */
    public Datapack receive(int seqNum, int timeout) {
+      return receive(seqNum, timeout, null);
+   }
+   
+   /**
+    * Waits for the response to a packet, giving up early if the deadline
+    * passes or is cancelled.  If the deadline is done and there is no response,
+    * the packet stops being resent.
+    * @param timeout How long to wait for - 0 means infinite timeout and a
+    * negative timeout means don't wait at all.
+    * @param deadline A deadline to limit the wait, or null.
+    */
+   public Datapack receive(int seqNum, int timeout, Deadline deadline) {
+      Reliapack rp = receivePack(seqNum, timeout, deadline);
+      return rp == null ? null : new Datapack(rp.getData(), rp.getSeqNum());
+   }
+   
+   /**
+    * Like <code>receive(int, int, Deadline)</code>, but puts the response into
+    * <code>buffer</code> if it fits so that large responses such as pictures
+    * don't need a new array each time.
+    * @param buffer Where to put the response, or null.  If it is too small,
+    * a new array is used.
+    * @return The response, whose <code>getData()</code> is <code>buffer</code>
+    * if it was used, or null if there wasn't one.
+    */
+   public Datapack receive(int seqNum, int timeout, Deadline deadline, byte [] buffer) {
+      Reliapack rp = receivePack(seqNum, timeout, deadline);
+      if(rp == null)
+         return null;
+      return new Datapack(rp.getData(buffer), rp.getTotalLength(), rp.getSeqNum());
+   }
+   
+   private Reliapack receivePack(int seqNum, int timeout, Deadline deadline) {
+      Reliapack dpack = findResponsePack(seqNum);
+      if(dpack != null || timeout < 0 || linkDown)
+         return dpack;
+      
+      final Integer monitored = new Integer(seqNum);
+      Runnable wake = new Runnable() {
+         public void run() {
+            synchronized(monitored) {
+               monitored.notifyAll();
+            }
+         }
+      };
+      synchronized (receiveWait) {
+         receiveWait.add(monitored);
+      }
+      if(deadline != null)
+         deadline.addCancelListener(wake);
       try {
-         synchronized(responsePackets) {
-            Reliapack rp;
-            for(int i=0; i<responsePackets.size(); i++) {
-               rp = (Reliapack) responsePackets.get(i);
-               if(rp.getResponseSeqNum() == seqNum) {
-                  Datapack retPack = new Datapack(rp.getData(), rp.getSeqNum());
-                  responsePackets.remove(i);
-                  return retPack;
-               }
+         long endTime = timeout == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+         synchronized(monitored) {
+            //the response is added before the monitor is notified, so checking
+            //while holding the monitor can't miss it
+            while((dpack = findResponsePack(seqNum)) == null) {
+               if(linkDown || (deadline != null && deadline.isDone()))
+                  break;
+               long wait = endTime - System.currentTimeMillis();
+               if(deadline != null)
+                  wait = Math.min(wait, deadline.getRemaining());
+               if(wait <= 0)
+                  break;
+               monitored.wait(wait);
             }
          }
-         
-         Integer monitored = new Integer(seqNum);
+      } catch(Exception e) {
+      } finally {
          synchronized (receiveWait) {
-            receiveWait.add(monitored);
+            receiveWait.remove(monitored);
          }
-         if(timeout >= 0) {
-            synchronized(monitored) {
-               monitored.wait(timeout);
+         if(deadline != null)
+            deadline.removeCancelListener(wake);
+      }
+      if(dpack == null && deadline != null && deadline.isDone())
+         cancel(seqNum);
+      return dpack;
+   }
+   
+   /**
+    * Stops resending a packet and stops waiting for its response.  Anything
+    * in <code>receiveAsync</code> waiting for it gets null.
+    */
+   public void cancel(int seqNum) {
+      synchronized(outPackets) {
+         for(int i=0; i<outPackets.size(); i++) {
+            if(((Reliapack)outPackets.get(i)).getSeqNum() == seqNum) {
+               outPackets.remove(i);
+               outPackets.notifyAll();
+               break;
             }
          }
-         synchronized (receiveWait) {
-            receiveWait.remove(monitored);
+      }
+      PendingReceive pending = null;
+      synchronized(responsePackets) {
+         for(int i=0; i<asyncReceives.size(); i++) {
+            PendingReceive pr = (PendingReceive) asyncReceives.get(i);
+            if(pr.seqNum == seqNum) {
+               asyncReceives.remove(i);
+               pending = pr;
+               break;
+            }
          }
-         
-         synchronized(responsePackets) {
-            Reliapack rp;
-            for(int i=0; i<responsePackets.size(); i++) {
-               rp = (Reliapack) responsePackets.get(i);
-               if(rp.getResponseSeqNum() == seqNum) {
-                  Datapack retPack = new Datapack(rp.getData(), rp.getSeqNum());
-                  responsePackets.remove(i);
-                  return retPack;
-               }
+      }
+      if(pending != null)
+         pending.future.complete(null);
+   }
+   
+   private Reliapack findResponsePack(int seqNum) {
+      synchronized(responsePackets) {
+         Reliapack rp;
+         for(int i=0; i<responsePackets.size(); i++) {
+            rp = (Reliapack) responsePackets.get(i);
+            if(rp.getResponseSeqNum() == seqNum) {
+               responsePackets.remove(i);
+               return rp;
             }
          }
-      } catch(Exception e) {}
+      }
       return null;
    }
    
+   /**
+    * Gets the response to a packet without blocking.  The future is completed
+    * on this class's receiving thread, so anything slow should be chained with
+    * one of the <code>*Async</code> methods of CompletableFuture.
+    * @param timeout How long to wait for - 0 means infinite timeout.  The timeout
+    * is checked every time the receive loop runs, which is at least every 50 ms.
+    * @return A future that completes with the response or with null if it did
+    * not arrive in time.  Cancelling the future stops waiting for the response.
+    */
+   public CompletableFuture<Datapack> receiveAsync(int seqNum, int timeout) {
+      return receiveAsync(seqNum, timeout, null);
+   }
+   
+   /**
+    * Like <code>receiveAsync(int, int)</code>, but the future completes with
+    * null as soon as the deadline is cancelled, and the packet stops being resent.
+    * @param deadline A deadline to limit the wait, or null.
+    */
+   public CompletableFuture<Datapack> receiveAsync(final int seqNum, int timeout, Deadline deadline) {
+      if(deadline != null) {
+         int remaining = deadline.getRemaining();
+         if(remaining <= 0) {
+            cancel(seqNum);
+            return CompletableFuture.completedFuture(null);
+         }
+         timeout = timeout == 0 ? remaining : Math.min(timeout, remaining);
+         final Runnable onCancel = new Runnable() {
+            public void run() {
+               cancel(seqNum);
+            }
+         };
+         final Deadline d = deadline;
+         CompletableFuture<Datapack> future = receiveAsync(seqNum, timeout, null);
+         deadline.addCancelListener(onCancel);
+         future.whenComplete((dpack, e) -> d.removeCancelListener(onCancel));
+         return future;
+      }
+      CompletableFuture<Datapack> future = new CompletableFuture<Datapack>();
+      synchronized(responsePackets) {
+         Reliapack rp;
+         for(int i=0; i<responsePackets.size(); i++) {
+            rp = (Reliapack) responsePackets.get(i);
+            if(rp.getResponseSeqNum() == seqNum) {
+               responsePackets.remove(i);
+               future.complete(new Datapack(rp.getData(), rp.getSeqNum()));
+               return future;
+            }
+         }
+         if(linkDown) {
+            future.complete(null);
+            return future;
+         }
+         long giveUpTime = timeout == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+         asyncReceives.add(new PendingReceive(seqNum, giveUpTime, future));
+      }
+      return future;
+   }
+   
    /** Waits for a new packet. Uses the timeout that was used the last time
     * <code>connect<code> was called.
     */
@@ -193,6 +402,7 @@ public class Reliagram extends Thread {
                debug(20, "error, received too short a packet\n");
                continue;
             }
+            lastReceiveTime = System.currentTimeMillis();
             
             /*System.out.println("got a packet of length "+packet.getLength()+
             " seq num: "+Reliapack.getSeqNum(packet)+" reply seq num: "+Reliapack.getResponseSeqNum(packet));*/
@@ -209,14 +419,34 @@ public class Reliagram extends Thread {
          }
          resendPackets();
          garbageCollect();
+         expireAsyncReceives(false);
       }
    }
    
+   /** Returns the estimate of the Stargate's clock that this connection keeps. */
+   public StargateClock getClock() {
+      return clock;
+   }
+   
    //return true if I'm using the buffer
    private boolean handleReceivedPacket(DatagramPacket newPacket) {
       int responseSeqNum = Reliapack.getResponseSeqNum(newPacket);
       int seqNum = Reliapack.getSeqNum(newPacket);
       
+      //the first ack or reply to a packet that was only sent once is a round trip
+      if(responseSeqNum != 0) {
+         long sendTime = 0;
+         synchronized(sendTimes) {
+            int index = responseSeqNum % SEND_TIMES;
+            if(sendSeqNums[index] == responseSeqNum) {
+               sendTime = sendTimes[index];
+               sendTimes[index] = 0;
+            }
+         }
+         if(sendTime != 0)
+            clock.addRoundTrip(sendTime, System.currentTimeMillis());
+      }
+      
       //remove packets from out vector if fully acknowledged
       Reliapack rp = null;
       synchronized(outPackets) {
@@ -224,6 +454,7 @@ public class Reliagram extends Thread {
             rp = (Reliapack)outPackets.get(i);
             if(rp.getSeqNum() == responseSeqNum && rp.isFullyAcked(newPacket)) {
                outPackets.remove(i);
+               outPackets.notifyAll(); //wake up waitForReceipt
                break;
             }
          }
@@ -277,8 +508,22 @@ public class Reliagram extends Thread {
          }
          return true;
       }else {
+         PendingReceive pending = null;
          synchronized(responsePackets) {
-            responsePackets.add(rpack);
+            for(int i=0; i<asyncReceives.size(); i++) {
+               PendingReceive pr = (PendingReceive) asyncReceives.get(i);
+               if(pr.seqNum == responseSeqNum) {
+                  asyncReceives.remove(i);
+                  pending = pr;
+                  break;
+               }
+            }
+            if(pending == null)
+               responsePackets.add(rpack);
+         }
+         if(pending != null) {
+            pending.future.complete(new Datapack(rpack.getData(), rpack.getSeqNum()));
+            return true;
          }
          
          //go through and wake up anyone waiting on this
@@ -308,6 +553,10 @@ public class Reliagram extends Thread {
             
             if(System.currentTimeMillis() > rpack.getRetryTime() && rpack.idleTime() > RETRY_WAIT) {
                rpack.setRetryTime(rpack.getRetryTime()+RETRY_WAIT);
+               synchronized(sendTimes) {
+                  if(sendSeqNums[rpack.getSeqNum() % SEND_TIMES] == rpack.getSeqNum())
+                     sendTimes[rpack.getSeqNum() % SEND_TIMES] = 0;
+               }
                try {
                   debug(55, "resending packet\n");
                   DatagramPacket [] grams = rpack.getDatagrams();
@@ -329,6 +578,7 @@ public class Reliagram extends Thread {
             rp = (Reliapack)outPackets.get(i);
             if(rp.idleTime() > RETRY_TIME) {
                outPackets.remove(i);
+               outPackets.notifyAll();
                i--;
             }
          }
@@ -365,6 +615,26 @@ public class Reliagram extends Thread {
       }
    }
    
+   /* Completes async receives that have run out of time with null and forgets
+    * about ones that were cancelled.
+    */
+   private void expireAsyncReceives(boolean all) {
+      Vector expired = new Vector();
+      long now = System.currentTimeMillis();
+      synchronized(responsePackets) {
+         for(int i=0; i<asyncReceives.size(); i++) {
+            PendingReceive pr = (PendingReceive) asyncReceives.get(i);
+            if(all || now > pr.deadline || pr.future.isDone()) {
+               asyncReceives.remove(i);
+               i--;
+               expired.add(pr);
+            }
+         }
+      }
+      for(int i=0; i<expired.size(); i++)
+         ((PendingReceive) expired.get(i)).future.complete(null);
+   }
+   
    private synchronized int waitTime() {
       if(outPackets.isEmpty())
          return 50;
@@ -382,6 +652,52 @@ public class Reliagram extends Thread {
          System.out.print(msg);
    }
    
+   /**
+    * Waits until the rover has acknowledged a packet, without taking its
+    * response.  Use it to keep a queue of requests going to the rover in order
+    * without waiting for each one to be answered.
+    * @param timeout The most time to wait in ms.
+    * @param deadline A deadline to limit the wait, or null.
+    * @return true if the packet is no longer being sent, which is normally
+    * because it was acknowledged, or false if the wait ran out.
+    */
+   public boolean waitForReceipt(int seqNum, int timeout, Deadline deadline) {
+      long giveUpTime = System.currentTimeMillis() + timeout;
+      Runnable onCancel = null;
+      if(deadline != null) {
+         onCancel = new Runnable() {
+            public void run() {
+               synchronized(outPackets) {
+                  outPackets.notifyAll();
+               }
+            }
+         };
+         deadline.addCancelListener(onCancel);
+      }
+      try {
+         synchronized(outPackets) {
+            while(!wasReceived(seqNum)) {
+               if(linkDown)
+                  return false;
+               long wait = giveUpTime - System.currentTimeMillis();
+               if(deadline != null)
+                  wait = Math.min(wait, deadline.getRemaining());
+               if(wait <= 0)
+                  return false;
+               try {
+                  outPackets.wait(wait);
+               }catch(InterruptedException e) {
+                  return false;
+               }
+            }
+            return true;
+         }
+      }finally {
+         if(onCancel != null)
+            deadline.removeCancelListener(onCancel);
+      }
+   }
+   
    public boolean wasReceived(int seqNum) {
       Reliapack rp;
       synchronized(outPackets) {
@@ -394,6 +710,18 @@ public class Reliagram extends Thread {
       return true;
    }
    
+   private static class PendingReceive {
+      public int seqNum;
+      public long deadline;
+      public CompletableFuture<Datapack> future;
+      
+      public PendingReceive(int seqNum, long deadline, CompletableFuture<Datapack> future) {
+         this.seqNum = seqNum;
+         this.deadline = deadline;
+         this.future = future;
+      }
+   }
+   
    //by using a circular buffer, it lets me know if a seq num has been used recently
    private class RGHost {
       private static final int LEN = 250;
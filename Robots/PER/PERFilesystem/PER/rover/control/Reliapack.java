@@ -121,8 +121,15 @@ public class Reliapack {
    }
    
    public byte [] getData() {
+      return getData(null);
+   }
+   
+   /** Puts the data into <code>buf</code> if it is big enough, otherwise into
+    * a new array.  Returns the array used or null if the packet isn't complete.
+    */
+   public byte [] getData(byte [] buf) {
       int totalLength = getTotalLength();
-      byte [] retBuf = new byte[totalLength];
+      byte [] retBuf = buf != null && buf.length >= totalLength ? buf : new byte[totalLength];
       for(int i=0; i<packets.length; i++) {
          if(packets[i] == null)
             return null;
@@ -0,0 +1,199 @@
+/*
+ * RoverCalibration.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.StringTokenizer;
+
+/**
+ * The calibration file from the rover (/root/rover.cal on the Stargate), parsed
+ * once.  A RoverCalibration can't be changed, so the copy cached by
+ * RoverController can be shared by every action.
+ * <p>
+ * The file has one line per servo, such as <code>pan center 129 range 290</code>,
+ * and the lines <code>drive_adjust 100</code> and <code>turn_adjust 100</code>.
+ * Lines starting with # are comments.
+ *
+ * @see RoverController#getRoverCalibration
+ */
+public class RoverCalibration {
+    /** The names of the servos in the calibration file. */
+    public final static String [] SERVOS = {"pan", "tilt", "servo0", "servo1", "servo2", "servo3"};
+
+    /** The drive and turn adjustment used when the file doesn't give one. */
+    public final static int DEFAULT_ADJUST = 100;
+
+    /** The calibration used when there is no calibration file on the rover. */
+    public final static RoverCalibration DEFAULT = new RoverCalibration("");
+
+    /** Changes whenever the format of saved calibration files changes. */
+    private final static int CACHE_VERSION = 1;
+    private final static String CACHE_HEADER = "# PER calibration cache ";
+    private final static String STARGATE_HEADER = "# stargate ";
+
+    private final String text;
+    private final int driveAdjust;
+    private final int turnAdjust;
+    private final int [] centers;
+    private final int [] ranges;
+
+    /**
+     * Parses a calibration file.  Lines that can't be understood are ignored.
+     * @param text The contents of the file.
+     */
+    public RoverCalibration(String text) {
+        this.text = text;
+        int drive = DEFAULT_ADJUST, turn = DEFAULT_ADJUST;
+        centers = new int[SERVOS.length];
+        ranges = new int[SERVOS.length];
+        for(int i=0; i<SERVOS.length; i++)
+            centers[i] = -1;
+
+        StringTokenizer lines = new StringTokenizer(text, "\r\n");
+        while(lines.hasMoreTokens()) {
+            String line = lines.nextToken();
+            if(line.startsWith("#")) //skip comment lines beginning with #
+                continue;
+            String [] result = line.trim().split("\\s+");
+            try {
+                if(result[0].equals("drive_adjust"))
+                    drive = Integer.parseInt(result[1]);
+                else if(result[0].equals("turn_adjust"))
+                    turn = Integer.parseInt(result[1]);
+                else {
+                    int servo = indexOf(result[0]);
+                    if(servo < 0)
+                        continue;
+                    for(int i=1; i+1<result.length; i+=2) {
+                        if(result[i].equals("center"))
+                            centers[servo] = Integer.parseInt(result[i+1]);
+                        else if(result[i].equals("range"))
+                            ranges[servo] = Integer.parseInt(result[i+1]);
+                    }
+                }
+            }catch(Exception e) {} //a bad line; keep the defaults
+        }
+        driveAdjust = drive;
+        turnAdjust = turn;
+    }
+
+    /**
+     * The drive adjustment, as a percentage.  Above 100 means drive for longer.
+     * @see RoverController#getDriveCalibration
+     */
+    public int getDriveAdjust() {
+        return driveAdjust;
+    }
+
+    /**
+     * The turn adjustment, as a percentage.  Above 100 means turn for longer.
+     * @see RoverController#getTurnCalibration
+     */
+    public int getTurnAdjust() {
+        return turnAdjust;
+    }
+
+    /**
+     * The raw servo value that centers a servo.
+     * @param servo One of the names in SERVOS.
+     * @return The center, or -1 if the file doesn't give one.
+     */
+    public int getServoCenter(String servo) {
+        int i = indexOf(servo);
+        return i < 0 ? -1 : centers[i];
+    }
+
+    /**
+     * The range of a servo in raw servo values over 180 degrees.  A negative
+     * range means the servo turns the other way.
+     * @param servo One of the names in SERVOS.
+     * @return The range, or 0 if the file doesn't give one.
+     */
+    public int getServoRange(String servo) {
+        int i = indexOf(servo);
+        return i < 0 ? 0 : ranges[i];
+    }
+
+    /** The calibration file this was made from. */
+    public String getText() {
+        return text;
+    }
+
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Reads a calibration saved by <code>save</code>.
+     * @param file Where it was saved.
+     * @param stargateVersion The version of the code on the Stargate now.  A
+     * calibration saved with a different version is not used.
+     * @return The calibration, or null if there isn't a usable one.
+     */
+    public static RoverCalibration load(File file, String stargateVersion) {
+        if(!file.exists())
+            return null;
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new FileReader(file));
+            if(!(CACHE_HEADER+CACHE_VERSION).equals(in.readLine()))
+                return null;
+            if(!(STARGATE_HEADER+stargateVersion).equals(in.readLine()))
+                return null;
+            StringBuffer text = new StringBuffer();
+            String line;
+            while((line = in.readLine()) != null)
+                text.append(line).append('\n');
+            return new RoverCalibration(text.toString());
+        }catch(IOException e) {
+            return null;
+        }finally {
+            try {
+                if(in != null)
+                    in.close();
+            }catch(IOException e) {}
+        }
+    }
+
+    /**
+     * Saves this calibration so that it can be read back without asking the
+     * rover.  The saved file is still a valid calibration file.
+     * @param file Where to save it.  Missing directories are made.
+     * @param stargateVersion The version of the code on the Stargate.
+     * @return true if it was saved.
+     */
+    public boolean save(File file, String stargateVersion) {
+        FileWriter out = null;
+        try {
+            if(file.getParentFile() != null)
+                file.getParentFile().mkdirs();
+            out = new FileWriter(file);
+            out.write(CACHE_HEADER+CACHE_VERSION+"\n");
+            out.write(STARGATE_HEADER+stargateVersion+"\n");
+            out.write(text);
+            return true;
+        }catch(IOException e) {
+            return false;
+        }finally {
+            try {
+                if(out != null)
+                    out.close();
+            }catch(IOException e) {}
+        }
+    }
+
+    private static int indexOf(String servo) {
+        for(int i=0; i<SERVOS.length; i++)
+            if(SERVOS[i].equals(servo))
+                return i;
+        return -1;
+    }
+}
@@ -7,8 +7,7 @@
 package PER.rover.control;
 
 import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.util.StringTokenizer;
 
 
@@ -57,6 +56,40 @@ public class RoverController {
     /** The time in ms of how long to wait for the rover to respond. */
     public final static int READ_TIMEOUT = 5000;
     
+    /** Extra time in ms given to pictures up to 320x240. */
+    public final static int PICTURE_TIME = 1500;
+    /** Extra time in ms given to pictures larger than 320x240. */
+    public final static int LARGE_PICTURE_TIME = 3000;
+    /** Extra time in ms given to raw and recent pictures. */
+    public final static int RECENT_PICTURE_TIME = 200;
+    
+    /** Returned by send instead of a sequence number if the deadline is done. */
+    private final static int CANCELLED = -3;
+    
+    /** The deadline set by each thread with <code>setDeadline</code>. */
+    private ThreadLocal<Deadline> deadlines = new ThreadLocal<Deadline>();
+    
+    /** Where calibrations from the rovers are saved between runs. */
+    public final static String CALIBRATION_CACHE_PATH = PER.PERConstants.filesystemPath
+    + "SavedRoverFiles/Calibration/cache/";
+    
+    /** The calibration from the rover, or null if it hasn't been loaded yet. */
+    private RoverCalibration calibration = null;
+    /** Changes every time the cached calibration is replaced or forgotten. */
+    private int calibrationGeneration = 0;
+    /** The version of the code on the Stargate, once checkCalibration has it. */
+    private String stargateVersion = null;
+    private Object calibrationLock = new Object();
+    
+    /** Sends setpoints for manual control, or null if not made yet. */
+    private TeleopChannel teleop = null;
+    /** Polls the rover's state for listeners, or null if not made yet. */
+    private TelemetryPoller poller = null;
+    /** Watches the connection and reconnects, or null if not made yet. */
+    private ConnectionMonitor monitor = null;
+    /** The command that started the rover streaming, or null if it isn't. */
+    private byte [] streamingCommand = null;
+    
     /** Creates a new RoverController */
     public RoverController() {
         command = new RoverCommand(); //holds the commands that are generated
@@ -78,6 +111,7 @@ public class RoverController {
         reliagram = new Reliagram();
         if(reliagram.connect(ipaddr, 1701, READ_TIMEOUT)) {
             receive = new ReceiveThread(reliagram, state);
+            checkCalibration();
             return true;
         }else {
             reliagram.quit();
@@ -95,12 +129,137 @@ public class RoverController {
         if(reliagram != null) {
             reliagram.quit();
             receive.quit();
+            synchronized(this) {
+                if(teleop != null)
+                    teleop.quit();
+                teleop = null;
+                if(poller != null)
+                    poller.quit();
+                poller = null;
+                if(monitor != null)
+                    monitor.quit();
+                monitor = null;
+                streamingCommand = null;
+            }
             reliagram = null;
+            synchronized(calibrationLock) {
+                calibration = null; //the next rover may be a different one
+                calibrationGeneration++;
+                stargateVersion = null;
+            }
             return true;
         }
         return false;
     }
     
+    /**
+     * Gets the channel for controlling the rover by hand, such as dragging the
+     * head around with the mouse or driving with a joystick.  Unlike the
+     * functions here, the channel's functions return right away and only the
+     * newest setpoint is sent, so the rover keeps up however fast the setpoints
+     * change.  The answers update <code>state</code> as usual.
+     * @return The channel for this connection, or null if not connected.
+     */
+    public synchronized TeleopChannel getTeleop() {
+        if(reliagram == null)
+            return null;
+        if(teleop == null)
+            teleop = new TeleopChannel(this, reliagram);
+        return teleop;
+    }
+    
+    /**
+     * Gets the poller that keeps <code>state</code> up to date for anything
+     * that wants to watch the rover.  Adding a listener to it is better than
+     * calling <code>refresh</code> in a loop, since all the listeners share
+     * one poll and it polls faster while the rover is moving.
+     * @return The poller for this connection, or null if not connected.
+     */
+    public synchronized TelemetryPoller getPoller() {
+        if(reliagram == null)
+            return null;
+        if(poller == null)
+            poller = new TelemetryPoller(this, reliagram);
+        return poller;
+    }
+    
+    /**
+     * Gets the monitor that watches whether the rover is still answering.
+     * Once it is made, it sends a small command whenever nothing else has been
+     * heard from the rover for a while, so a lost connection is noticed in
+     * well under a second.  While the connection is lost, commands fail with
+     * <code>COMM_DEAD</code> right away instead of waiting for their timeouts,
+     * and the monitor keeps trying to reconnect.  When it does, tracking, mean
+     * or motion detection that was streaming is started again.
+     * @return The monitor for this connection, or null if not connected.
+     */
+    public synchronized ConnectionMonitor getMonitor() {
+        if(reliagram == null)
+            return null;
+        if(monitor == null)
+            monitor = new ConnectionMonitor(this, reliagram);
+        return monitor;
+    }
+    
+    /**
+     * Sends the command that started the rover streaming again, such as after
+     * the rover was restarted.  This is done by the ConnectionMonitor.
+     * @return false if the command failed, true if it worked or nothing was
+     * streaming.
+     */
+    public boolean restoreStreaming() {
+        byte [] cmd;
+        synchronized(this) {
+            if(reliagram == null || streamingCommand == null)
+                return true;
+            cmd = streamingCommand;
+        }
+        return doReceive(reliagram.send(cmd, cmd.length), getDeadline());
+    }
+    
+    /* Remembers the command that started streaming, or null once it stops. */
+    synchronized void setStreamingCommand(byte [] cmd) {
+        streamingCommand = cmd;
+    }
+    
+    /* A copy of the command, which the caller must hold the lock on. */
+    private byte [] copyCommand() {
+        byte [] copy = new byte[command.getLength()];
+        System.arraycopy(command.getData(), 0, copy, 0, copy.length);
+        return copy;
+    }
+    
+    /**
+     * Sets a deadline for every command this thread sends until it is changed.
+     * Commands then wait no longer than the deadline allows, and if it is
+     * cancelled, a command that is waiting returns at once with a status of
+     * <code>KILLED</code> and the rover stops being sent it.  Commands that
+     * stop the rover (<code>initRobot</code>, <code>killRobot</code>,
+     * <code>killHighLevel</code> and <code>stopStreaming</code>) ignore the
+     * deadline so they can still be used to clean up after a kill.
+     * @param deadline The deadline, or null for none.
+     */
+    public void setDeadline(Deadline deadline) {
+        if(deadline == null)
+            deadlines.remove();
+        else
+            deadlines.set(deadline);
+    }
+    
+    /** Returns the deadline set by this thread, or null if there is none. */
+    public Deadline getDeadline() {
+        return deadlines.get();
+    }
+    
+    /**
+     * How much extra time in ms a scan is given over <code>READ_TIMEOUT</code>.
+     * The scan takes about 50 ms per point, and the time is tripled to allow
+     * for slow servos.
+     */
+    public static int getScanTime(int minPan, int maxPan, int step) {
+        return 3 * Math.max(2000, 1000+(maxPan-minPan)*50/step);
+    }
+    
     /** Returns true if connected to a robot.
      */
     public boolean isConnected() {
@@ -119,7 +278,7 @@ public class RoverController {
             command.initRover();
             seqNum = reliagram.send(command.getData(), command.getLength());
         }
-        return doReceive(seqNum);
+        return doReceive(seqNum, null);
     }
     
     /** Kills anything the rover is doing by calling initRobot.
@@ -149,12 +308,12 @@ public class RoverController {
         int seqNum, extraTime;
         synchronized(command) {
             command.takePicture(pan, tilt, width, height, lightUV);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
         if(width > 320 || height > 240)
-            extraTime = 3000;
+            extraTime = LARGE_PICTURE_TIME;
         else
-            extraTime = 1500;
+            extraTime = PICTURE_TIME;
         return takePictureCommon(seqNum, extraTime);
     }
     
@@ -175,20 +334,55 @@ public class RoverController {
         if(reliagram == null) {state.setStatus(RoverState.NOT_CONNECTED); return null; }
         synchronized(command) {
             command.takeRawPicture(pan, tilt, width, height, false);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
-        Datapack dpack = null;
-        if(seqNum > 0)
-            dpack = reliagram.receive(seqNum, READ_TIMEOUT + 200);
-        if(dpack == null || seqNum <= 0) {
-            state.parsePacket(null);
-            return null;
-        }
-        if(dpack.getLength() == RoverState.FULL_PACKET_LENGTH) {
-            state.parsePacket(dpack.getData());
-            return null;
-        }
-        return dpack.getData();
+        return parseData(state, receive(seqNum, READ_TIMEOUT + RECENT_PICTURE_TIME), getDeadline());
+    }
+    
+    /**
+     * Takes a picture at each of a list of head positions without waiting for
+     * one picture to come back before asking for the next.  The frames are
+     * decoded in the background and given to the listener as they arrive, so
+     * this returns right away.  The deadline set with <code>setDeadline</code>,
+     * if any, applies to the whole burst.  <code>state</code> is not changed;
+     * the status of each frame is given to the listener and kept by the burst.
+     * @param positions Where to take the pictures, in order.
+     * @param width The width of the pictures.
+     * @param height The height of the pictures.
+     * @param listener Gets each frame (or why it failed), or null.
+     * @return The burst, which can be waited for or cancelled, or null if not
+     * connected.
+     * @see PictureBurst
+     */
+    public PictureBurst captureBurst(java.util.List<PanTilt> positions, int width, int height,
+    PictureBurst.FrameListener listener) {
+        if(reliagram == null) {state.setStatus(RoverState.NOT_CONNECTED); return null; }
+        PictureBurst burst = new PictureBurst(reliagram, positions, width, height, listener,
+        getDeadline());
+        burst.start();
+        return burst;
+    }
+    
+    /**
+     * Starts taking raw pictures one after another, as fast as the rover can
+     * send them.  Use this instead of calling <code>takeRawPicture</code> in a
+     * loop; it keeps the rover busy and reuses its buffers.
+     * @param pan The pan to take the pictures at.  It can be changed with
+     * <code>RawFrameStream.setPosition</code>.
+     * @param tilt The tilt to take the pictures at.
+     * @param width The width of the pictures.
+     * @param height The height of the pictures.
+     * @param listener Gets each frame, in order, on the stream's thread.
+     * @return The stream, which runs until <code>quit</code> is called, or null
+     * if not connected.
+     * @see RawFrameStream
+     */
+    public RawFrameStream streamRawFrames(int pan, int tilt, int width, int height,
+    RawFrameStream.FrameListener listener) {
+        if(reliagram == null) {state.setStatus(RoverState.NOT_CONNECTED); return null; }
+        RawFrameStream stream = new RawFrameStream(reliagram, pan, tilt, width, height, listener);
+        stream.start();
+        return stream;
     }
     
     /**
@@ -204,9 +398,9 @@ public class RoverController {
         if(reliagram == null) {state.setStatus(RoverState.NOT_CONNECTED); return null; }
         synchronized(command) {
             command.takeRecentPicture();
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
-        return takePictureCommon(seqNum, 200);
+        return takePictureCommon(seqNum, RECENT_PICTURE_TIME);
     }
     
     /**
@@ -216,25 +410,7 @@ public class RoverController {
      * @return The image from the rover.
      */
     private BufferedImage takePictureCommon(int seqNum, int extraTime) {
-        Datapack dpack = null;
-        if(seqNum > 0)
-            dpack = reliagram.receive(seqNum, READ_TIMEOUT + extraTime);
-        if(dpack == null || seqNum <= 0) {
-            state.parsePacket(null);
-            return null;
-        }
-        if(dpack.getLength() == RoverState.FULL_PACKET_LENGTH) {
-            state.parsePacket(dpack.getData());
-            return null;
-        }
-        try {
-            ByteArrayInputStream bais = new ByteArrayInputStream(dpack.getData(), 0, dpack.getLength());
-            BufferedImage image = ImageIO.read(bais);
-            bais.close();
-            return image;
-        } catch(Exception e) {
-            return null;
-        }
+        return parsePicture(state, receive(seqNum, READ_TIMEOUT + extraTime), getDeadline());
     }
     
     /**
@@ -259,36 +435,11 @@ public class RoverController {
         int seqNum;
         synchronized(command){
             command.scan(tilt, minPan, maxPan, step);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
-        Datapack dpack = null;
         //give it extra time because scanning can take a while
-        //int extraTime = Math.max(2000, 1000+(maxPan-minPan)*50/step);
-        int extraTime = 3 * Math.max(2000, 1000+(maxPan-minPan)*50/step); //for exhibit3.0 need to increase timeout for scan
-        if(seqNum > 0){            
-            dpack = reliagram.receive(seqNum, READ_TIMEOUT+extraTime);
-        }
-        if(dpack == null || seqNum <= 0 || dpack.getLength() == 0) {
-            state.parsePacket(null);
-            return null;
-        }
-        if(dpack.getData()[0] != RoverState.SUCCESS) { //error
-            state.parsePacket(dpack.getData());
-            return null;
-        }
-        byte [] data = dpack.getData();
-        int length = dpack.getLength();
-        if(length != ((maxPan-minPan)/step+2)){
-            if(length == RoverState.FULL_PACKET_LENGTH)
-                state.parsePacket(dpack.getData());
-            else
-                state.setStatus(RoverState.INVALID_PACKET_LENGTH);
-            return null;
-        }
-        int [] scanVals = new int [length-1];
-        for(int i=1; i<length; i++)
-            scanVals[i-1] = ByteUtil.unsign(data[i]);
-        return scanVals;
+        Datapack dpack = receive(seqNum, READ_TIMEOUT+getScanTime(minPan, maxPan, step));
+        return parseScan(state, dpack, getDeadline(), minPan, maxPan, step);
     }
     
     /**
@@ -323,23 +474,13 @@ public class RoverController {
         
         // System.err.println("rov.goTo gets dist " + dist);
         
-        if(dist < 0){
-            highLevelState.setSign(-1);
-            state.setSign(-1);
-        } else if(dist > 0){
-            highLevelState.setSign(1);
-            state.setSign(1);
-        }
-        
-        state.setCrabAngle(angle);
-        highLevelState.setCrabAngle(angle);
-        //        System.out.println("crab angle set to " + angle);
+        setDriveDirection(dist, angle);
         
         synchronized (command) {
             command.goTo(dist, angle, safetyLevel, takePics);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
-        return doHighLevelReceive(seqNum);
+        return doHighLevelReceive(seqNum, getDeadline());
     }
     
     /**
@@ -356,29 +497,13 @@ public class RoverController {
         int seqNum;
         if(reliagram == null) {highLevelState.setStatus(RoverState.NOT_CONNECTED); return false; }
         
-        degrees = degrees % 360;
-        
-        if(degrees > 180){
-            degrees -= 360;
-        }
-        if(degrees < -180)
-            degrees += 360;
-        
-//        System.out.println("degrees in turnTo are: " + degrees);
-              
-        if(degrees < 0){
-            highLevelState.setSign(-1);
-            state.setSign(-1);
-        } else if(degrees > 0){
-            highLevelState.setSign(1);
-            state.setSign(1);
-        }
+        degrees = setTurnDirection(degrees);
         
         synchronized (command) {
             command.turnTo(degrees, takePics);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
-        return doHighLevelReceive(seqNum);
+        return doHighLevelReceive(seqNum, getDeadline());
     }
     
     /**
@@ -409,7 +534,7 @@ public class RoverController {
             command.killHL();
             seqNum = reliagram.send(command.getData(), command.getLength());
         }
-        return doHighLevelReceive(seqNum);
+        return doHighLevelReceive(seqNum, null);
     }
     
     /**
@@ -424,9 +549,146 @@ public class RoverController {
         if(reliagram == null) {highLevelState.setStatus(RoverState.NOT_CONNECTED); return false; }
         synchronized (command) {
             command.getUpdate();
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
+        }
+        return doHighLevelReceive(seqNum, getDeadline());
+    }
+    
+    /**
+     * Gets the rover's calibration.  It is only fetched from the rover the first
+     * time; after that the same object is returned with no network I/O until
+     * <code>setCalibration</code> or <code>closeComm</code> is called.  Use
+     * <code>reloadCalibration</code> if the calibration was changed from another
+     * computer.
+     * <p>
+     * The calibration is also saved on this computer for the version of the
+     * code on the Stargate.  When <code>initComm</code> connects, the saved
+     * copy is used until the calibration on the rover has been fetched in the
+     * background, which then replaces it and is saved in turn, so a different
+     * rover or a calibration changed elsewhere is only used for a moment.
+     * <p>
+     * This function will only update the status in <code>state</code> in case of error.
+     * @return The calibration.  If it can't be loaded, RoverCalibration.DEFAULT
+     * is returned but not cached, so the next call tries again.
+     */
+    public RoverCalibration getRoverCalibration() {
+        int generation;
+        synchronized(calibrationLock) {
+            if(calibration != null)
+                return calibration;
+            generation = calibrationGeneration;
+        }
+        //the lock isn't held while waiting for the rover, so threads that only
+        //want the cached copy aren't held up
+        return calibrationFetched(getCalibration(), generation);
+    }
+    
+    /** Forgets the cached calibration and fetches it from the rover again. */
+    public RoverCalibration reloadCalibration() {
+        synchronized(calibrationLock) {
+            calibration = null;
+            calibrationGeneration++;
+        }
+        return getRoverCalibration();
+    }
+    
+    /* Updates the cache after the calibration file on the rover was replaced. */
+    void calibrationSet(String cal, boolean worked) {
+        RoverCalibration set = worked ? new RoverCalibration(cal) : null;
+        String version;
+        synchronized(calibrationLock) {
+            //if it didn't work, we don't know what the rover has now
+            calibration = set;
+            calibrationGeneration++;
+            version = stargateVersion;
+        }
+        saveCalibration(set, version);
+    }
+    
+    /* Caches the calibration file fetched from the rover starting at
+     * generation.  If it couldn't be fetched, returns RoverCalibration.DEFAULT
+     * without caching it.
+     */
+    RoverCalibration calibrationFetched(String text, int generation) {
+        if(text == null) {
+            if(state.getStatus() != RoverState.SUCCESS)
+                return RoverCalibration.DEFAULT;
+            text = ""; //no calibration file is on the rover
+        }
+        return cacheCalibration(new RoverCalibration(text), generation);
+    }
+    
+    /* Caches a calibration that was fetched from the rover starting at
+     * generation, unless the cache was replaced or forgotten while it was being
+     * fetched, and saves it.  What the rover sent replaces a saved copy.
+     * Returns the calibration to use.
+     */
+    RoverCalibration cacheCalibration(RoverCalibration cal, int generation) {
+        String version;
+        synchronized(calibrationLock) {
+            if(generation != calibrationGeneration)
+                return calibration != null ? calibration : cal;
+            calibration = cal;
+            version = stargateVersion;
+        }
+        saveCalibration(cal, version);
+        return cal;
+    }
+    
+    /* Uses the copy saved for the rover's Stargate version, then fetches the
+     * calibration from the rover to replace it.  Runs on its own thread so that
+     * initComm doesn't wait for the rover.
+     */
+    private void checkCalibration() {
+        final int generation = getCalibrationGeneration();
+        Thread check = new Thread("CalibrationCheck") {
+            public void run() {
+                String version = getVersion();
+                if(version == null)
+                    return;
+                RoverCalibration saved = RoverCalibration.load(getCalibrationFile(version), version);
+                synchronized(calibrationLock) {
+                    if(generation != calibrationGeneration)
+                        return;
+                    stargateVersion = version;
+                    if(calibration == null)
+                        calibration = saved;
+                }
+                //if it can't be fetched, the saved copy is kept
+                calibrationFetched(getCalibration(), generation);
+            }
+        };
+        check.setDaemon(true);
+        check.start();
+    }
+    
+    /* Saves a calibration for a Stargate version, or deletes the saved one if
+     * cal is null.  Does nothing if the version isn't known yet.
+     */
+    private void saveCalibration(RoverCalibration cal, String version) {
+        if(version == null)
+            return;
+        File file = getCalibrationFile(version);
+        if(cal == null || !cal.save(file, version))
+            file.delete();
+    }
+    
+    private static File getCalibrationFile(String version) {
+        return new File(CALIBRATION_CACHE_PATH, "stargate-"+version.replaceAll("[^0-9A-Za-z._-]", "_")+".cal");
+    }
+    
+    /* Returns the cached calibration without loading it, or null. */
+    RoverCalibration getCachedCalibration() {
+        synchronized(calibrationLock) {
+            return calibration;
+        }
+    }
+    
+    /* Returns the generation to pass to cacheCalibration for a new fetch. */
+    int getCalibrationGeneration() {
+        synchronized(calibrationLock) {
+            return calibrationGeneration;
         }
-        return doHighLevelReceive(seqNum);
     }
     
     /** Loads the calibration file from the rover and returns the drive adjustment
@@ -440,26 +702,15 @@ public class RoverController {
      * <code>getDriveCalibration</code> to ensure that the program behaves the
      * same from rover to rover.
      * <p>
+     * The calibration is only loaded from the rover once; see
+     * <code>getRoverCalibration</code>.
      * This function will only update the status in <code>state</code> in case of error.
      *
      *@return The drive adjustment value from the rover's calibration file. Returns
      * a default value of 100 if the file can not be loaded or there is an error.
      */
     public int getDriveCalibration() {
-        try{
-            String calibration = getCalibration();
-            //split string in to lines
-            String[] line = calibration.split("[\r\n]");
-            for(int i=0; i<line.length; i++){
-                if(!line[i].startsWith("#")){ //skip comment lines beginning with #
-                    String[] result = line[i].split("\\s"); //white space as delimeter
-                    //the first value after "drive_adjust" should be the driveAdjustValue
-                    if(result[0].equals("drive_adjust"))
-                        return (new Integer(result[1])).intValue();
-                }
-            }
-        }catch(Exception e){}//no calibration file is currently on the robot or there was an error
-        return 100; //default
+        return getRoverCalibration().getDriveAdjust();
     }
     
     /** Loads the calibration file from the rover and returns the turn adjustment
@@ -473,26 +724,15 @@ public class RoverController {
      * <code>getTurnCalibration</code> to ensure that the program behaves the
      * same from rover to rover.
      * <p>
+     * The calibration is only loaded from the rover once; see
+     * <code>getRoverCalibration</code>.
      * This function will only update the status in <code>state</code> in case of error.
      *
      *@return The turn adjustment value from the rover's calibration file. Returns
      * a default value of 100 if the file can not be loaded or there is an error.
      */
     public int getTurnCalibration() {
-        try{
-            String calibration = getCalibration();
-            //split string in to lines
-            String[] line = calibration.split("[\r\n]");
-            for(int i=0; i<line.length; i++){
-                if(!line[i].startsWith("#")){ //skip comment lines beginning with #
-                    String[] result = line[i].split("\\s"); //white space as delimeter
-                    //the first value after "turn_adjust" should be the turnAdjustValue
-                    if(result[0].equals("turn_adjust"))
-                        return (new Integer(result[1])).intValue();
-                }
-            }
-        }catch(Exception e){}//no calibration file is currently on the robot or there was an error
-        return 100; //default
+        return getRoverCalibration().getTurnAdjust();
     }
     
     
@@ -509,31 +749,17 @@ public class RoverController {
         int seqNum;
         synchronized(command) {
             command.getCalibration();
-            seqNum = reliagram.send(command.getData(), command.getLength());
-        }
-        Datapack dpack = null;
-        if(seqNum > 0)
-            dpack = reliagram.receive(seqNum, READ_TIMEOUT);
-        if(dpack == null || seqNum <= 0) {
-            state.parsePacket(null);
-            return null;
-        }
-        if(dpack.getLength() == RoverState.FULL_PACKET_LENGTH) {
-            state.parsePacket(dpack.getData());
-            return null;
-        }
-        if(dpack.getLength() == 1) {
-            state.setStatus(ByteUtil.unsign(dpack.getData()[0]));
-            return null;
+            seqNum = send();
         }
-        return new String(dpack.getData(), 1, dpack.getLength()-1);
+        return parseFile(state, receive(seqNum, READ_TIMEOUT), getDeadline());
     }
     
     /** Sets the calibration file on the robot.  This function is used by
      *  PER.Calibration.  The file is located at /root/rover.cal on the Stargate.
      *  If the calibration is messed up, the rover will not work right.
      *  Once you call this function, it replaces the current file on the Stargate
-     *  and the calibration is immediately changed.
+     *  and the calibration is immediately changed.  The cached calibration
+     *  is replaced as well.
      *  This function will always update the information in <code>state</code>
      *  @param cal The calibration file as a String.
      *  @return true if this command worked.
@@ -543,9 +769,11 @@ public class RoverController {
         int seqNum;
         synchronized (command) {
             command.setCalibration(cal);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
-        return doReceive(seqNum);
+        boolean worked = doReceive(seqNum, getDeadline());
+        calibrationSet(cal, worked);
+        return worked;
     }
     
     /**
@@ -560,24 +788,9 @@ public class RoverController {
         int seqNum;
         synchronized(command) {
             command.getScanList();
-            seqNum = reliagram.send(command.getData(), command.getLength());
-        }
-        Datapack dpack = null;
-        if(seqNum > 0)
-            dpack = reliagram.receive(seqNum, READ_TIMEOUT);
-        if(dpack == null || seqNum <= 0) {
-            state.parsePacket(null);
-            return null;
-        }
-        if(dpack.getLength() == RoverState.FULL_PACKET_LENGTH) {
-            state.parsePacket(dpack.getData());
-            return null;
+            seqNum = send();
         }
-        if(dpack.getLength() == 1) {
-            state.setStatus(ByteUtil.unsign(dpack.getData()[0]));
-            return null;
-        }
-        return new String(dpack.getData(), 1, dpack.getLength()-1);
+        return parseFile(state, receive(seqNum, READ_TIMEOUT), getDeadline());
     }
     
     /**
@@ -597,9 +810,9 @@ public class RoverController {
         int seqNum;
         synchronized (command) {
             command.setScanList(cal);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
-        return doReceive(seqNum);
+        return doReceive(seqNum, getDeadline());
     }
     
     /**
@@ -656,9 +869,9 @@ public class RoverController {
         int seqNum;
         synchronized (command) {
             command.headMove(doPan, pan, doTilt, tilt);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
-        return doReceive(seqNum);
+        return doReceive(seqNum, getDeadline());
     }
     
    /*  The following functions are in the process of being removed.
@@ -719,9 +932,9 @@ public class RoverController {
         synchronized (command) {
             command.setAll(mask, rightMotor, leftMotor, frontLeftServo,
             frontRightServo, backRightServo, backLeftServo, pan, tilt);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
-        return doReceive(seqNum);
+        return doReceive(seqNum, getDeadline());
     }
     
     /**
@@ -736,9 +949,9 @@ public class RoverController {
         int seqNum;
         synchronized (command) {
             command.spin(speed);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
-        return doReceive(seqNum);
+        return doReceive(seqNum, getDeadline());
     }
     
     /**
@@ -757,9 +970,9 @@ public class RoverController {
         int seqNum;
         synchronized (command) {
             command.crab(speed, angle);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
-        return doReceive(seqNum);
+        return doReceive(seqNum, getDeadline());
     }
     
     /**
@@ -778,9 +991,9 @@ public class RoverController {
         int seqNum;
         synchronized (command) {
             command.quadTurn(speed, radius);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
-        return doReceive(seqNum);
+        return doReceive(seqNum, getDeadline());
     }
     
     /**
@@ -794,9 +1007,9 @@ public class RoverController {
         int seqNum;
         synchronized (command) {
             command.setLight(on);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
-        return doReceive(seqNum);
+        return doReceive(seqNum, getDeadline());
     }
     
     /**
@@ -810,19 +1023,9 @@ public class RoverController {
         int seqNum;
         synchronized (command) {
             command.getVersion();
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
         }
-        Datapack dpack = null;
-        if(seqNum > 0)
-            dpack = reliagram.receive(seqNum, READ_TIMEOUT);
-        if(dpack == null || seqNum <= 0) {
-            state.parsePacket(null);
-            return null;
-        }
-        String version = new String(dpack.getData(), 0, dpack.getLength());
-        if(version.lastIndexOf('.') < 2) //old versions returned "5.0"
-            return "1.0.0"; //this makes sure that old versions are labeled as such
-        return version;
+        return parseVersion(state, receive(seqNum, READ_TIMEOUT), getDeadline());
     }
     
     /**
@@ -885,7 +1088,10 @@ public class RoverController {
             command.stopStreaming();
             seqNum = reliagram.send(command.getData(), command.getLength());
         }
-        return doReceive(seqNum);
+        boolean worked = doReceive(seqNum, null);
+        if(worked)
+            setStreamingCommand(null);
+        return worked;
     }
     
     /**
@@ -908,11 +1114,16 @@ public class RoverController {
     int minV, int maxV, int trackMethod, boolean movePan, boolean moveTilt, int driveMethod) {
         if(reliagram == null) {state.setStatus(RoverState.NOT_CONNECTED); return false; }
         int seqNum;
+        byte [] sent;
         synchronized (command) {
             command.startTrack(minY, maxY, minU, maxU, minV, maxV, trackMethod, movePan, moveTilt, driveMethod);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
+            sent = copyCommand();
         }
-        return doReceive(seqNum);
+        boolean worked = doReceive(seqNum, getDeadline());
+        if(worked)
+            setStreamingCommand(sent);
+        return worked;
     }
     
     //only brightness changes 0-65536, above 30,000 is dim 16384=min=very bright
@@ -936,32 +1147,9 @@ public class RoverController {
         int seqNum;
         synchronized (command) {
             command.getProperties();
-            seqNum = reliagram.send(command.getData(), command.getLength());
-        }
-        Datapack dpack = null;
-        if(seqNum > 0)
-            dpack = reliagram.receive(seqNum, READ_TIMEOUT);
-        if(dpack == null || seqNum <= 0) {
-            state.parsePacket(null);
-            return null;
-        }
-        if(dpack.getLength() == RoverState.FULL_PACKET_LENGTH) {
-            state.parsePacket(dpack.getData());
-            return null;
+            seqNum = send();
         }
-        if(dpack.getLength() != 28) {
-            state.setStatus(RoverState.INVALID_PACKET_LENGTH);
-            return null;
-        }
-        int [] properties = new int[7];
-        properties[0] = ByteUtil.networkLongToInt(dpack.getData(), 0);
-        properties[1] = ByteUtil.networkLongToInt(dpack.getData(), 4);
-        properties[2] = ByteUtil.networkLongToInt(dpack.getData(), 8);
-        properties[3] = ByteUtil.networkLongToInt(dpack.getData(), 12);
-        properties[4] = ByteUtil.networkLongToInt(dpack.getData(), 16);
-        properties[5] = ByteUtil.networkLongToInt(dpack.getData(), 20);
-        properties[6] = ByteUtil.networkLongToInt(dpack.getData(), 24);
-        return properties;
+        return parseCameraProperties(state, receive(seqNum, READ_TIMEOUT), getDeadline());
     }
     
     /**
@@ -979,18 +1167,25 @@ public class RoverController {
         if(reliagram == null) {state.setStatus(RoverState.NOT_CONNECTED); return false; }
         int seqNum;
         long sendTime = System.currentTimeMillis();
+        byte [] sent;
         synchronized (command) {
             command.getMean(stream);
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
+            sent = copyCommand();
         }
-        boolean worked = doReceive(seqNum);
+        boolean worked = doReceive(seqNum, getDeadline());
+        if(stream && worked)
+            setStreamingCommand(sent);
         //if putting rover into streaming mode or it failed, return now.
         if(stream || !worked)
             return worked;
         //wait up to 2.5 seconds for the sent track packet to arrive
+        Deadline deadline = getDeadline();
         for(int i=0; i<50; i++){
             if(receive.getMeanUpdateTime() > sendTime)
                 return true;
+            if(deadline != null && deadline.isDone())
+                return noResponse(state);
             try {Thread.sleep(50);}catch (Exception e) {}
         }
         return false;
@@ -1005,34 +1200,192 @@ public class RoverController {
     public boolean startMotionDetection() {
         if(reliagram == null) {state.setStatus(RoverState.NOT_CONNECTED); return false; }
         int seqNum;
+        byte [] sent;
         synchronized (command) {
             command.startMotion();
-            seqNum = reliagram.send(command.getData(), command.getLength());
+            seqNum = send();
+            sent = copyCommand();
         }
-        return doReceive(seqNum);
+        boolean worked = doReceive(seqNum, getDeadline());
+        if(worked)
+            setStreamingCommand(sent);
+        return worked;
+    }
+    
+    /* Sends the command, which the caller must hold the lock on.  If this
+     * thread's deadline is already done, nothing is sent and CANCELLED is returned.
+     */
+    private int send() {
+        Deadline deadline = getDeadline();
+        if(deadline != null && deadline.isDone())
+            return CANCELLED;
+        return reliagram.send(command.getData(), command.getLength());
+    }
+    
+    /* Waits for the answer to a command, or returns null if it wasn't sent. */
+    private Datapack receive(int seqNum, int timeout) {
+        if(seqNum <= 0)
+            return null;
+        return reliagram.receive(seqNum, timeout, getDeadline());
     }
     
-    private boolean doReceive(int seqNum) {
-        if(seqNum < 0) {
-            state.parsePacket(null);
+    /* Sets the status for a command that got no answer: KILLED if this thread's
+     * deadline was cancelled, otherwise COMM_DEAD.
+     */
+    private boolean noResponse(RoverState st) {
+        return noResponse(st, getDeadline());
+    }
+    
+    static boolean noResponse(RoverState st, Deadline deadline) {
+        if(deadline != null && deadline.isCancelled()) {
+            st.setStatus(RoverState.KILLED);
             return false;
         }
-        Datapack dpack = reliagram.receive(seqNum);
-        if(dpack == null)
-            return state.parsePacket(null);
-        else
-            return state.parsePacket(dpack.getData());
+        return st.parsePacket(null);
     }
     
-    private boolean doHighLevelReceive(int seqNum) {
-        if(seqNum < 0) {
-            highLevelState.parsePacket(null);
-            return false;
+    private boolean doReceive(int seqNum, Deadline deadline) {
+        return doReceive(state, seqNum, deadline);
+    }
+    
+    private boolean doHighLevelReceive(int seqNum, Deadline deadline) {
+        return doReceive(highLevelState, seqNum, deadline);
+    }
+    
+    private boolean doReceive(RoverState st, int seqNum, Deadline deadline) {
+        if(seqNum < 0)
+            return noResponse(st, deadline);
+        return parseStatus(st, reliagram.receive(seqNum, READ_TIMEOUT, deadline), deadline);
+    }
+    
+    /* Sets the direction of a goTo in both states before it is sent. */
+    void setDriveDirection(int dist, int angle) {
+        if(dist < 0){
+            highLevelState.setSign(-1);
+            state.setSign(-1);
+        } else if(dist > 0){
+            highLevelState.setSign(1);
+            state.setSign(1);
         }
-        Datapack dpack = reliagram.receive(seqNum);
+        
+        state.setCrabAngle(angle);
+        highLevelState.setCrabAngle(angle);
+    }
+    
+    /* Brings a turnTo into [-180, 180] and sets its direction in both states
+     * before it is sent.  Returns the degrees to send.
+     */
+    int setTurnDirection(int degrees) {
+        degrees = degrees % 360;
+        
+        if(degrees > 180){
+            degrees -= 360;
+        }
+        if(degrees < -180)
+            degrees += 360;
+        
+        if(degrees < 0){
+            highLevelState.setSign(-1);
+            state.setSign(-1);
+        } else if(degrees > 0){
+            highLevelState.setSign(1);
+            state.setSign(1);
+        }
+        return degrees;
+    }
+    
+    /* The rest read the rover's answers, for the functions here and for
+     * AsyncRoverController.  Each is given the answer, or null if none came,
+     * and the deadline the command was sent with.  If the answer isn't what
+     * was asked for, the status is left in st and null is returned.
+     */
+    
+    /* For commands that only send back a status packet.  Returns whether it was SUCCESS. */
+    static boolean parseStatus(RoverState st, Datapack dpack, Deadline deadline) {
         if(dpack == null)
-            return highLevelState.parsePacket(null);
-        else
-            return highLevelState.parsePacket(dpack.getData());
+            return noResponse(st, deadline);
+        return st.parsePacket(dpack.getData());
+    }
+    
+    /* For commands that send back data, or a status packet if they failed. */
+    static byte [] parseData(RoverState st, Datapack dpack, Deadline deadline) {
+        if(dpack == null) {
+            noResponse(st, deadline);
+            return null;
+        }
+        if(dpack.getLength() == RoverState.FULL_PACKET_LENGTH) {
+            st.parsePacket(dpack.getData());
+            return null;
+        }
+        return dpack.getData();
+    }
+    
+    static BufferedImage parsePicture(RoverState st, Datapack dpack, Deadline deadline) {
+        if(parseData(st, dpack, deadline) == null)
+            return null;
+        BufferedImage image = ImageDecoder.getDecoder().decode(dpack.getData(), 0, dpack.getLength());
+        if(image == null)
+            st.setStatus(RoverState.INVALID_PACKET_LENGTH);
+        return image;
+    }
+    
+    static int [] parseScan(RoverState st, Datapack dpack, Deadline deadline, int minPan, int maxPan,
+    int step) {
+        if(dpack == null || dpack.getLength() == 0) {
+            noResponse(st, deadline);
+            return null;
+        }
+        byte [] data = dpack.getData();
+        if(data[0] != RoverState.SUCCESS) { //error
+            st.parsePacket(data);
+            return null;
+        }
+        int length = dpack.getLength();
+        if(length != ((maxPan-minPan)/step+2)){
+            if(length == RoverState.FULL_PACKET_LENGTH)
+                st.parsePacket(data);
+            else
+                st.setStatus(RoverState.INVALID_PACKET_LENGTH);
+            return null;
+        }
+        int [] scanVals = new int [length-1];
+        for(int i=1; i<length; i++)
+            scanVals[i-1] = ByteUtil.unsign(data[i]);
+        return scanVals;
+    }
+    
+    /* For getCalibration and getScanList, which send back a status byte and the file. */
+    static String parseFile(RoverState st, Datapack dpack, Deadline deadline) {
+        if(parseData(st, dpack, deadline) == null)
+            return null;
+        if(dpack.getLength() == 1) {
+            st.setStatus(ByteUtil.unsign(dpack.getData()[0]));
+            return null;
+        }
+        return new String(dpack.getData(), 1, dpack.getLength()-1);
+    }
+    
+    static String parseVersion(RoverState st, Datapack dpack, Deadline deadline) {
+        if(dpack == null) {
+            noResponse(st, deadline);
+            return null;
+        }
+        String version = new String(dpack.getData(), 0, dpack.getLength());
+        if(version.lastIndexOf('.') < 2) //old versions returned "5.0"
+            return "1.0.0"; //this makes sure that old versions are labeled as such
+        return version;
+    }
+    
+    static int [] parseCameraProperties(RoverState st, Datapack dpack, Deadline deadline) {
+        if(parseData(st, dpack, deadline) == null)
+            return null;
+        if(dpack.getLength() != 28) {
+            st.setStatus(RoverState.INVALID_PACKET_LENGTH);
+            return null;
+        }
+        int [] properties = new int[7];
+        for(int i=0; i<7; i++)
+            properties[i] = ByteUtil.networkLongToInt(dpack.getData(), 4*i);
+        return properties;
     }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+/*
+ * RoverException.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+/**
+ * Thrown (or used to complete a future exceptionally) when a command to the
+ * rover fails.  The status code is one of the constants in RoverState, the same
+ * code the blocking functions in RoverController leave in <code>state</code>.
+ */
+public class RoverException extends Exception {
+    private static final long serialVersionUID = 1L;
+    
+    private int status;
+    
+    /**
+     * Creates a new RoverException.
+     * @param status The status code from RoverState.
+     */
+    public RoverException(int status) {
+        super(PER.rover.ActionConstants.getErrorText(status));
+        this.status = status;
+    }
+    
+    /**
+     * Creates a new RoverException with its own message.
+     * @param status The status code from RoverState.
+     * @param message What went wrong.
+     */
+    public RoverException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+    
+    /** The status code from RoverState that describes what went wrong. */
+    public int getStatus() {
+        return status;
+    }
+}
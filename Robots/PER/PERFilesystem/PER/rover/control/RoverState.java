@@ -13,6 +13,11 @@ import java.math.*;
  * when commands are sent to the rover or by calling refresh in RoverController.
  * The constants in this class are used to represent the rovers current status as well
  * as used as Action return values.
+ * <p>
+ * The state can be changed by one thread while another reads it.  To read
+ * several values that belong together, such as the pan, tilt and status of one
+ * answer, use <code>getSnapshot</code>, and use <code>waitForNewer</code> to
+ * wait for the state to change instead of sleeping and checking it.
  *
  *@see PER.rover.control.RoverController#refresh()
  *@see PER.rover.Action#getReturnValue()
@@ -32,6 +37,9 @@ public class RoverState {
     private int crabAngle;
     private double[] position; //cartesian coordinate position [x, y, theta]
     
+    private long version = 0;
+    private volatile RoverStateSnapshot snapshot;
+    
     //locks, cerebThreadState, and webCamThreadState are new variables
     //in version 2 of the Stargate code
     
@@ -163,6 +171,9 @@ public class RoverState {
     public RoverState() {
         dist = 0;
         position = new double[3];
+        synchronized(this) {
+            publish();
+        }
     }
     
     /**
@@ -171,14 +182,16 @@ public class RoverState {
      * @param packet The packet, which should be FULL_PACKET_LENGTH long.
      * @return true if it is the right length and the status is SUCCESS
      */
-    public boolean parsePacket(byte [] packet) {
+    public synchronized boolean parsePacket(byte [] packet) {
         if (packet == null || packet.length == 0) {
             status = COMM_DEAD;
+            publish();
             PER.rover.Log.println("No response, expected "+FULL_PACKET_LENGTH+" bytes!");
             return false;
         }
         if (packet.length != FULL_PACKET_LENGTH) {
             status = INVALID_PACKET_LENGTH;
+            publish();
             PER.rover.Log.println("Invalid packet; got "+packet.length+" bytes, expected "+FULL_PACKET_LENGTH+"!");
             return false;
         }
@@ -220,9 +233,56 @@ public class RoverState {
         }else if(lastDist > dist){
             lastDist = 0;
         }
+        publish();
         return status == SUCCESS;
     }
     
+    /**
+     * Gets a copy of the whole state that won't change.
+     * @return The newest snapshot.
+     */
+    public RoverStateSnapshot getSnapshot() {
+        return snapshot;
+    }
+    
+    /**
+     * The version of the newest snapshot, which goes up by one every time the
+     * state changes.
+     */
+    public long getVersion() {
+        return snapshot.getVersion();
+    }
+    
+    /**
+     * Waits until the state changes.
+     * @param version The version the caller already has, usually from
+     * <code>getSnapshot().getVersion()</code>.
+     * @param timeout The most time to wait in ms, or 0 to wait forever.
+     * @return A snapshot with a higher version, or null if there wasn't one
+     * before the timeout.
+     */
+    public synchronized RoverStateSnapshot waitForNewer(long version, int timeout) {
+        long endTime = timeout == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+        while(snapshot.getVersion() <= version) {
+            long wait = endTime - System.currentTimeMillis();
+            if(wait <= 0)
+                return null;
+            try {
+                wait(wait);
+            }catch(InterruptedException e) {
+                return null;
+            }
+        }
+        return snapshot;
+    }
+    
+    /* Makes a new snapshot after a change.  Must hold the lock. */
+    private void publish() {
+        snapshot = new RoverStateSnapshot(++version, status, range, voltage, pan, tilt, dist,
+        locks, cerebThreadState, webCamThreadState, position);
+        notifyAll();
+    }
+    
     /**
      * Gets the last status code that the rover sent back.
      * @return the status code
@@ -243,24 +303,24 @@ public class RoverState {
     /**
      * Sets the current status; This should only be done in RoverController.
      */
-    public void setStatus(int status) { this.status = status; }
+    public synchronized void setStatus(int status) { this.status = status; publish(); }
     
     /**
      * Sets the current status; This should only be done in ReceiveThread.
      */
-    public void setPan(int pan) { this.pan = pan; }
+    public synchronized void setPan(int pan) { this.pan = pan; publish(); }
     
     /**
      * Sets the current status; This should only be done in ReceiveThread.
      */
-    public void setTilt(int tilt) { this.tilt = tilt; }
+    public synchronized void setTilt(int tilt) { this.tilt = tilt; publish(); }
     
     /** Set the current sign representing the direction of motion
      *  of the robot.  Used in calculating the coordinates, this
      *  should only be called by RoverController.
      */
     
-    public void setSign(int sign){ this.distSign = sign; }
+    public synchronized void setSign(int sign){ this.distSign = sign; }
     
     /** Set the current angle representing the direction of motion
      *  of the robot regardless of it's heading.
@@ -268,7 +328,7 @@ public class RoverState {
      *  should only be called by RoverController.
      */
     
-    public void setCrabAngle(int cA){ this.crabAngle = cA;}
+    public synchronized void setCrabAngle(int cA){ this.crabAngle = cA;}
     
     /**
      * Sets the current coordinate position.
@@ -280,10 +340,11 @@ public class RoverState {
      * @param theta The new orientation, in integer degrees
      */
     
-    public void setPosition(double x, double y, double theta){
+    public synchronized void setPosition(double x, double y, double theta){
         position[0] = x;
         position[1] = y;
         position[2] = theta;
+        publish();
     }
     
     /**
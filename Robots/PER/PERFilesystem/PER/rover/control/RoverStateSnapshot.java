@@ -0,0 +1,129 @@
+/*
+ * RoverStateSnapshot.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+/**
+ * A copy of a RoverState at one moment.  A snapshot never changes, so the
+ * pose and status read from one always belong together, even while commands
+ * and the ReceiveThread keep updating the RoverState it came from.
+ * <p>
+ * Every change to a RoverState publishes a new snapshot with a higher version.
+ * Use <code>RoverState.waitForNewer</code> to wait for the next one.
+ *
+ * @see RoverState#getSnapshot
+ */
+public class RoverStateSnapshot {
+    private final long version, time;
+    private final int status, range, voltage, pan, tilt, dist;
+    private final int locks, cerebThreadState, webCamThreadState;
+    private final double [] position;
+
+    RoverStateSnapshot(long version, int status, int range, int voltage, int pan, int tilt,
+    int dist, int locks, int cerebThreadState, int webCamThreadState, double [] position) {
+        this.version = version;
+        this.time = System.currentTimeMillis();
+        this.status = status;
+        this.range = range;
+        this.voltage = voltage;
+        this.pan = pan;
+        this.tilt = tilt;
+        this.dist = dist;
+        this.locks = locks;
+        this.cerebThreadState = cerebThreadState;
+        this.webCamThreadState = webCamThreadState;
+        this.position = position.clone();
+    }
+
+    /** Increases by one for every change to the RoverState. */
+    public long getVersion() {
+        return version;
+    }
+
+    /** The local system time in ms when this snapshot was taken. */
+    public long getTime() {
+        return time;
+    }
+
+    /** @see RoverState#getStatus */
+    public int getStatus() {
+        return status;
+    }
+
+    /** @see RoverState#getStatusMessage */
+    public String getStatusMessage() {
+        return PER.rover.ActionConstants.getErrorText(status);
+    }
+
+    /** @see RoverState#getRange */
+    public int getRange() {
+        return range;
+    }
+
+    /** @see RoverState#getRangeCM */
+    public int getRangeCM() {
+        return PER.rover.ScanAction.translateScan(range);
+    }
+
+    /** @see RoverState#getPan */
+    public int getPan() {
+        return pan;
+    }
+
+    /** @see RoverState#getTilt */
+    public int getTilt() {
+        return tilt;
+    }
+
+    /** @see RoverState#getRawVoltage */
+    public int getRawVoltage() {
+        return voltage;
+    }
+
+    /** @see RoverState#getRealVoltage */
+    public double getRealVoltage() {
+        return .204*voltage;
+    }
+
+    /** @see RoverState#getDist */
+    public int getDist() {
+        return dist;
+    }
+
+    /**
+     * The coordinates of the robot as x, y and theta.
+     * @return A copy, so changing it doesn't change the snapshot.
+     * @see RoverState#getPosition
+     */
+    public double [] getPosition() {
+        return position.clone();
+    }
+
+    /** @see RoverState#locks */
+    public int getLocks() {
+        return locks;
+    }
+
+    /** @see RoverState#cerebThreadState */
+    public int getCerebThreadState() {
+        return cerebThreadState;
+    }
+
+    /** @see RoverState#webCamThreadState */
+    public int getWebCamThreadState() {
+        return webCamThreadState;
+    }
+
+    /** @see RoverState#isTerminationCondition */
+    public boolean isTerminationCondition() {
+        return status == RoverState.SUCCESS || status >= RoverState.CEREB_TIMEOUT;
+    }
+
+    public String toString() {
+        return "version "+version+": "+getStatusMessage()+", range "+range+", pan "+pan
+        +", tilt "+tilt+", dist "+dist+", voltage "+Math.round(getRealVoltage()*10)/10.;
+    }
+}
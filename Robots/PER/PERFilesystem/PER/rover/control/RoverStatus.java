@@ -0,0 +1,111 @@
+/*
+ * RoverStatus.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+/**
+ * An unchangeable copy of one status packet from the rover.  Unlike RoverState,
+ * which is shared and overwritten by every command, a RoverStatus belongs to
+ * the command that it answers, so it can be handed between threads safely.  It
+ * is what the futures in AsyncRoverController complete with.
+ *
+ * @see AsyncRoverController
+ */
+public class RoverStatus {
+    private final int status;
+    private final int range;
+    private final int pan;
+    private final int tilt;
+    private final int dist;
+    private final int voltage;
+    private final int locks;
+    private final int cerebThreadState;
+    private final int webCamThreadState;
+    
+    /**
+     * Parses a status packet.
+     * @param packet The packet, which must be RoverState.FULL_PACKET_LENGTH long.
+     * @throws IllegalArgumentException if the packet is the wrong length.
+     */
+    public RoverStatus(byte [] packet) {
+        if(packet == null || packet.length != RoverState.FULL_PACKET_LENGTH)
+            throw new IllegalArgumentException("status packets are "+RoverState.FULL_PACKET_LENGTH+" bytes");
+        status = ByteUtil.unsign(packet[0]);
+        range = ByteUtil.unsign(packet[1]);
+        pan = ByteUtil.networkShortToInt(packet, 2);
+        tilt = ByteUtil.networkShortToInt(packet, 4);
+        dist = ByteUtil.networkShortToInt(packet, 6);
+        voltage = ByteUtil.unsign(packet[8]);
+        locks = ByteUtil.unsign(packet[9]);
+        cerebThreadState = ByteUtil.unsign(packet[10]);
+        webCamThreadState = ByteUtil.unsign(packet[11]);
+    }
+    
+    /** Returns true if the status is RoverState.SUCCESS. */
+    public boolean isSuccess() {
+        return status == RoverState.SUCCESS;
+    }
+    
+    /** The status code.  See the constants in RoverState. */
+    public int getStatus() {
+        return status;
+    }
+    
+    /** A description of the status code. */
+    public String getStatusMessage() {
+        return PER.rover.ActionConstants.getErrorText(status);
+    }
+    
+    /** The raw IR rangefinder reading.  See RoverState.getRange(). */
+    public int getRange() {
+        return range;
+    }
+    
+    /** The pan angle in degrees. */
+    public int getPan() {
+        return pan;
+    }
+    
+    /** The tilt angle in degrees. */
+    public int getTilt() {
+        return tilt;
+    }
+    
+    /** How far the current or last high level command has gone, in cm or degrees. */
+    public int getDist() {
+        return dist;
+    }
+    
+    /** The raw voltage reading, between 0 and 255. */
+    public int getRawVoltage() {
+        return voltage;
+    }
+    
+    /** The battery voltage in volts. */
+    public double getRealVoltage() {
+        return .204*voltage;
+    }
+    
+    /** The bitmask of what parts of the rover are in use.  See RoverState.locks. */
+    public int getLocks() {
+        return locks;
+    }
+    
+    /** The state of the cerebellum thread.  See RoverState.cerebThreadState. */
+    public int getCerebThreadState() {
+        return cerebThreadState;
+    }
+    
+    /** The state of the webcam thread.  See RoverState.webCamThreadState. */
+    public int getWebCamThreadState() {
+        return webCamThreadState;
+    }
+    
+    public String toString() {
+        return getStatusMessage()+" (pan "+pan+", tilt "+tilt+", range "+range+", "
+        +Math.round(getRealVoltage()*10)/10.0+"V)";
+    }
+}
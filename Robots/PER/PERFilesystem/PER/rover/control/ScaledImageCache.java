@@ -0,0 +1,216 @@
+/*
+ * ScaledImageCache.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers scaled copies of images so that screens which show the same
+ * picture at the same size again and again, such as the map, the site
+ * marker and the panorama in the exhibit, only scale it once.
+ * <p>
+ * For each source image a pyramid of copies at 1/2, 1/4, 1/8 ... of its size
+ * is made as needed, each from the one before with a box filter.  A size that
+ * is asked for is made from the smallest level that is still at least as big,
+ * so shrinking a large picture a lot only reads a small one.  Levels and
+ * scaled copies are kept until the memory budget is used up, and then the
+ * ones used longest ago are thrown away first.  Images are remembered by
+ * which object they are, not by their pixels, and the cache does not keep a
+ * source image from being garbage collected.
+ * <p>
+ * The images returned are shared, so don't draw on them or pass them to
+ * <code>ImageScaler.scale</code> as the image to reuse.  If a source image is
+ * changed after it has been scaled, call <code>invalidate</code>.  Use
+ * <code>getCache()</code> to get the shared instance.
+ */
+public class ScaledImageCache {
+   /** The default memory budget in bytes. */
+   public static final long DEFAULT_BUDGET = 32L << 20;
+
+   private static ScaledImageCache cache = null;
+
+   private long budget = DEFAULT_BUDGET;
+   private long size = 0;
+   private int hits = 0, misses = 0;
+   //in order of use, least recent first
+   private LinkedHashMap<Key, BufferedImage> entries = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true);
+   private ReferenceQueue<Image> collected = new ReferenceQueue<Image>();
+
+   /** Creates a new ScaledImageCache.  Most programs should use <code>getCache()</code>. */
+   public ScaledImageCache() {
+   }
+
+   /** Returns the cache shared by the exhibit screens. */
+   public static synchronized ScaledImageCache getCache() {
+      if(cache == null)
+         cache = new ScaledImageCache();
+      return cache;
+   }
+
+   /**
+    * Gets a copy of an image scaled to a size, scaling it only if it hasn't
+    * been scaled to that size already.
+    * @param src The image, which must already be loaded.
+    * @return The scaled image, which must not be changed.
+    */
+   public synchronized BufferedImage getScaled(Image src, int width, int height) {
+      width = Math.max(1, width);
+      height = Math.max(1, height);
+      expunge();
+      Key key = new Key(src, width, height, null);
+      BufferedImage scaled = entries.get(key);
+      if(scaled != null) {
+         hits++;
+         return scaled;
+      }
+      misses++;
+      int sw = src.getWidth(null), sh = src.getHeight(null);
+      if(sw == width && sh == height && src instanceof BufferedImage)
+         return (BufferedImage) src;
+      //the smallest level that is at least as big as the size wanted
+      int level = 0;
+      while((sw >> (level+1)) >= width && (sh >> (level+1)) >= height)
+         level++;
+      scaled = ImageScaler.scale(getLevel(src, level), width, height, null);
+      put(new Key(src, width, height, collected), scaled);
+      return scaled;
+   }
+
+   /** Forgets every copy of an image, for when it has been changed. */
+   public synchronized void invalidate(Image src) {
+      for(Iterator<Map.Entry<Key, BufferedImage>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+         Map.Entry<Key, BufferedImage> e = it.next();
+         if(e.getKey().get() == src) {
+            size -= bytes(e.getValue());
+            it.remove();
+         }
+      }
+   }
+
+   /** Forgets every image. */
+   public synchronized void clear() {
+      entries.clear();
+      size = 0;
+   }
+
+   /** Sets how many bytes of images are kept, and throws away images until it fits. */
+   public synchronized void setBudget(long bytes) {
+      budget = Math.max(0, bytes);
+      trim(null);
+   }
+
+   public synchronized long getBudget() {
+      return budget;
+   }
+
+   /** The number of bytes of images kept now. */
+   public synchronized long getSize() {
+      return size;
+   }
+
+   /** The number of times a scaled image was found. */
+   public synchronized int getHits() {
+      return hits;
+   }
+
+   /** The number of times an image had to be scaled. */
+   public synchronized int getMisses() {
+      return misses;
+   }
+
+   public synchronized String toString() {
+      return entries.size()+" images, "+(size >> 10)+" of "+(budget >> 10)+" KB, "+hits+" hits, "+misses+" misses";
+   }
+
+   /* Gets a level of the pyramid, making it from the one above if needed.
+    * Level 0 is the source itself, as a BufferedImage.
+    */
+   private BufferedImage getLevel(Image src, int level) {
+      if(level == 0 && src instanceof BufferedImage)
+         return (BufferedImage) src;
+      //levels have negative sizes so they can't be mistaken for a size asked for
+      Key key = new Key(src, -level, -level, null);
+      BufferedImage img = entries.get(key);
+      if(img != null)
+         return img;
+      if(level == 0)
+         img = ImageScaler.toBufferedImage(src);
+      else {
+         BufferedImage above = getLevel(src, level-1);
+         img = ImageScaler.areaAverage(above, above.getWidth()/2, above.getHeight()/2, null);
+      }
+      put(new Key(src, -level, -level, collected), img);
+      return img;
+   }
+
+   private void put(Key key, BufferedImage img) {
+      BufferedImage old = entries.put(key, img);
+      if(old != null)
+         size -= bytes(old);
+      size += bytes(img);
+      trim(key);
+   }
+
+   /* Throws away the least recently used images until the budget is met,
+    * but never the one just added.
+    */
+   private void trim(Key keep) {
+      for(Iterator<Map.Entry<Key, BufferedImage>> it = entries.entrySet().iterator(); size > budget && it.hasNext(); ) {
+         Map.Entry<Key, BufferedImage> e = it.next();
+         if(e.getKey() == keep)
+            continue;
+         size -= bytes(e.getValue());
+         it.remove();
+      }
+   }
+
+   /* Forgets the images whose source has been garbage collected. */
+   private void expunge() {
+      Object ref;
+      while((ref = collected.poll()) != null) {
+         BufferedImage img = entries.remove(ref);
+         if(img != null)
+            size -= bytes(img);
+      }
+   }
+
+   private static long bytes(BufferedImage img) {
+      return 4L * img.getWidth() * img.getHeight();
+   }
+
+   /* A source image, by identity, and a size. */
+   private static class Key extends WeakReference<Image> {
+      private final int hash, width, height;
+
+      Key(Image src, int width, int height, ReferenceQueue<Image> queue) {
+         super(src, queue);
+         this.width = width;
+         this.height = height;
+         hash = System.identityHashCode(src) * 31 + width * 7919 + height;
+      }
+
+      public int hashCode() {
+         return hash;
+      }
+
+      public boolean equals(Object o) {
+         if(o == this)
+            return true;
+         if(!(o instanceof Key))
+            return false;
+         Key k = (Key) o;
+         Object src = get();
+         return src != null && k.get() == src && k.width == width && k.height == height;
+      }
+   }
+}
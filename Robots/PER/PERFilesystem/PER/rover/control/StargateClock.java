@@ -0,0 +1,258 @@
+/*
+ * StargateClock.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+/** Estimates how the Stargate's clock relates to the clock on this computer so
+ * that the age of streamed data (tracking, motion, pictures) can be known.
+ * <p>
+ * Two kinds of measurements are used, the same way NTP does.  Round trips
+ * (a command going out and its acknowledgement coming back) give the network
+ * delay.  Streamed packets carry the Stargate time they were made at; the
+ * difference between the time they arrive here and that time is the clock offset
+ * plus the one-way delay.  The smallest differences seen recently are the ones
+ * that were delayed least, so the offset is taken from the minimum of those,
+ * less half of the smallest round trip.  Comparing the minimum from the older
+ * half of the window with the newer half gives the drift between the clocks.
+ * <p>
+ * If the Stargate's clock jumps (for example because the rover was restarted)
+ * the estimate is thrown away and started over.
+ */
+public class StargateClock {
+
+   /** One streamed packet, with its timing worked out. */
+   public static class Sample {
+      private long stargateTime, arrivalTime, captureTime;
+      private boolean reset;
+
+      Sample(long stargateTime, long arrivalTime, long captureTime, boolean reset) {
+         this.stargateTime = stargateTime;
+         this.arrivalTime = arrivalTime;
+         this.captureTime = captureTime;
+         this.reset = reset;
+      }
+
+      /** The time on the Stargate's clock, in ms, when this data was made. */
+      public long getStargateTime() {
+         return stargateTime;
+      }
+
+      /** The local system time in ms when this data arrived. */
+      public long getArrivalTime() {
+         return arrivalTime;
+      }
+
+      /** The estimated local system time in ms when this data was made. */
+      public long getCaptureTime() {
+         return captureTime;
+      }
+
+      /** The estimated time in ms this data took to get here from the rover. */
+      public long getLatency() {
+         return arrivalTime - captureTime;
+      }
+
+      /** How old this data is now in ms. */
+      public long getAge() {
+         return System.currentTimeMillis() - captureTime;
+      }
+
+      /** True if this sample showed that the Stargate's clock had jumped and the
+       * estimate was started over. */
+      public boolean isReset() {
+         return reset;
+      }
+   }
+
+   /** How many streamed packets the offset and drift are worked out over. */
+   private static final int WINDOW = 128;
+   /** How many round trips are remembered for the minimum round trip time. */
+   private static final int RTT_WINDOW = 32;
+   /** A difference this large (ms) from the estimate means the clock jumped. */
+   private static final int JUMP_THRESHOLD = 2000;
+   /** How many samples in a row must be off before the estimate is reset. */
+   private static final int JUMP_COUNT = 3;
+   /** The halves of the window must be this far apart (ms) to estimate drift. */
+   private static final int MIN_DRIFT_SPAN = 10000;
+
+   private long [] hostTimes = new long[WINDOW];
+   private long [] diffs = new long[WINDOW]; //arrival time - stargate time
+   private int count = 0, next = 0;
+   private int [] rtts = new int[RTT_WINDOW];
+   private int rttCount = 0, rttNext = 0;
+   private int jumps = 0;
+   private int resets = 0;
+
+   //the current estimate: offset(t) = baseOffset + drift*(t - baseTime)
+   private double baseOffset, drift;
+   private long baseTime;
+   private long minRtt = -1;
+   private double meanLatency = 0;
+   private long lastLatency = 0;
+
+   /** Creates a new instance of StargateClock */
+   public StargateClock() {
+   }
+
+   /**
+    * Adds a round trip measurement.  Only use round trips for packets that
+    * were not resent, since there's no telling which copy was answered.
+    * @param sendTime The local time in ms the request was sent.
+    * @param receiveTime The local time in ms the reply arrived.
+    */
+   public synchronized void addRoundTrip(long sendTime, long receiveTime) {
+      int rtt = (int) (receiveTime - sendTime);
+      if(rtt < 0)
+         return;
+      rtts[rttNext] = rtt;
+      rttNext = (rttNext + 1) % RTT_WINDOW;
+      if(rttCount < RTT_WINDOW)
+         rttCount++;
+      long min = Long.MAX_VALUE;
+      for(int i=0; i<rttCount; i++)
+         min = Math.min(min, rtts[i]);
+      minRtt = min;
+      estimate();
+   }
+
+   /**
+    * Adds a packet streamed from the rover.
+    * @param stargateTime The time stamp on the packet, in ms.
+    * @param arrivalTime The local time in ms when the packet arrived.
+    * @return The timing for this packet.
+    */
+   public synchronized Sample addPacket(long stargateTime, long arrivalTime) {
+      long diff = arrivalTime - stargateTime;
+      boolean reset = false;
+      if(count > 0) {
+         //anything arriving much earlier or later than expected means the clock jumped
+         if(Math.abs(diff - offsetAt(arrivalTime) - getOneWayDelay()) > JUMP_THRESHOLD) {
+            if(++jumps >= JUMP_COUNT) {
+               count = next = 0;
+               jumps = 0;
+               drift = 0;
+               resets++;
+               reset = true;
+               PER.rover.Log.println("Stargate clock jumped, resynchronizing");
+            }else //don't let a single odd packet move the estimate
+               return new Sample(stargateTime, arrivalTime, Math.min(toHostTime(stargateTime), arrivalTime), false);
+         }else
+            jumps = 0;
+      }
+      hostTimes[next] = arrivalTime;
+      diffs[next] = diff;
+      next = (next + 1) % WINDOW;
+      if(count < WINDOW)
+         count++;
+      estimate();
+
+      long capture = toHostTime(stargateTime);
+      if(capture > arrivalTime)
+         capture = arrivalTime;
+      lastLatency = arrivalTime - capture;
+      meanLatency = meanLatency == 0 ? lastLatency : .95*meanLatency + .05*lastLatency;
+      return new Sample(stargateTime, arrivalTime, capture, reset);
+   }
+
+   /**
+    * Converts a time on the Stargate's clock to the local clock.
+    * @param stargateTime A Stargate time in ms.
+    * @return The local system time in ms.
+    */
+   public synchronized long toHostTime(long stargateTime) {
+      //offset depends (slightly) on the time, so iterate once
+      long approx = stargateTime + (long) baseOffset;
+      return stargateTime + Math.round(offsetAt(approx));
+   }
+
+   /** Returns true once at least one streamed packet has been seen. */
+   public synchronized boolean isSynchronized() {
+      return count > 0;
+   }
+
+   /** The current estimate of local time minus Stargate time, in ms. */
+   public synchronized double getOffset() {
+      return offsetAt(System.currentTimeMillis());
+   }
+
+   /** How fast the clocks drift apart, in ms per ms (multiply by 1e6 for ppm). */
+   public synchronized double getDrift() {
+      return drift;
+   }
+
+   /** The smallest round trip time seen recently in ms, or -1 if none. */
+   public synchronized long getMinRoundTrip() {
+      return minRtt;
+   }
+
+   /** The estimated one-way delay of an undelayed packet in ms. */
+   public synchronized long getOneWayDelay() {
+      return minRtt < 0 ? 0 : minRtt/2;
+   }
+
+   /** The latency of the most recent streamed packet in ms. */
+   public synchronized long getLastLatency() {
+      return lastLatency;
+   }
+
+   /** A running average of the latency of streamed packets in ms. */
+   public synchronized double getMeanLatency() {
+      return meanLatency;
+   }
+
+   /** How many times the Stargate's clock has been seen to jump. */
+   public synchronized int getResetCount() {
+      return resets;
+   }
+
+   /** Forgets everything; the next packet starts a new estimate. */
+   public synchronized void reset() {
+      count = next = 0;
+      rttCount = rttNext = 0;
+      jumps = 0;
+      minRtt = -1;
+      drift = 0;
+      meanLatency = 0;
+      lastLatency = 0;
+   }
+
+   public synchronized String toString() {
+      return "offset "+Math.round(getOffset())+" ms, drift "+Math.round(drift*1e6)+" ppm, min rtt "
+      +minRtt+" ms, latency "+lastLatency+" ms (mean "+Math.round(meanLatency)+" ms)";
+   }
+
+   private double offsetAt(long hostTime) {
+      return baseOffset + drift*(hostTime - baseTime);
+   }
+
+   /* Offset = the smallest (arrival - stargate) difference, less the one-way
+    * delay.  Drift compares the minimum of the older half of the window with
+    * the minimum of the newer half.
+    */
+   private void estimate() {
+      if(count == 0)
+         return;
+      int oldest = (next - count + WINDOW) % WINDOW;
+      int half = count/2;
+      long min1 = Long.MAX_VALUE, min2 = Long.MAX_VALUE, t1 = 0, t2 = 0;
+      for(int i=0; i<count; i++) {
+         int idx = (oldest + i) % WINDOW;
+         if(i < half) {
+            if(diffs[idx] < min1) { min1 = diffs[idx]; t1 = hostTimes[idx]; }
+         }else if(diffs[idx] < min2) { min2 = diffs[idx]; t2 = hostTimes[idx]; }
+      }
+      long delay = getOneWayDelay();
+      if(half > 0 && t2 - t1 >= MIN_DRIFT_SPAN) {
+         drift = (double) (min2 - min1) / (t2 - t1);
+         baseTime = t2;
+         baseOffset = min2 - delay;
+      }else {
+         long min = Math.min(min1, min2);
+         baseTime = min == min1 ? t1 : t2;
+         baseOffset = min - delay;
+      }
+   }
+}
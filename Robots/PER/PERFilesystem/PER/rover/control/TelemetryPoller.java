@@ -0,0 +1,193 @@
+/*
+ * TelemetryPoller.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.util.Vector;
+
+/**
+ * Keeps <code>state</code> in a RoverController up to date for everything that
+ * wants to watch the rover, so that they don't each call <code>refresh</code>.
+ * Get the poller for a connection with <code>RoverController.getPoller()</code>
+ * and add a Listener; each listener is given every new RoverStateSnapshot.
+ * <p>
+ * The poller only asks the rover for its state while it has listeners.  It
+ * asks every <code>ACTIVE_INTERVAL</code> ms while the cerebellum is doing a
+ * turnTo or goTo and every <code>IDLE_INTERVAL</code> ms otherwise.  When
+ * another command updates the state, that counts as a poll, so the poller
+ * waits a whole interval from then before asking again.
+ */
+public class TelemetryPoller extends Thread {
+
+    /** Receives the state of the rover. */
+    public interface Listener {
+        /**
+         * Called on the poller's thread with each new state, so it should be
+         * quick.  Swing code should use <code>SwingUtilities.invokeLater</code>.
+         */
+        void stateChanged(RoverStateSnapshot snapshot);
+    }
+
+    /** The default time between polls in ms while the rover is driving or turning. */
+    public static final int ACTIVE_INTERVAL = 100;
+    /** The default time between polls in ms while the rover is idle. */
+    public static final int IDLE_INTERVAL = 1000;
+    /** How often in ms to check for new listeners and pollNow while waiting. */
+    private static final int CHECK_TIME = 50;
+
+    private RoverController rc;
+    private Reliagram rgram;
+    private RoverCommand command = new RoverCommand();
+    private Vector<Subscription> listeners = new Vector<Subscription>();
+    private Deadline deadline = new Deadline();
+    private boolean keepGoing = true;
+    private boolean pollNow = false;
+    private int activeInterval = ACTIVE_INTERVAL;
+
+    /** Creates a new TelemetryPoller and starts its thread.  Use
+     * <code>RoverController.getPoller()</code> instead. */
+    public TelemetryPoller(RoverController rc, Reliagram rgram) {
+        super("TelemetryPoller");
+        this.rc = rc;
+        this.rgram = rgram;
+        setDaemon(true);
+        this.start();
+    }
+
+    /** Adds a listener that is happy with the idle rate. */
+    public void addListener(Listener l) {
+        addListener(l, IDLE_INTERVAL);
+    }
+
+    /**
+     * Adds a listener.
+     * @param idleInterval The longest this listener wants to go between polls
+     * while the rover is idle, in ms.  The poller uses the smallest of these.
+     */
+    public synchronized void addListener(Listener l, int idleInterval) {
+        listeners.add(new Subscription(l, Math.max(activeInterval, idleInterval)));
+        notifyAll();
+    }
+
+    public synchronized void removeListener(Listener l) {
+        for(int i=0; i<listeners.size(); i++)
+            if(listeners.get(i).listener == l) {
+                listeners.remove(i);
+                return;
+            }
+    }
+
+    /** Sets how often to poll while the rover is driving or turning. */
+    public synchronized void setActiveInterval(int ms) {
+        activeInterval = Math.max(10, ms);
+    }
+
+    /** Polls as soon as possible instead of waiting for the interval. */
+    public synchronized void pollNow() {
+        pollNow = true;
+        notifyAll();
+    }
+
+    /** Stops the thread.  This is done by RoverController.closeComm. */
+    public void quit() {
+        synchronized(this) {
+            keepGoing = false;
+            notifyAll();
+        }
+        deadline.cancel();
+    }
+
+    public void run() {
+        RoverStateSnapshot last = rc.state.getSnapshot();
+        while(true) {
+            synchronized(this) {
+                while(keepGoing && listeners.isEmpty()) {
+                    try {
+                        wait();
+                    }catch(InterruptedException e) {}
+                }
+                if(!keepGoing)
+                    return;
+            }
+            //an answer to someone else's command is as good as a poll
+            RoverStateSnapshot newer = null;
+            while(newer == null && isRunning() && hasListeners() && !isPollNow()) {
+                long wait = last.getTime() + getInterval(last) - System.currentTimeMillis();
+                if(wait <= 0)
+                    break;
+                newer = rc.state.waitForNewer(last.getVersion(), (int) Math.min(wait, CHECK_TIME));
+            }
+            if(!isRunning())
+                return;
+            if(newer == null) {
+                if(!hasListeners())
+                    continue;
+                poll();
+                newer = rc.state.getSnapshot();
+                if(newer.getVersion() == last.getVersion())
+                    continue;
+            }
+            last = newer;
+            Subscription [] subs;
+            synchronized(this) {
+                subs = listeners.toArray(new Subscription[listeners.size()]);
+            }
+            for(int i=0; i<subs.length; i++) {
+                try {
+                    subs[i].listener.stateChanged(newer);
+                }catch(Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private synchronized boolean isRunning() {
+        return keepGoing;
+    }
+
+    private synchronized boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    private synchronized boolean isPollNow() {
+        return pollNow;
+    }
+
+    private synchronized int getInterval(RoverStateSnapshot last) {
+        int cereb = last.getCerebThreadState();
+        if(cereb == RoverState.CEREB_TURNTO || cereb == RoverState.CEREB_DRIVETO)
+            return activeInterval;
+        int interval = IDLE_INTERVAL;
+        for(int i=0; i<listeners.size(); i++)
+            interval = Math.min(interval, listeners.get(i).idleInterval);
+        return interval;
+    }
+
+    /* The same as RoverController.refresh, with a deadline that quit cancels. */
+    private void poll() {
+        synchronized(this) {
+            pollNow = false;
+        }
+        command.headMove(false, 0, false, 0);
+        int seqNum = rgram.send(command.getData(), command.getLength());
+        Datapack dpack = null;
+        if(seqNum > 0)
+            dpack = rgram.receive(seqNum, RoverController.READ_TIMEOUT, deadline);
+        if(!deadline.isCancelled())
+            rc.state.parsePacket(dpack == null ? null : dpack.getData());
+    }
+
+    private static class Subscription {
+        public Listener listener;
+        public int idleInterval;
+
+        public Subscription(Listener listener, int idleInterval) {
+            this.listener = listener;
+            this.idleInterval = idleInterval;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * TeleopChannel.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+/** Sends head and drive commands for manual control without waiting for the
+ * rover to answer each one.  Calling a function here only records the newest
+ * setpoint; a separate thread sends it at most once per interval.  If several
+ * setpoints arrive within one interval, only the last is sent, and when a new
+ * head (or drive) command is sent, the rover stops being sent the older one
+ * even if it has not been acknowledged yet.  However fast the mouse moves, the
+ * rover is never more than one interval plus the network delay behind it.
+ * <p>
+ * The answers to the commands still update <code>state</code> in the
+ * RoverController, but only the answer to the newest command counts.
+ * <p>
+ * Get the channel for a connection with <code>RoverController.getTeleop()</code>.
+ */
+public class TeleopChannel extends Thread {
+   /** The default time between commands in ms (20 per second). */
+   public static final int DEFAULT_INTERVAL = 50;
+
+   //the kinds of drive setpoint
+   private static final int NONE = 0;
+   private static final int SPIN = 1;
+   private static final int CRAB = 2;
+   private static final int QUAD_TURN = 3;
+   private static final int SET_ALL = 4;
+
+   private RoverController rc;
+   private Reliagram rgram;
+   private RoverCommand command;
+   private boolean keepGoing = true;
+   private int interval = DEFAULT_INTERVAL;
+   private long lastSendTime = 0;
+
+   //the newest head setpoint not sent yet
+   private boolean headPending = false;
+   private boolean doPan, doTilt;
+   private int pan, tilt;
+   private int headSeqNum = 0;
+
+   //the newest drive setpoint not sent yet
+   private int driveType = NONE;
+   private int [] driveArgs = new int[9];
+   private int driveSeqNum = 0;
+
+   /** Creates a new TeleopChannel and starts its thread.  Use
+    * <code>RoverController.getTeleop()</code> instead. */
+   public TeleopChannel(RoverController rc, Reliagram rgram) {
+      super("TeleopChannel");
+      this.rc = rc;
+      this.rgram = rgram;
+      command = new RoverCommand();
+      setDaemon(true);
+      this.start();
+   }
+
+   /**
+    * Sets how often commands can be sent.
+    * @param ms The least time between two commands in ms.
+    */
+   public synchronized void setInterval(int ms) {
+      interval = Math.max(0, ms);
+   }
+
+   /** Moves the head.  @see RoverController#look */
+   public void look(int pan, int tilt) {
+      headMove(true, pan, true, tilt);
+   }
+
+   /** Moves the pan and/or tilt.  @see RoverController#headMove */
+   public synchronized void headMove(boolean doPan, int pan, boolean doTilt, int tilt) {
+      //an axis the new setpoint leaves alone keeps an older value that wasn't sent
+      if(!headPending)
+         this.doPan = this.doTilt = false;
+      if(doPan) {
+         this.doPan = true;
+         this.pan = pan;
+      }
+      if(doTilt) {
+         this.doTilt = true;
+         this.tilt = tilt;
+      }
+      headPending = true;
+      notify();
+   }
+
+   /** Turns in place.  @see RoverController#spin */
+   public synchronized void spin(int speed) {
+      setDrive(SPIN, new int [] {speed});
+   }
+
+   /** Drives in a straight line at an angle.  @see RoverController#crab */
+   public synchronized void crab(int speed, int angle) {
+      setDrive(CRAB, new int [] {speed, angle});
+   }
+
+   /** Drives around a point.  @see RoverController#quadTurn */
+   public synchronized void quadTurn(int speed, int radius) {
+      setDrive(QUAD_TURN, new int [] {speed, radius});
+   }
+
+   /** Sets the motors and servos directly.  @see RoverController#setAll */
+   public synchronized void setAll(int mask, int rightMotor, int leftMotor, int frontLeftServo,
+   int frontRightServo, int backRightServo, int backLeftServo, int pan, int tilt) {
+      setDrive(SET_ALL, new int [] {mask, rightMotor, leftMotor, frontLeftServo,
+      frontRightServo, backRightServo, backLeftServo, pan, tilt});
+   }
+
+   /** Stops the motors, replacing any drive setpoint that hasn't been sent. */
+   public void stopDriving() {
+      setAll(3, 0, 0, 0, 0, 0, 0, 0, 0);
+   }
+
+   /** Stops the thread.  This is done by RoverController.closeComm. */
+   public synchronized void quit() {
+      keepGoing = false;
+      notify();
+   }
+
+   public void run() {
+      while(true) {
+         synchronized(this) {
+            while(keepGoing && !headPending && driveType == NONE) {
+               try {
+                  wait();
+               }catch(InterruptedException e) {}
+            }
+            if(!keepGoing)
+               return;
+         }
+         //setpoints that arrive while waiting replace the pending ones
+         long wait;
+         synchronized(this) {
+            wait = lastSendTime + interval - System.currentTimeMillis();
+         }
+         if(wait > 0)
+            try {Thread.sleep(wait);}catch(InterruptedException e) {}
+         sendPending();
+      }
+   }
+
+   private void sendPending() {
+      synchronized(this) {
+         lastSendTime = System.currentTimeMillis();
+         if(driveType != NONE) {
+            int [] a = driveArgs;
+            switch(driveType) {
+               case SPIN: command.spin(a[0]); break;
+               case CRAB: command.crab(a[0], a[1]); break;
+               case QUAD_TURN: command.quadTurn(a[0], a[1]); break;
+               case SET_ALL: command.setAll(a[0], a[1], a[2], a[3], a[4], a[5], a[6], a[7], a[8]);
+            }
+            driveType = NONE;
+            send(false);
+         }
+         if(headPending) {
+            command.headMove(doPan, pan, doTilt, tilt);
+            headPending = false;
+            send(true);
+         }
+      }
+   }
+
+   /* Sends the command and stops resending the one it replaces.  Must hold the lock. */
+   private void send(boolean head) {
+      int oldSeqNum = head ? headSeqNum : driveSeqNum;
+      //forget the old command first so cancelling it doesn't look like no answer
+      if(head)
+         headSeqNum = 0;
+      else
+         driveSeqNum = 0;
+      if(oldSeqNum > 0)
+         rgram.cancel(oldSeqNum);
+      final int seqNum = rgram.send(command.getData(), command.getLength());
+      if(seqNum <= 0) {
+         rc.state.parsePacket(null);
+         return;
+      }
+      if(head)
+         headSeqNum = seqNum;
+      else
+         driveSeqNum = seqNum;
+      rgram.receiveAsync(seqNum, RoverController.READ_TIMEOUT).thenAccept(dpack -> answered(seqNum, dpack));
+   }
+
+   /* Only the answer to the newest command updates the state. */
+   private synchronized void answered(int seqNum, Datapack dpack) {
+      if(seqNum != headSeqNum && seqNum != driveSeqNum)
+         return;
+      rc.state.parsePacket(dpack == null ? null : dpack.getData());
+   }
+
+   private void setDrive(int type, int [] args) {
+      driveType = type;
+      System.arraycopy(args, 0, driveArgs, 0, args.length);
+      notify();
+   }
+}
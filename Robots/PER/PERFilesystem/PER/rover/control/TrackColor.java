@@ -0,0 +1,72 @@
+/*
+ * TrackColor.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+/**
+ * A color to track on this computer with a ColorTracker.  Like the parameters
+ * of <code>RoverController.startTrack</code>, it is a box of Y, U and V values
+ * from 0 to 255, so the parameters found with TrackFinder can be used as is.
+ *
+ * @see ColorTracker
+ */
+public class TrackColor {
+    private final String name;
+    private final int minY, maxY, minU, maxU, minV, maxV;
+
+    /** Creates a new TrackColor */
+    public TrackColor(String name, int minY, int maxY, int minU, int maxU, int minV, int maxV) {
+        this.name = name;
+        this.minY = minY;
+        this.maxY = maxY;
+        this.minU = minU;
+        this.maxU = maxU;
+        this.minV = minV;
+        this.maxV = maxV;
+    }
+
+    /** Makes a TrackColor of the color that a TrackFinder has found. */
+    public static TrackColor fromTrackFinder(String name, TrackFinder tf) {
+        return new TrackColor(name, tf.cminy, tf.cmaxy, tf.cminu, tf.cmaxu, tf.cminv, tf.cmaxv);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    public int getMinU() {
+        return minU;
+    }
+
+    public int getMaxU() {
+        return maxU;
+    }
+
+    public int getMinV() {
+        return minV;
+    }
+
+    public int getMaxV() {
+        return maxV;
+    }
+
+    /** Returns true if the color is in the box. */
+    public boolean contains(int y, int u, int v) {
+        return y >= minY && y <= maxY && u >= minU && u <= maxU && v >= minV && v <= maxV;
+    }
+
+    public String toString() {
+        return name+": Y "+minY+"-"+maxY+", U "+minU+"-"+maxU+", V "+minV+"-"+maxV;
+    }
+}
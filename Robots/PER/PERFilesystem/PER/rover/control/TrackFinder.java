@@ -5,23 +5,34 @@
  */
 
 package PER.rover.control;
-import java.util.LinkedList;
+import java.util.BitSet;
 
 /**
  * This is a class that, given an image and a measure of how much of a deviation
  * from mean is allowed, creates good track color parameters.
+ * <p>
+ * The picture is kept as flat Y, U and V planes and the flood fills use an int
+ * queue, so a click is answered right away even on a 640x480 picture.  Instead
+ * of clearing the masks for every click and every picture, each fill stamps
+ * its pixels with a new number, and a pixel is only in a mask if it has that
+ * mask's number.
  * @author  Eric Porter
  */
 public class TrackFinder {
-   
+
    public int yr, ur, vr; //the ranges
-   private int yuv [][][]; //storage for yuv data - 0=v, 1=y, 2=u
-   public boolean currMask[][], workMask[][]; //the tracked pixels
+   private byte yPlane [], uPlane [], vPlane []; //the picture, one byte per pixel
    private int width=0, height=0;
-   //int wpix, wtoty, wtotu, wtotv;
    public int cminy, cmaxy, cminu, cmaxu, cminv, cmaxv, cpix; //vars for current track
    private int wminy, wmaxy, wminu, wmaxu, wminv, wmaxv, wpix; //vars for work (tmp)
-   
+
+   //a pixel is in the current track if currStamp[i] == currEpoch, and likewise for work
+   private int currStamp [], workStamp [];
+   private int currEpoch, workEpoch, epoch = 0;
+   //the pixels of each mask in the order they were found, which is also the fill queue
+   private int currPixels [], workPixels [];
+   private BitSet trackMask = null; //made from the current track when asked for
+
    /** Creates a new instance of TrackFinder
     * @param yRange maximum deviation allowed from mean Y
     * @param uRange maximum deviation allowed from mean U
@@ -32,91 +43,94 @@ public class TrackFinder {
       ur = uRange;
       vr = vRange;
    }
-   
+
    /**
     * You should call this whenever the source pixels have changed
     */
-   public void setYUV(int yuv_in[], int width, int height) {
+   public void setYUV(final int yuv_in[], final int width, int height) {
       if(this.width != width || this.height != height) {
          this.width = width;
          this.height = height;
-         currMask = new boolean[height][width];
-         workMask = new boolean[height][width];
-         yuv = new int[height][width][3];
+         int numpix = width*height;
+         yPlane = new byte[numpix];
+         uPlane = new byte[numpix];
+         vPlane = new byte[numpix];
+         currStamp = new int[numpix];
+         workStamp = new int[numpix];
+         currPixels = new int[numpix];
+         workPixels = new int[numpix];
+         epoch = 0;
       }
-      int offset = 0;
-      for(int y=0; y<height; y++)
-         for(int x=0; x<width; x++) {
-            currMask[y][x] = false;
-            yuv[y][x][0] =  ((yuv_in[offset] >> 16) & 255);
-            yuv[y][x][1] =  ((yuv_in[offset] >> 8) & 255);
-            yuv[y][x][2] =  (yuv_in[offset] & 255);
-            offset++;
+      //large pictures are unpacked on every core
+      ParallelImage.forEachBand(width, height, 1, new ParallelImage.Band() {
+         public int run(int startRow, int endRow) {
+            for(int i=startRow*width; i<endRow*width; i++) {
+               vPlane[i] = (byte) (yuv_in[i] >> 16);
+               yPlane[i] = (byte) (yuv_in[i] >> 8);
+               uPlane[i] = (byte) yuv_in[i];
+            }
+            return 0;
          }
+      });
+      currEpoch = nextEpoch(); //nothing is tracked in the new picture
+      trackMask = null;
       cminy = cminu = cminv = 255;
       cmaxy = cmaxu = cmaxv = cpix = 0;
    }
-   public boolean [][] getTrackMask() {
-      return currMask;
+
+   /** Returns the pixels of the current track, with bit y*width+x set if (x, y) is in it. */
+   public BitSet getTrackMask() {
+      if(trackMask == null) {
+         trackMask = new BitSet(width*height);
+         for(int i=0; i<cpix; i++)
+            trackMask.set(currPixels[i]);
+      }
+      return trackMask;
+   }
+
+   /** return true if the pixel is part of the current track */
+   public boolean isTracked(int x, int y) {
+      return currStamp[y*width+x] == currEpoch;
    }
-   
+
    /**
     * Adds a point to what is being tracked.  Returns true if it is the first
     * point added or if as a second point, the filled in region overlaps with
     * the region already tracked.
     */
    public boolean addPoint(int x, int y) {
+      trackMask = null;
       return expand(x, y);
    }
-   
+
    /** return true if the pixel is in the range of the track params */
    public boolean pixelInRange(int x, int y) {
-      return yuv[y][x][0] >= cminv && yuv[y][x][0] <= cmaxv && yuv[y][x][1] >= cminy &&
-      yuv[y][x][1] <= cmaxy && yuv[y][x][2] >= cminu && yuv[y][x][2] <= cmaxu;
+      return inRange(y*width + x, cminy, cmaxy, cminu, cmaxu, cminv, cmaxv);
    }
-   
+
    private boolean expand(int xp, int yp) {
-      int xs, xe, ys, ye, xi;
-      for(int y=0; y<height; y++)
-         for(int x=0; x<width; x++)
-            workMask[y][x] = false;
+      workEpoch = nextEpoch();
       wminy = wminu = wminv = 255;
       wmaxy = wmaxu = wmaxv = wpix = 0;
       //find the ranges of what I will track;
-      int miny = yuv[yp][xp][1] - yr;
-      int maxy = yuv[yp][xp][1] + yr;
-      int minu = yuv[yp][xp][2] - ur;
-      int maxu = yuv[yp][xp][2] + ur;
-      int minv = yuv[yp][xp][0] - vr;
-      int maxv = yuv[yp][xp][0] + vr;
-      
-      LinkedList list = new LinkedList();
-      list.add(new Integer(yp*width+xp));
-      while(list.size() > 0) {
-         yp = ((Integer)list.removeFirst()).intValue();
-         xp = yp % width;
-         yp /= width;
-         ys = Math.max(yp-1, 0);
-         ye = Math.min(yp+1, height-1);
-         xs = Math.max(xp-1, 0);
-         xe = Math.min(xp+1, width-1);
-         for(;ys <= ye; ys++)
-            for(xi=xs; xi <= xe; xi++)
-               if(!workMask[ys][xi] && yuv[ys][xi][1] >= miny && yuv[ys][xi][1] <= maxy && yuv[ys][xi][2] >= minu &&
-               yuv[ys][xi][2] <= maxu && yuv[ys][xi][0] >= minv && yuv[ys][xi][0] <= maxv) {
-                  workMask[ys][xi] = true;
-                  wpix++;
-                  list.add(new Integer(ys*width+xi));
-                  wminy = Math.min(wminy, yuv[ys][xi][1]);
-                  wminu = Math.min(wminu, yuv[ys][xi][2]);
-                  wminv = Math.min(wminv, yuv[ys][xi][0]);
-                  wmaxy = Math.max(wmaxy, yuv[ys][xi][1]);
-                  wmaxu = Math.max(wmaxu, yuv[ys][xi][2]);
-                  wmaxv = Math.max(wmaxv, yuv[ys][xi][0]);
-               }
+      int seed = yp*width+xp;
+      int miny = (yPlane[seed] & 255) - yr;
+      int maxy = (yPlane[seed] & 255) + yr;
+      int minu = (uPlane[seed] & 255) - ur;
+      int maxu = (uPlane[seed] & 255) + ur;
+      int minv = (vPlane[seed] & 255) - vr;
+      int maxv = (vPlane[seed] & 255) + vr;
+
+      int tail = 0;
+      boolean intersects = false;
+      if(inRange(seed, miny, maxy, minu, maxu, minv, maxv)) {
+         workStamp[seed] = workEpoch;
+         workPixels[tail++] = seed;
+         intersects = addWork(seed);
       }
+      intersects |= fill(workStamp, workEpoch, workPixels, tail, miny, maxy, minu, maxu, minv, maxv, true);
       //System.out.println("found "+wpix+" pixels");
-      if(cpix == 0 || intersect()) {
+      if(cpix == 0 || intersects) {
          //relax the range
          cminy = Math.min(cminy, wminy);
          cmaxy = Math.max(cmaxy, wmaxy);
@@ -124,37 +138,25 @@ public class TrackFinder {
          cmaxu = Math.max(cmaxu, wmaxu);
          cminv = Math.min(cminv, wminv);
          cmaxv = Math.max(cmaxv, wmaxv);
-         
-         //add all of the points found so far
-         for(int y=0; y<height; y++)
-            for(int x=0; x<width; x++)
-               if(currMask[y][x] || workMask[y][x])
-                  list.add(new Integer(y*width+x));
-         
-         //find all pixels that are tracked now
-         while(list.size() > 0) {
-            yp = ((Integer)list.removeFirst()).intValue();
-            xp = yp % width;
-            yp /= width;
-            ys = Math.max(yp-1, 0);
-            ye = Math.min(yp+1, height-1);
-            xs = Math.max(xp-1, 0);
-            xe = Math.min(xp+1, width-1);
-            for(;ys <= ye; ys++)
-               for(xi=xs; xi <= xe; xi++)
-                  if(!currMask[ys][xi] && yuv[ys][xi][1] >= cminy && yuv[ys][xi][1] <= cmaxy && yuv[ys][xi][2] >= cminu &&
-                  yuv[ys][xi][2] <= cmaxu && yuv[ys][xi][0] >= cminv && yuv[ys][xi][0] <= cmaxv) {
-                     currMask[ys][xi] = true;
-                     cpix++;
-                     list.add(new Integer(ys*width+xi));
-                  }
-         }
-         
+
+         //add all of the points found so far, then find all pixels that are tracked now
+         tail = cpix;
+         for(int i=0; i<wpix; i++)
+            if(currStamp[workPixels[i]] != currEpoch) {
+               currStamp[workPixels[i]] = currEpoch;
+               currPixels[tail++] = workPixels[i];
+            }
+         fill(currStamp, currEpoch, currPixels, tail, cminy, cmaxy, cminu, cmaxu, cminv, cmaxv, false);
          return true;
       }else {
-         for(int y=0; y<height; y++)
-            for(int x=0; x<width; x++)
-               currMask[y][x] = workMask[y][x];
+         //the work mask becomes the track, and the old track's array is reused
+         int [] tmp = currStamp;
+         currStamp = workStamp;
+         workStamp = tmp;
+         tmp = currPixels;
+         currPixels = workPixels;
+         workPixels = tmp;
+         currEpoch = workEpoch;
          cpix = wpix;
          cminy = wminy;
          cmaxy = wmaxy;
@@ -165,13 +167,68 @@ public class TrackFinder {
          return false;
       }
    }
-   
-   private boolean intersect() {
-      for(int y=0; y<height; y++)
-         for(int x=0; x<width; x++)
-            if(currMask[y][x] && workMask[y][x])
-               return true;
-      return false;
+
+   /*
+    * Flood fills from the pixels in queue[0..tail), which are already stamped,
+    * to the 8 neighbors that are in range, stamping them and adding them to the
+    * queue.  Each pixel goes into the queue once, so it never needs more than
+    * width*height entries, and afterwards it holds every pixel of the mask.
+    * For the work mask, the ranges found are kept and the return value says
+    * whether any new pixel is also in the current track.
+    */
+   private boolean fill(int stamp [], int mark, int queue [], int tail,
+   int miny, int maxy, int minu, int maxu, int minv, int maxv, boolean work) {
+      boolean intersects = false;
+      int head = 0, xp, yp, xs, xe, ys, ye, xi, i;
+      while(head < tail) {
+         int p = queue[head++];
+         xp = p % width;
+         yp = p / width;
+         ys = Math.max(yp-1, 0);
+         ye = Math.min(yp+1, height-1);
+         xs = Math.max(xp-1, 0);
+         xe = Math.min(xp+1, width-1);
+         for(;ys <= ye; ys++)
+            for(xi=xs, i=ys*width+xs; xi <= xe; xi++, i++)
+               if(stamp[i] != mark && inRange(i, miny, maxy, minu, maxu, minv, maxv)) {
+                  stamp[i] = mark;
+                  queue[tail++] = i;
+                  if(work && addWork(i))
+                     intersects = true;
+               }
+      }
+      if(work)
+         wpix = tail;
+      else
+         cpix = tail;
+      return intersects;
+   }
+
+   private boolean inRange(int i, int miny, int maxy, int minu, int maxu, int minv, int maxv) {
+      int yv = yPlane[i] & 255, uv = uPlane[i] & 255, vv = vPlane[i] & 255;
+      return yv >= miny && yv <= maxy && uv >= minu && uv <= maxu && vv >= minv && vv <= maxv;
+   }
+
+   /* Widens the work ranges to include pixel i; returns true if it is tracked already. */
+   private boolean addWork(int i) {
+      int yv = yPlane[i] & 255, uv = uPlane[i] & 255, vv = vPlane[i] & 255;
+      wminy = Math.min(wminy, yv);
+      wminu = Math.min(wminu, uv);
+      wminv = Math.min(wminv, vv);
+      wmaxy = Math.max(wmaxy, yv);
+      wmaxu = Math.max(wmaxu, uv);
+      wmaxv = Math.max(wmaxv, vv);
+      return currStamp[i] == currEpoch;
    }
-   
+
+   /* A number that no pixel has been stamped with yet. */
+   private int nextEpoch() {
+      if(epoch == Integer.MAX_VALUE) {
+         java.util.Arrays.fill(currStamp, 0);
+         java.util.Arrays.fill(workStamp, 0);
+         epoch = 0;
+      }
+      return ++epoch;
+   }
+
 }
@@ -0,0 +1,274 @@
+/*
+ * TrackHistogram.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import java.util.Arrays;
+
+/**
+ * Picks track parameters from a region of a picture that is the object and
+ * the area around it that is not.  TrackFinder grows the parameters from the
+ * pixel that was clicked by a fixed range, so they can take in too much of
+ * the background or miss part of the object.  This counts the colors of the
+ * object and of the background in two 3D histograms of Y, U and V, and finds
+ * the box of colors that has as much of the object and as little of the
+ * background as it can: the one with the highest fraction of object pixels
+ * in it minus fraction of background pixels in it.
+ * <p>
+ * The picture is read once.  Each histogram is then turned into a table of
+ * running sums, so the number of pixels in any box is found with eight
+ * lookups, and each side of the box is moved in turn to where it does best
+ * until none of them move.  Pictures can be added one after another to
+ * learn from more than one view of the object.
+ */
+public class TrackHistogram {
+   /** The default number of bits of each of Y, U and V kept: 32 levels each. */
+   public static final int DEFAULT_BITS = 5;
+
+   private int bits, bins, shift;
+   private int target [], background [];
+   private int targetTotal = 0, backgroundTotal = 0;
+   private double backgroundWeight = 1;
+   //the running sums, with an extra 0 plane in front on each axis
+   private int targetSums [], backgroundSums [];
+
+   //the result, in bins
+   private int lo [] = new int[3], hi [] = new int[3];
+   private boolean found = false;
+   private double targetFraction, backgroundFraction;
+
+   /** Creates a new TrackHistogram with 32 levels of each of Y, U and V. */
+   public TrackHistogram() {
+      this(DEFAULT_BITS);
+   }
+
+   /**
+    * Creates a new TrackHistogram.
+    * @param bits How many bits of each of Y, U and V to keep, from 2 to 6.
+    * More is more exact but needs more pixels to fill.
+    */
+   public TrackHistogram(int bits) {
+      if(bits < 2 || bits > 6)
+         throw new IllegalArgumentException("bits must be from 2 to 6");
+      this.bits = bits;
+      bins = 1 << bits;
+      shift = 8 - bits;
+      target = new int[bins*bins*bins];
+      background = new int[bins*bins*bins];
+      targetSums = new int[(bins+1)*(bins+1)*(bins+1)];
+      backgroundSums = new int[(bins+1)*(bins+1)*(bins+1)];
+   }
+
+   /** Forgets all of the pixels added. */
+   public void clear() {
+      Arrays.fill(target, 0);
+      Arrays.fill(background, 0);
+      targetTotal = backgroundTotal = 0;
+      found = false;
+   }
+
+   /**
+    * Sets how much including background counts against including the
+    * object.  Higher makes a tighter box.  The default is 1.
+    */
+   public void setBackgroundWeight(double weight) {
+      backgroundWeight = weight;
+   }
+
+   /**
+    * Adds the pixels of a picture from <code>VisionUtil.v4l_yuv420p2yuv</code>.
+    * The pixels in the box from (minX, minY) to (maxX, maxY) are the object
+    * and the ones around it, out to margin pixels from the box, are the
+    * background.
+    * @param margin How far around the box the background is, or -1 for the
+    * whole rest of the picture.
+    */
+   public void add(int yuv [], int width, int height, int minX, int minY, int maxX, int maxY, int margin) {
+      minX = Math.max(0, minX);
+      minY = Math.max(0, minY);
+      maxX = Math.min(width-1, maxX);
+      maxY = Math.min(height-1, maxY);
+      int x0 = 0, y0 = 0, x1 = width-1, y1 = height-1;
+      if(margin >= 0) {
+         x0 = Math.max(0, minX-margin);
+         y0 = Math.max(0, minY-margin);
+         x1 = Math.min(width-1, maxX+margin);
+         y1 = Math.min(height-1, maxY+margin);
+      }
+      int s = shift, b = bits;
+      for(int y=y0; y<=y1; y++) {
+         boolean row = y >= minY && y <= maxY;
+         for(int x=x0, i=y*width+x0; x<=x1; x++, i++) {
+            int p = yuv[i];
+            //Y, U and V, in that order, as the index
+            int bin = (((((p >> 8) & 255) >> s) << b | ((p & 255) >> s)) << b) | (((p >> 16) & 255) >> s);
+            if(row && x >= minX && x <= maxX) {
+               target[bin]++;
+               targetTotal++;
+            }else {
+               background[bin]++;
+               backgroundTotal++;
+            }
+         }
+      }
+      found = false;
+   }
+
+   /** The number of object pixels added. */
+   public int getTargetPixels() {
+      return targetTotal;
+   }
+
+   /** The number of background pixels added. */
+   public int getBackgroundPixels() {
+      return backgroundTotal;
+   }
+
+   /**
+    * Finds the box of colors that best separates the object from the
+    * background.
+    * @return false if no object pixels have been added.
+    */
+   public boolean find() {
+      if(targetTotal == 0)
+         return false;
+      sum(target, targetSums);
+      sum(background, backgroundSums);
+      //start with the colors of the middle 96% of the object on each axis
+      for(int axis=0; axis<3; axis++) {
+         lo[axis] = percentile(axis, 0.02);
+         hi[axis] = percentile(axis, 0.98);
+      }
+      double best = score(lo, hi);
+      boolean moved = true;
+      for(int sweep=0; moved && sweep<4*bins; sweep++) {
+         moved = false;
+         for(int axis=0; axis<3; axis++) {
+            for(int side=0; side<2; side++) {
+               int [] bound = side == 0 ? lo : hi;
+               int was = bound[axis], bestAt = was;
+               int from = side == 0 ? 0 : lo[axis], to = side == 0 ? hi[axis] : bins-1;
+               for(int v=from; v<=to; v++) {
+                  bound[axis] = v;
+                  double sc = score(lo, hi);
+                  if(sc > best + 1e-12) {
+                     best = sc;
+                     bestAt = v;
+                  }
+               }
+               bound[axis] = bestAt;
+               if(bestAt != was)
+                  moved = true;
+            }
+         }
+      }
+      targetFraction = ((double) count(targetSums, lo, hi)) / targetTotal;
+      backgroundFraction = backgroundTotal == 0 ? 0 : ((double) count(backgroundSums, lo, hi)) / backgroundTotal;
+      found = true;
+      return true;
+   }
+
+   /** Returns true if <code>find</code> has found parameters for the pixels added. */
+   public boolean isFound() {
+      return found;
+   }
+
+   public int getMinY() {
+      return lo[0] << shift;
+   }
+
+   public int getMaxY() {
+      return ((hi[0]+1) << shift) - 1;
+   }
+
+   public int getMinU() {
+      return lo[1] << shift;
+   }
+
+   public int getMaxU() {
+      return ((hi[1]+1) << shift) - 1;
+   }
+
+   public int getMinV() {
+      return lo[2] << shift;
+   }
+
+   public int getMaxV() {
+      return ((hi[2]+1) << shift) - 1;
+   }
+
+   /** The fraction of the object pixels that are in the box found. */
+   public double getTargetFraction() {
+      return targetFraction;
+   }
+
+   /** The fraction of the background pixels that are in the box found. */
+   public double getBackgroundFraction() {
+      return backgroundFraction;
+   }
+
+   /** Makes a TrackColor of the parameters found, for a ColorTracker. */
+   public TrackColor toTrackColor(String name) {
+      return new TrackColor(name, getMinY(), getMaxY(), getMinU(), getMaxU(), getMinV(), getMaxV());
+   }
+
+   /**
+    * Starts the rover tracking with the parameters found.
+    * @return true if starting tracking was successful
+    * @see RoverController#startTrack(int, int, int, int, int, int)
+    */
+   public boolean startTrack(RoverController rc) {
+      if(!found && !find())
+         return false;
+      return rc.startTrack(getMinY(), getMaxY(), getMinU(), getMaxU(), getMinV(), getMaxV());
+   }
+
+   public String toString() {
+      if(!found)
+         return "no parameters found";
+      return "Y "+getMinY()+"-"+getMaxY()+", U "+getMinU()+"-"+getMaxU()+", V "+getMinV()+"-"+getMaxV()
+      +" ("+Math.round(targetFraction*100)+"% of object, "+Math.round(backgroundFraction*100)+"% of background)";
+   }
+
+   private double score(int lo [], int hi []) {
+      double t = ((double) count(targetSums, lo, hi)) / targetTotal;
+      if(backgroundTotal == 0)
+         return t;
+      return t - backgroundWeight * count(backgroundSums, lo, hi) / backgroundTotal;
+   }
+
+   /* The number of pixels in a box of bins, inclusive, from the running sums. */
+   private int count(int sums [], int lo [], int hi []) {
+      int n = bins+1;
+      int y0 = lo[0], y1 = hi[0]+1, u0 = lo[1], u1 = hi[1]+1, v0 = lo[2], v1 = hi[2]+1;
+      return sums[(y1*n+u1)*n+v1] - sums[(y0*n+u1)*n+v1] - sums[(y1*n+u0)*n+v1] - sums[(y1*n+u1)*n+v0]
+      + sums[(y0*n+u0)*n+v1] + sums[(y0*n+u1)*n+v0] + sums[(y1*n+u0)*n+v0] - sums[(y0*n+u0)*n+v0];
+   }
+
+   /* sums[y+1][u+1][v+1] is the number of pixels with bins up to y, u and v. */
+   private void sum(int hist [], int sums []) {
+      int n = bins+1;
+      for(int y=1; y<n; y++)
+         for(int u=1; u<n; u++)
+            for(int v=1; v<n; v++)
+               sums[(y*n+u)*n+v] = hist[((y-1)*bins+(u-1))*bins+(v-1)]
+               + sums[((y-1)*n+u)*n+v] + sums[(y*n+u-1)*n+v] + sums[(y*n+u)*n+v-1]
+               - sums[((y-1)*n+u-1)*n+v] - sums[((y-1)*n+u)*n+v-1] - sums[(y*n+u-1)*n+v-1]
+               + sums[((y-1)*n+u-1)*n+v-1];
+   }
+
+   /* The bin on an axis below which the given fraction of the object is. */
+   private int percentile(int axis, double fraction) {
+      int [] all0 = {0, 0, 0}, all1 = {bins-1, bins-1, bins-1};
+      int want = (int) (fraction * targetTotal);
+      for(int b=0; b<bins; b++) {
+         all1[axis] = b;
+         if(count(targetSums, all0, all1) > want)
+            return b;
+      }
+      return bins-1;
+   }
+}
@@ -0,0 +1,132 @@
+/*
+ * TrackResult.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+/**
+ * What a ColorTracker found of one TrackColor in one frame.  The fields are
+ * the same as the tracking fields of ReceiveThread, so code written for the
+ * rover's tracking can use these, but the coordinates are in pixels of the
+ * whole frame instead of 176x144.  Use <code>getTrackX</code> and
+ * <code>getTrackY</code> for coordinates that VisionUtil.objectPan and
+ * objectTilt take.
+ *
+ * @see ColorTracker
+ */
+public class TrackResult {
+    /** The minimum x-coordinate where the object was detected */
+    public final int minX;
+    /** The minimum y-coordinate where the object was detected */
+    public final int minY;
+    /** The maximum x-coordinate where the object was detected */
+    public final int maxX;
+    /** The maximum y-coordinate where the object was detected */
+    public final int maxY;
+    /** The mean x-coordinate where the object was detected */
+    public final int x;
+    /** The mean y-coordinate where the object was detected */
+    public final int y;
+    /** The number of pixels tracked, counted as if every pixel was looked at */
+    public final int pixels;
+
+    private final TrackColor color;
+    private final int width, height, pan, tilt, frameNumber;
+    private final long arrivalTime, doneTime;
+
+    TrackResult(TrackColor color, int x, int y, int minX, int minY, int maxX, int maxY, int pixels,
+    int width, int height, int pan, int tilt, int frameNumber, long arrivalTime, long doneTime) {
+        this.color = color;
+        this.x = x;
+        this.y = y;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.pan = pan;
+        this.tilt = tilt;
+        this.frameNumber = frameNumber;
+        this.arrivalTime = arrivalTime;
+        this.doneTime = doneTime;
+    }
+
+    /** The color that was tracked. */
+    public TrackColor getColor() {
+        return color;
+    }
+
+    /** Returns true if any pixels of the color were found. */
+    public boolean isFound() {
+        return pixels > 0;
+    }
+
+    /** The width of the frame. */
+    public int getWidth() {
+        return width;
+    }
+
+    /** The height of the frame. */
+    public int getHeight() {
+        return height;
+    }
+
+    /** x scaled to the 176x144 frame the rover tracks in. */
+    public int getTrackX() {
+        return x * VisionUtil.TRACK_WIDTH / width;
+    }
+
+    /** y scaled to the 176x144 frame the rover tracks in. */
+    public int getTrackY() {
+        return y * VisionUtil.TRACK_HEIGHT / height;
+    }
+
+    /** The pan the frame was taken at. */
+    public int getPan() {
+        return pan;
+    }
+
+    /** The tilt the frame was taken at. */
+    public int getTilt() {
+        return tilt;
+    }
+
+    /** The pan that would center the object. */
+    public int getObjectPan() {
+        return pan + VisionUtil.objectPan(getTrackX());
+    }
+
+    /** The tilt that would center the object. */
+    public int getObjectTilt() {
+        return tilt + VisionUtil.objectTilt(getTrackY());
+    }
+
+    /** The number of the frame in its stream. */
+    public int getFrameNumber() {
+        return frameNumber;
+    }
+
+    /** The local system time in ms when the frame arrived. */
+    public long getArrivalTime() {
+        return arrivalTime;
+    }
+
+    /** The local system time in ms when tracking the frame was finished. */
+    public long getDoneTime() {
+        return doneTime;
+    }
+
+    /** How long in ms it took from the frame arriving to this result. */
+    public int getLatency() {
+        return (int) (doneTime - arrivalTime);
+    }
+
+    public String toString() {
+        return color.getName()+": "+pixels+" pixels at ("+x+", "+y+"), box ("+minX+", "+minY
+        +")-("+maxX+", "+maxY+")";
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * VectorYUV.java
+ *
+ * Created on October 19, 2026
+ */
+
+package PER.rover.control;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Converts YUV420P to RGB with the SIMD instructions of the processor, using
+ * the same 16.16 fixed-point math as <code>VisionUtil.v4l_yuv420p2rgb</code>
+ * so the pixels are exactly the same.
+ * <p>
+ * This needs the jdk.incubator.vector module, which is only there when java
+ * is run with <code>--add-modules jdk.incubator.vector</code>.  VisionUtil
+ * only loads this class when the module is there, and otherwise converts
+ * one pixel at a time.
+ */
+final class VectorYUV implements VisionUtil.YUVConverter {
+   private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+   private static final VectorSpecies<Byte> BYTES;
+   static {
+      //there is no byte vector shorter than 64 bits, so at least 8 ints are needed
+      if(INTS.length() < 8)
+         throw new UnsupportedOperationException("int vectors are too short");
+      BYTES = VectorSpecies.of(byte.class, VectorShape.forBitSize(8*INTS.length()));
+   }
+   /* Each chroma sample is used by two pixels next to each other. */
+   private static final VectorShuffle<Integer> DOUBLE = VectorShuffle.fromOp(INTS, i -> i/2);
+
+   VectorYUV() {
+   }
+
+   public void convert(byte yuv_in [], int width, int height, int startRow, int endRow, int rgb_out []) {
+      final int lanes = INTS.length();
+      int numpix = width * height;
+      int pU = numpix + (startRow/2) * (width/2);
+      int pV = pU + numpix / 4;
+      for(int h = startRow; h <= endRow - 2; h += 2) {
+         int pY = h * width;
+         int w = 0;
+         //a whole vector of chroma is read though only half of it is used
+         for(; w + lanes <= width && pV + w/2 + lanes <= yuv_in.length; w += lanes) {
+            IntVector u = unsigned(yuv_in, pU + w/2).sub(128).rearrange(DOUBLE);
+            IntVector v = unsigned(yuv_in, pV + w/2).sub(128).rearrange(DOUBLE);
+            IntVector r = v.mul(91881);
+            IntVector g = u.mul(-22553).add(v.mul(-46801));
+            IntVector b = u.mul(116129);
+            pack(unsigned(yuv_in, pY + w), r, g, b).intoArray(rgb_out, pY + w);
+            pack(unsigned(yuv_in, pY + width + w), r, g, b).intoArray(rgb_out, pY + width + w);
+         }
+         VisionUtil.convertRowPair(yuv_in, width, height, h, w, rgb_out);
+         pU += width / 2;
+         pV += width / 2;
+      }
+   }
+
+   /* Loads bytes as ints from 0 to 255. */
+   private static IntVector unsigned(byte [] buf, int offset) {
+      return ((IntVector) ByteVector.fromArray(BYTES, buf, offset)
+      .convertShape(VectorOperators.B2I, INTS, 0)).and(0xff);
+   }
+
+   private static IntVector pack(IntVector y, IntVector r, IntVector g, IntVector b) {
+      y = y.lanewise(VectorOperators.LSHL, 16);
+      return limit(r.add(y)).lanewise(VectorOperators.LSHL, 16)
+      .or(limit(g.add(y)).lanewise(VectorOperators.LSHL, 8))
+      .or(limit(b.add(y)))
+      .or(255<<24);
+   }
+
+   /* The same as VisionUtil.LIMIT. */
+   private static IntVector limit(IntVector x) {
+      return x.lanewise(VectorOperators.ASHR, 16).max(0).min(255);
+   }
+}
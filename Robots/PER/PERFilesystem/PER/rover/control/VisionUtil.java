@@ -6,6 +6,10 @@
 
 package PER.rover.control;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+
 /** Utilities for vision.  Primarily conversions of different sorts.
  *
  * @author  Eric Porter
@@ -21,80 +25,311 @@ public class VisionUtil {
    /** The height of the camera in cm */
    public static final int CAMERA_HEIGHT = 32;
    
+   /** Makes <code>v4l_yuv420p2rgb</code> use the fastest way this computer has. */
+   public static final int CONVERT_FASTEST = 0;
+   /** Makes <code>v4l_yuv420p2rgb</code> multiply in 16.16 fixed point. */
+   public static final int CONVERT_ARITHMETIC = 1;
+   /** Makes <code>v4l_yuv420p2rgb</code> look the products and clipping up in tables. */
+   public static final int CONVERT_TABLE = 2;
+   /** Makes <code>v4l_yuv420p2rgb</code> use SIMD instructions, or tables if it can't. */
+   public static final int CONVERT_VECTOR = 3;
+   
+   /* The 16.16 fixed-point contribution of each U and V value. */
+   private static final int [] rvTable = new int[256], guTable = new int[256];
+   private static final int [] gvTable = new int[256], buTable = new int[256];
+   /* Clips (x>>16) to a byte when indexed by (x>>16) + CLIP_OFFSET.  The
+    * sums range from -227 to 482, so 1024 entries are plenty. */
+   private static final int CLIP_OFFSET = 384;
+   private static final int [] clipTable = new int[1024];
+   static {
+      for(int i=0; i<256; i++) {
+         rvTable[i] = 91881 * (i - 128);
+         guTable[i] = -22553 * (i - 128);
+         gvTable[i] = -46801 * (i - 128);
+         buTable[i] = 116129 * (i - 128);
+      }
+      for(int i=0; i<clipTable.length; i++)
+         clipTable[i] = Math.max(0, Math.min(255, i - CLIP_OFFSET));
+   }
+   
+   /** Converts YUV420P pictures to RGB. */
+   interface YUVConverter {
+      /** Converts rows <code>startRow</code> up to <code>endRow</code>, which
+       * must be even except for the height. */
+      void convert(byte yuv_in [], int width, int height, int startRow, int endRow, int rgb_out []);
+   }
+   
+   /** Uses SIMD instructions if java was run with
+    * <code>--add-modules jdk.incubator.vector</code>, otherwise null. */
+   private static final YUVConverter vectorConverter = loadVectorConverter();
+   
    /** Creates a new instance of VisionUtil */
    public VisionUtil() {
    }
    
+   /* Only loads VectorYUV if its module is there, since otherwise the class
+    * can't be linked.
+    */
+   private static YUVConverter loadVectorConverter() {
+      if(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+         return null;
+      try {
+         return (YUVConverter) Class.forName("PER.rover.control.VectorYUV")
+         .getDeclaredConstructor().newInstance();
+      }catch(Throwable e) {
+         //the processor's vectors are too short, or the API has changed
+         return null;
+      }
+   }
+   
+   /** True if <code>v4l_yuv420p2rgb</code> uses SIMD instructions. */
+   public static boolean isVectorized() {
+      return vectorConverter != null;
+   }
+   
 /*
  * convert a YUV420P to a rgb image
  */
    public static boolean v4l_yuv420p2rgb(byte yuv_in [], int width, int height, int rgb_out []) {
+      return v4l_yuv420p2rgb(yuv_in, width, height, rgb_out, CONVERT_FASTEST);
+   }
+   
+   /**
+    * Converts a YUV420P picture to RGB.
+    * Large pictures are split into bands that are converted on every core.
+    * @param method <code>CONVERT_FASTEST</code>, <code>CONVERT_ARITHMETIC</code>,
+    * <code>CONVERT_TABLE</code> or <code>CONVERT_VECTOR</code>.  They all give
+    * exactly the same pixels.
+    * @return false if <code>yuv_in</code> is too short.
+    * @see ParallelImage
+    */
+   public static boolean v4l_yuv420p2rgb(final byte yuv_in [], final int width, final int height,
+   final int rgb_out [], int method) {
       if(yuv_in.length < 3*width*height/2)
          return false;
-      
-      int numpix = width * height;
-      int h, w, y00, y01, y10, y11, u, v;
-      int pY = 0;
-      int pU = pY + numpix;
-      int pV = pU + numpix / 4;
-      int pOut = 0;
-      
-      for (h = 0; h <= height - 2; h += 2) {
-         for (w = 0; w <= width - 2; w += 2) {
-            y00 = ByteUtil.unsign(yuv_in[pY]);
-            y01 = ByteUtil.unsign(yuv_in[pY + 1]);
-            y10 = ByteUtil.unsign(yuv_in[pY + width]);
-            y11 = ByteUtil.unsign(yuv_in[pY + width + 1]);
-            u = ByteUtil.unsign(yuv_in[pU++]) - 128;
-            v = ByteUtil.unsign(yuv_in[pV++]) - 128;
-            
-            v4l_copy_420_block(y00, y01, y10, y11, u, v, width, pOut, rgb_out);
-            pY += 2;
-            pOut += 2;
+      if(method == CONVERT_FASTEST || method == CONVERT_VECTOR)
+         method = vectorConverter != null ? CONVERT_VECTOR : CONVERT_TABLE;
+      final int m = method;
+      ParallelImage.forEachBand(width, height, 2, new ParallelImage.Band() {
+         public int run(int startRow, int endRow) {
+            if(m == CONVERT_VECTOR)
+               vectorConverter.convert(yuv_in, width, height, startRow, endRow, rgb_out);
+            else if(m == CONVERT_TABLE)
+               for (int h = startRow; h <= endRow - 2; h += 2)
+                  convertRowPairTable(yuv_in, width, height, h, rgb_out);
+            else
+               for (int h = startRow; h <= endRow - 2; h += 2)
+                  convertRowPair(yuv_in, width, height, h, 0, rgb_out);
+            return 0;
          }
-         pY += width;
-         pOut += width;
-      }
+      });
       return true;
    }
    
+   /* The same as convertRowPair for a whole row pair, but with the products
+    * and the clipping looked up in tables.
+    */
+   private static void convertRowPairTable(byte yuv_in [], int width, int height, int h, int rgb_out []) {
+      final int [] clip = clipTable;
+      int pY = h * width;
+      int pU = width * height + (h/2) * (width/2);
+      int pV = pU + width * height / 4;
+      int r, g, b, u, v, y, end = pY + width - 1;
+      for (; pY < end; pY += 2) {
+         u = yuv_in[pU++] & 0xff;
+         v = yuv_in[pV++] & 0xff;
+         r = rvTable[v] + (CLIP_OFFSET << 16);
+         g = guTable[u] + gvTable[v] + (CLIP_OFFSET << 16);
+         b = buTable[u] + (CLIP_OFFSET << 16);
+         
+         y = (yuv_in[pY] & 0xff) << 16;
+         rgb_out[pY] = (255<<24) | (clip[(r+y)>>16]<<16) | (clip[(g+y)>>16]<<8) | clip[(b+y)>>16];
+         y = (yuv_in[pY + 1] & 0xff) << 16;
+         rgb_out[pY + 1] = (255<<24) | (clip[(r+y)>>16]<<16) | (clip[(g+y)>>16]<<8) | clip[(b+y)>>16];
+         y = (yuv_in[pY + width] & 0xff) << 16;
+         rgb_out[pY + width] = (255<<24) | (clip[(r+y)>>16]<<16) | (clip[(g+y)>>16]<<8) | clip[(b+y)>>16];
+         y = (yuv_in[pY + width + 1] & 0xff) << 16;
+         rgb_out[pY + width + 1] = (255<<24) | (clip[(r+y)>>16]<<16) | (clip[(g+y)>>16]<<8) | clip[(b+y)>>16];
+      }
+   }
+   
+   /* Converts rows h and h+1 of a YUV420P picture from column w to the end,
+    * one 2x2 block at a time.  w must be even.
+    */
+   static void convertRowPair(byte yuv_in [], int width, int height, int h, int w, int rgb_out []) {
+      final int rvScale = 91881;
+      final int guScale = -22553;
+      final int gvScale = -46801;
+      final int buScale = 116129;
+      int pY = h * width + w;
+      int pU = width * height + (h/2) * (width/2) + w/2;
+      int pV = pU + width * height / 4;
+      int r, g, b, u, v, y;
+      for (; w <= width - 2; w += 2) {
+         u = (yuv_in[pU++] & 0xff) - 128;
+         v = (yuv_in[pV++] & 0xff) - 128;
+         g = guScale * u + gvScale * v;
+         r = rvScale * v;
+         b = buScale * u;
+         
+         y = (yuv_in[pY] & 0xff) << 16;
+         rgb_out[pY] = (255<<24) | (LIMIT(r+y)<<16) | (LIMIT(g+y)<<8) | LIMIT(b+y);
+         y = (yuv_in[pY + 1] & 0xff) << 16;
+         rgb_out[pY + 1] = (255<<24) | (LIMIT(r+y)<<16) | (LIMIT(g+y)<<8) | LIMIT(b+y);
+         y = (yuv_in[pY + width] & 0xff) << 16;
+         rgb_out[pY + width] = (255<<24) | (LIMIT(r+y)<<16) | (LIMIT(g+y)<<8) | LIMIT(b+y);
+         y = (yuv_in[pY + width + 1] & 0xff) << 16;
+         rgb_out[pY + width + 1] = (255<<24) | (LIMIT(r+y)<<16) | (LIMIT(g+y)<<8) | LIMIT(b+y);
+         pY += 2;
+      }
+   }
+   
+   /**
+    * Converts a YUV420P picture straight into the pixels of an image, so the
+    * same image can be used for every frame.  Writing to the pixels directly
+    * means Java2D won't cache the image on the video card, which is fine for
+    * an image that changes every frame.
+    * @param dest An image from <code>createRGBImage</code> (or any TYPE_INT_RGB
+    * or TYPE_INT_ARGB image that isn't a subimage) of the same size, or null.
+    * @return The image that was written to, which is a new one if
+    * <code>dest</code> was null or can't be used, or null if
+    * <code>yuv_in</code> is too short.
+    */
+   public static BufferedImage v4l_yuv420p2rgb(byte yuv_in [], int width, int height, BufferedImage dest) {
+      if(yuv_in.length < 3*width*height/2)
+         return null;
+      if(!isPlainRGB(dest, width, height))
+         dest = createRGBImage(width, height);
+      int [] pixels = ((DataBufferInt) dest.getRaster().getDataBuffer()).getData();
+      v4l_yuv420p2rgb(yuv_in, width, height, pixels);
+      return dest;
+   }
+   
+   /** Creates an image that <code>v4l_yuv420p2rgb</code> can write into. */
+   public static BufferedImage createRGBImage(int width, int height) {
+      return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+   }
+   
+   /* True if the pixels of the image are exactly one int per pixel with no padding. */
+   private static boolean isPlainRGB(BufferedImage image, int width, int height) {
+      if(image == null || image.getWidth() != width || image.getHeight() != height)
+         return false;
+      if(image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_INT_ARGB)
+         return false;
+      if(!(image.getRaster().getDataBuffer() instanceof DataBufferInt)
+      || !(image.getSampleModel() instanceof SinglePixelPackedSampleModel))
+         return false;
+      SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) image.getSampleModel();
+      return sm.getScanlineStride() == width && image.getRaster().getDataBuffer().getOffset() == 0
+      && image.getRaster().getSampleModelTranslateX() == 0 && image.getRaster().getSampleModelTranslateY() == 0;
+   }
+   
 /*
  * convert a YUV420P to a yuv image in the same format as an rgb one
  */
-   public static boolean v4l_yuv420p2yuv(byte yuv_in [], int width, int height, int yuv_out []) {
+   public static boolean v4l_yuv420p2yuv(final byte yuv_in [], final int width, final int height,
+   final int yuv_out []) {
       if(yuv_in.length < 3*width*height/2)
          return false;
       
-      int numpix = width * height;
-      int h, w, y00, y01, y10, y11, u, v;
-      int pY = 0;
-      int pU = pY + numpix;
-      int pV = pU + numpix / 4;
-      int pOut = 0;
-      
-      for (h = 0; h <= height - 2; h += 2) {
-         for (w = 0; w <= width - 2; w += 2) {
-            y00 = ByteUtil.unsign(yuv_in[pY]);
-            y01 = ByteUtil.unsign(yuv_in[pY + 1]);
-            y10 = ByteUtil.unsign(yuv_in[pY + width]);
-            y11 = ByteUtil.unsign(yuv_in[pY + width + 1]);
-            u = ByteUtil.unsign(yuv_in[pU++]);
-            v = ByteUtil.unsign(yuv_in[pV++]);
+      ParallelImage.forEachBand(width, height, 2, new ParallelImage.Band() {
+         public int run(int startRow, int endRow) {
+            int numpix = width * height;
+            int h, w, y00, y01, y10, y11, u, v;
+            int pY = startRow * width;
+            int pU = numpix + (startRow/2) * (width/2);
+            int pV = pU + numpix / 4;
+            int pOut = pY;
             
-            yuv_out[pOut] = (255<<24) | (v<<16) | (y00<<8) | u;
-            yuv_out[pOut+1] = (255<<24) | (v<<16) | (y01<<8) | u;
-            yuv_out[pOut+width] = (255<<24) | (v<<16) | (y10<<8) | u;
-            yuv_out[pOut+width+1] = (255<<24) | (v<<16) | (y11<<8) | u;
-            
-            pY += 2;
-            pOut += 2;
+            for (h = startRow; h <= endRow - 2; h += 2) {
+               for (w = 0; w <= width - 2; w += 2) {
+                  y00 = yuv_in[pY] & 0xff;
+                  y01 = yuv_in[pY + 1] & 0xff;
+                  y10 = yuv_in[pY + width] & 0xff;
+                  y11 = yuv_in[pY + width + 1] & 0xff;
+                  u = yuv_in[pU++] & 0xff;
+                  v = yuv_in[pV++] & 0xff;
+                  
+                  yuv_out[pOut] = (255<<24) | (v<<16) | (y00<<8) | u;
+                  yuv_out[pOut+1] = (255<<24) | (v<<16) | (y01<<8) | u;
+                  yuv_out[pOut+width] = (255<<24) | (v<<16) | (y10<<8) | u;
+                  yuv_out[pOut+width+1] = (255<<24) | (v<<16) | (y11<<8) | u;
+                  
+                  pY += 2;
+                  pOut += 2;
+               }
+               pY += width + (width & 1);
+               pOut += width + (width & 1);
+            }
+            return 0;
          }
-         pY += width;
-         pOut += width;
-      }
+      });
       return true;
    }
    
+   /**
+    * Finds the pixels of a picture from <code>v4l_yuv420p2yuv</code> that are
+    * within track parameters, the same test the rover uses for color tracking.
+    * Large pictures are split into bands that are done on every core.
+    * @param mask Set to true for the pixels in range and false for the rest,
+    * or null to only count them.
+    * @return The number of pixels in range.
+    */
+   public static int threshold(final int yuv [], final int width, final int height,
+   final int minY, final int maxY, final int minU, final int maxU, final int minV, final int maxV,
+   final boolean mask []) {
+      return ParallelImage.forEachBand(width, height, 1, new ParallelImage.Band() {
+         public int run(int startRow, int endRow) {
+            int count = 0;
+            for(int i = startRow*width; i < endRow*width; i++) {
+               int p = yuv[i];
+               int v = (p >> 16) & 255, y = (p >> 8) & 255, u = p & 255;
+               boolean in = y >= minY && y <= maxY && u >= minU && u <= maxU && v >= minV && v <= maxV;
+               if(in)
+                  count++;
+               if(mask != null)
+                  mask[i] = in;
+            }
+            return count;
+         }
+      });
+   }
+   
+   /**
+    * Converts RGB pixels, such as the pictures ReceiveThread gets, to YUV420P,
+    * the opposite of <code>v4l_yuv420p2rgb</code>.  U and V are the average of
+    * each 2x2 block.  width and height must be even.
+    * @param yuv_out At least width*height*3/2 long.
+    */
+   public static void rgb2yuv420p(final int rgb_in [], final int width, final int height,
+   final byte yuv_out []) {
+      ParallelImage.forEachBand(width, height, 2, new ParallelImage.Band() {
+         public int run(int startRow, int endRow) {
+            int numpix = width * height;
+            int pU = numpix + (startRow/2) * (width/2);
+            int pV = pU + numpix / 4;
+            for(int h = startRow; h <= endRow - 2; h += 2) {
+               for(int w = 0; w <= width - 2; w += 2) {
+                  int r = 0, g = 0, b = 0;
+                  for(int k = 0; k < 4; k++) {
+                     int i = (h + k/2) * width + w + (k & 1);
+                     int p = rgb_in[i];
+                     int pr = (p >> 16) & 255, pg = (p >> 8) & 255, pb = p & 255;
+                     yuv_out[i] = (byte) ((19595*pr + 38470*pg + 7471*pb + 32768) >> 16);
+                     r += pr;
+                     g += pg;
+                     b += pb;
+                  }
+                  //the sums are 4 times the averages, so the scales are divided by 4
+                  yuv_out[pU++] = (byte) LIMIT((-11058*r - 21709*g + 32767*b + (128<<18) + (1<<17)) >> 2);
+                  yuv_out[pV++] = (byte) LIMIT((32767*r - 27439*g - 5328*b + (128<<18) + (1<<17)) >> 2);
+               }
+            }
+            return 0;
+         }
+      });
+   }
+   
    /** 
     * Converts a trackX value into a pan adjustment.  To find the real location 
     * of an object, take pan + objectPan(trackX)
@@ -115,38 +350,38 @@ public class VisionUtil {
       return (TRACK_HEIGHT/2-trackY)*FOV_HEIGHT/TRACK_HEIGHT;
    }
    
+   /**
+    * Times each way of converting YUV420P to RGB on random 640x480 pictures
+    * and checks that they all give the same pixels.  Run java with
+    * <code>--add-modules jdk.incubator.vector</code> to include the SIMD version.
+    */
+   public static void main(String [] args) {
+      final int width = 640, height = 480, frames = 300;
+      byte [] yuv = new byte[3*width*height/2];
+      new java.util.Random(1).nextBytes(yuv);
+      int [] expected = new int[width*height], rgb = new int[width*height];
+      v4l_yuv420p2rgb(yuv, width, height, expected, CONVERT_ARITHMETIC);
+      String [] names = {"arithmetic", "table", "vector"};
+      int [] methods = {CONVERT_ARITHMETIC, CONVERT_TABLE, CONVERT_VECTOR};
+      for(int m=0; m<methods.length; m++) {
+         if(methods[m] == CONVERT_VECTOR && !isVectorized()) {
+            System.out.println("vector: jdk.incubator.vector is not available");
+            continue;
+         }
+         for(int i=0; i<frames; i++) //let the JIT compile it
+            v4l_yuv420p2rgb(yuv, width, height, rgb, methods[m]);
+         long start = System.nanoTime();
+         for(int i=0; i<frames; i++)
+            v4l_yuv420p2rgb(yuv, width, height, rgb, methods[m]);
+         long us = (System.nanoTime() - start) / frames / 1000;
+         System.out.println(names[m]+": "+us+" us per frame"
+         +(java.util.Arrays.equals(expected, rgb) ? "" : ", WRONG PIXELS"));
+      }
+   }
+   
    /* LIMIT: convert a 16.16 fixed-point value to a byte, with clipping. */
    private static int LIMIT(int x) {
       return ((x)>0xffffff?0xff: ((x)<=0xffff?0:((x)>>16)));
    }
    
-/*
- */
-   private static void v4l_copy_420_block(int yTL, int yTR, int yBL, int yBR,
-   int u, int v, int rowPixels, int offset, int rgb []) {
-      final int rvScale = 91881;
-      final int guScale = -22553;
-      final int gvScale = -46801;
-      final int buScale = 116129;
-      final int yScale  = 65536;
-      int r, g, b;
-      
-      g = guScale * u + gvScale * v;
-      r = rvScale * v;
-      b = buScale * u;
-      
-      yTL *= yScale; yTR *= yScale;
-      yBL *= yScale; yBR *= yScale;
-      
-      rgb[offset] = (255<<24) | (LIMIT(r+yTL)<<16) | (LIMIT(g+yTL)<<8) | LIMIT(b+yTL);
-      rgb[offset+1] = (255<<24) | (LIMIT(r+yTR)<<16) | (LIMIT(g+yTR)<<8) | LIMIT(b+yTR);
-      
-      /* Skip down to next line to write out bottom two pixels */
-      offset += rowPixels;
-      
-      rgb[offset] = (255<<24) | (LIMIT(r+yBL)<<16) | (LIMIT(g+yBL)<<8) | LIMIT(b+yBL);
-      rgb[offset+1] = (255<<24) | (LIMIT(r+yBR)<<16) | (LIMIT(g+yBR)<<8) | LIMIT(b+yBR);
-      
-   }
-   
 }
@@ -1,2 +1,4 @@
 cd c:\PERFilesystem
-java PER/Diagnostic
+rem --add-modules jdk.incubator.vector turns on the SIMD camera image conversion.
+rem Without it the rover software still runs, using the slower plain Java conversion.
+java --add-modules jdk.incubator.vector PER/Diagnostic
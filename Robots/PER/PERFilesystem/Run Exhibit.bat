@@ -1,2 +1,4 @@
 cd c:\PERFilesystem
-java -Xmx128m PER/exhibit/Exhibit
+rem --add-modules jdk.incubator.vector turns on the SIMD camera image conversion.
+rem Without it the rover software still runs, using the slower plain Java conversion.
+java --add-modules jdk.incubator.vector -Xmx128m PER/exhibit/Exhibit